@@ -0,0 +1,105 @@
+/*
+ * Copyright (C) Cristian Sulea ( http://cristian.sulea.net )
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package jatoo.weather.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+import jatoo.weather.JaTooWeather;
+import jatoo.weather.JaTooWeatherService;
+
+/**
+ * A stub provider, answering (with the same weather, for any city) after a
+ * configurable latency, to simulate the remote calls of a real provider.
+ * 
+ * @author <a href="http://cristian.sulea.net" rel="author">Cristian Sulea</a>
+ * @version 1.0, October 18, 2026
+ */
+public class JaTooWeatherBenchmarkService extends JaTooWeatherService {
+
+  /** The latency of the provider, in nanoseconds. */
+  private final long latency;
+
+  /**
+   * Creates a provider with the given latency.
+   * 
+   * @param latency
+   *          the latency, in microseconds (0 to answer immediately)
+   */
+  public JaTooWeatherBenchmarkService(final long latency) {
+    this.latency = TimeUnit.MICROSECONDS.toNanos(latency);
+  }
+
+  @Override
+  protected JaTooWeather getWeatherImpl(final String city) throws Throwable {
+
+    if (latency > 0) {
+      LockSupport.parkNanos(latency);
+    }
+
+    return createWeather(this, city);
+  }
+
+  /**
+   * Creates a (realistic) weather, with all the values present.
+   * 
+   * @param service
+   *          the service
+   * @param city
+   *          the city
+   * 
+   * @return the weather
+   */
+  public static JaTooWeather createWeather(final JaTooWeatherService service, final String city) {
+
+    JaTooWeather weather = new JaTooWeather(service);
+
+    weather.timestamp = System.currentTimeMillis();
+
+    weather.city = city;
+    weather.description = "broken clouds";
+
+    weather.temperature = 15.07;
+    weather.temperatureUnit = JaTooWeather.TEMPERATURE_UNIT.CELSIUS;
+
+    weather.humidity = 79;
+    weather.humidityUnit = JaTooWeather.HUMIDITY_UNIT.PERCENT;
+
+    weather.pressure = 1026.69;
+    weather.pressureUnit = JaTooWeather.PRESSURE_UNIT.HPA;
+
+    weather.wind = 2.21;
+    weather.windUnit = JaTooWeather.WIND_UNIT.METER_PER_SEC;
+
+    weather.windDirection = 57.5015;
+    weather.windDirectionUnit = JaTooWeather.WIND_DIRECTION_UNIT.DEGREES_METEOROLOGICAL;
+
+    weather.clouds = 56;
+    weather.cloudsUnit = JaTooWeather.CLOUDS_UNIT.PERCENT;
+
+    weather.rain = 0.25;
+    weather.snow = 0;
+
+    weather.sunrise = 1476073518000L;
+    weather.sunset = 1476113917000L;
+
+    return weather;
+  }
+
+}
@@ -0,0 +1,83 @@
+/*
+ * Copyright (C) Cristian Sulea ( http://cristian.sulea.net )
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package jatoo.weather.benchmarks;
+
+import java.io.IOException;
+import java.nio.file.Files;
+
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.ChainedOptionsBuilder;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Runs the benchmarks (all, or the ones selected by the usual JMH command line
+ * options). Unless told otherwise, the results are written as JSON, in
+ * <code>jmh-result.json</code>, so they can be compared across commits.
+ * 
+ * <pre>
+ * java -jar benchmarks/target/benchmarks.jar [JMH options]
+ * </pre>
+ * 
+ * @author <a href="http://cristian.sulea.net" rel="author">Cristian Sulea</a>
+ * @version 1.0, October 18, 2026
+ */
+public final class JaTooWeatherBenchmarks {
+
+  /** The file of the results, if not given on the command line. */
+  public static final String RESULT_FILE = "jmh-result.json";
+
+  private static boolean temporaryHome;
+
+  public static void main(final String[] args) throws Exception {
+
+    CommandLineOptions options = new CommandLineOptions(args);
+    ChainedOptionsBuilder builder = new OptionsBuilder().parent(options);
+
+    if (!options.getResultFormat().hasValue()) {
+      builder.resultFormat(ResultFormatType.JSON);
+    }
+
+    if (!options.getResult().hasValue()) {
+      builder.result(RESULT_FILE);
+    }
+
+    new Runner(builder.build()).run();
+  }
+
+  /**
+   * Moves the home of the (forked) benchmark JVM into a temporary directory, so
+   * the cache of the benchmarks does not touch (nor load) the real one. Must be
+   * called before the first service is created.
+   * 
+   * @throws IOException
+   *           if the directory could not be created
+   */
+  static synchronized void useTemporaryHome() throws IOException {
+
+    if (!temporaryHome) {
+      System.setProperty("user.home", Files.createTempDirectory("jatoo-weather-benchmarks").toString());
+      temporaryHome = true;
+    }
+  }
+
+  private JaTooWeatherBenchmarks() {}
+
+}
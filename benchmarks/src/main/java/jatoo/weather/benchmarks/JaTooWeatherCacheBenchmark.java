@@ -0,0 +1,89 @@
+/*
+ * Copyright (C) Cristian Sulea ( http://cristian.sulea.net )
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package jatoo.weather.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import jatoo.weather.JaTooWeatherCache;
+import jatoo.weather.JaTooWeatherService;
+
+/**
+ * The persistence of the cache: {@link JaTooWeatherCache#save()} and
+ * {@link JaTooWeatherCache#load()}, at 1k, 100k and 1M entries.
+ * 
+ * @author <a href="http://cristian.sulea.net" rel="author">Cristian Sulea</a>
+ * @version 1.0, October 18, 2026
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+public class JaTooWeatherCacheBenchmark {
+
+  /** The number of entries of the cache. */
+  @Param({ "1000", "100000", "1000000" })
+  public int size;
+
+  private JaTooWeatherCache cache;
+
+  @Setup
+  public void setUp() throws Exception {
+
+    JaTooWeatherBenchmarks.useTemporaryHome();
+
+    JaTooWeatherService service = new JaTooWeatherBenchmarkService(0);
+
+    cache = JaTooWeatherCache.getInstance();
+    cache.setMaximumSize(Math.max(size, cache.getMaximumSize()));
+    cache.setWriteBehindThreshold(Integer.MAX_VALUE);
+
+    for (int i = 0; i < size; i++) {
+      String city = "city-" + i;
+      cache.add(service, city, JaTooWeatherBenchmarkService.createWeather(service, city));
+    }
+
+    cache.flush();
+    cache.save();
+  }
+
+  @Benchmark
+  public boolean save() {
+    return cache.save();
+  }
+
+  @Benchmark
+  public boolean load() {
+    return cache.load();
+  }
+
+}
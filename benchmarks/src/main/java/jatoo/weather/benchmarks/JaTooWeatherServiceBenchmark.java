@@ -0,0 +1,127 @@
+/*
+ * Copyright (C) Cristian Sulea ( http://cristian.sulea.net )
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package jatoo.weather.benchmarks;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import jatoo.weather.JaTooWeather;
+import jatoo.weather.JaTooWeatherService;
+
+/**
+ * The hit (cached city) and miss (new city, fetched from the provider) paths of
+ * {@link JaTooWeatherService#getWeather(String)}, at 1, 8 and 64 threads.
+ * 
+ * @author <a href="http://cristian.sulea.net" rel="author">Cristian Sulea</a>
+ * @version 1.0, October 18, 2026
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class JaTooWeatherServiceBenchmark {
+
+  /** The number of the cached cities (the hits are spread over them). */
+  private static final int CITIES = 1024;
+
+  /** The latency of the provider, in microseconds. */
+  @Param({ "0", "1000" })
+  public long latency;
+
+  private JaTooWeatherService service;
+
+  private final String[] cities = new String[CITIES];
+
+  /** The counter of the misses (each miss asks for a new city). */
+  private final AtomicLong misses = new AtomicLong();
+
+  @Setup
+  public void setUp() throws Exception {
+
+    JaTooWeatherBenchmarks.useTemporaryHome();
+
+    service = new JaTooWeatherBenchmarkService(latency);
+
+    for (int i = 0; i < CITIES; i++) {
+      cities[i] = "city-" + i;
+      service.getWeather(cities[i]);
+    }
+  }
+
+  @Benchmark
+  @Threads(1)
+  public JaTooWeather hit01() {
+    return hit();
+  }
+
+  @Benchmark
+  @Threads(8)
+  public JaTooWeather hit08() {
+    return hit();
+  }
+
+  @Benchmark
+  @Threads(64)
+  public JaTooWeather hit64() {
+    return hit();
+  }
+
+  @Benchmark
+  @Threads(1)
+  public JaTooWeather miss01() {
+    return miss();
+  }
+
+  @Benchmark
+  @Threads(8)
+  public JaTooWeather miss08() {
+    return miss();
+  }
+
+  @Benchmark
+  @Threads(64)
+  public JaTooWeather miss64() {
+    return miss();
+  }
+
+  private JaTooWeather hit() {
+    return service.getWeather(cities[ThreadLocalRandom.current().nextInt(CITIES)]);
+  }
+
+  private JaTooWeather miss() {
+    return service.getWeather("miss-" + misses.incrementAndGet());
+  }
+
+}
@@ -0,0 +1,136 @@
+/*
+ * Copyright (C) Cristian Sulea ( http://cristian.sulea.net )
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package jatoo.weather.benchmarks;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import jatoo.weather.JaTooWeather;
+import jatoo.weather.JaTooWeatherCache;
+import jatoo.weather.JaTooWeatherCacheBinaryCodec;
+import jatoo.weather.JaTooWeatherService;
+
+/**
+ * The startup of the cache, in a fresh JVM, over a saved cache of 1k, 100k and
+ * 1M entries: the time until the first lookup is answered (the load going on
+ * in background) and the time until the whole cache is loaded.
+ * <p>
+ * The saved cache is created once (per size and version of the codec), by
+ * another JVM, in the temporary directory, so each measured fork starts cold
+ * (and never migrates a cache saved by an older release).
+ * 
+ * @author <a href="http://cristian.sulea.net" rel="author">Cristian Sulea</a>
+ * @version 1.0, October 18, 2026
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 0)
+@Measurement(iterations = 1)
+@Fork(value = 10, jvmArgsAppend = "-Xmx4g")
+public class JaTooWeatherStartupBenchmark {
+
+  /** The number of entries of the saved cache. */
+  @Param({ "1000", "100000", "1000000" })
+  public int size;
+
+  @Setup
+  public void setUp() throws Exception {
+
+    File directory = new File(System.getProperty("java.io.tmpdir"), "jatoo-weather-startup-v" + JaTooWeatherCacheBinaryCodec.VERSION + "-" + size);
+
+    if (!new File(directory, "cache.obj").exists()) {
+      create(directory, size);
+    }
+
+    JaTooWeatherCache.setDirectory(directory);
+  }
+
+  /**
+   * Creates the saved cache, in another JVM (in this one the cache would be
+   * already in use, so not cold anymore).
+   */
+  private static void create(final File directory, final int size) throws IOException, InterruptedException {
+
+    File java = new File(new File(System.getProperty("java.home"), "bin"), "java");
+
+    Process process = new ProcessBuilder(java.getPath(), "-Xmx4g", "-cp", System.getProperty("java.class.path"), JaTooWeatherStartupBenchmark.class.getName(), directory.getPath(), Integer.toString(size)).inheritIO().start();
+
+    if (process.waitFor() != 0) {
+      throw new IOException("failed to create the cache in: " + directory);
+    }
+  }
+
+  @Benchmark
+  public JaTooWeather firstLookup() {
+
+    JaTooWeatherService service = new JaTooWeatherBenchmarkService(0);
+
+    return JaTooWeatherCache.getInstance().get(service, "city-" + (size - 1));
+  }
+
+  @Benchmark
+  public boolean fullLoad() throws InterruptedException {
+
+    new JaTooWeatherBenchmarkService(0);
+
+    return JaTooWeatherCache.getInstance().awaitLoaded(1, TimeUnit.MINUTES);
+  }
+
+  /**
+   * Creates the saved cache in the given directory.
+   * 
+   * @param args
+   *          the directory and the number of entries
+   */
+  public static void main(final String[] args) {
+
+    JaTooWeatherCache.setDirectory(new File(args[0]));
+
+    int size = Integer.parseInt(args[1]);
+
+    JaTooWeatherService service = new JaTooWeatherBenchmarkService(0);
+
+    JaTooWeatherCache cache = JaTooWeatherCache.getInstance();
+    cache.setMaximumSize(Math.max(size, cache.getMaximumSize()));
+    cache.setWriteBehindThreshold(Integer.MAX_VALUE);
+
+    for (int i = 0; i < size; i++) {
+      String city = "city-" + i;
+      cache.add(service, city, JaTooWeatherBenchmarkService.createWeather(service, city));
+    }
+
+    cache.flush();
+    cache.save();
+  }
+
+}
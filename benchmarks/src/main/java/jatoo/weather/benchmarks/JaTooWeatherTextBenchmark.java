@@ -0,0 +1,128 @@
+/*
+ * Copyright (C) Cristian Sulea ( http://cristian.sulea.net )
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package jatoo.weather.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import jatoo.weather.JaTooWeather;
+import jatoo.weather.JaTooWeatherFormatter;
+
+/**
+ * The rendering of the weather as text: all the
+ * <code>getXxxTextFull()</code> methods of {@link JaTooWeather}, plus a
+ * compiled template with all of them (for comparison).
+ * 
+ * @author <a href="http://cristian.sulea.net" rel="author">Cristian Sulea</a>
+ * @version 1.0, October 18, 2026
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class JaTooWeatherTextBenchmark {
+
+  private JaTooWeather weather;
+
+  private JaTooWeatherFormatter.Template template;
+
+  private final StringBuilder builder = new StringBuilder();
+
+  @Setup
+  public void setUp() throws Exception {
+
+    JaTooWeatherBenchmarks.useTemporaryHome();
+
+    JaTooWeatherBenchmarkService service = new JaTooWeatherBenchmarkService(0);
+
+    weather = service.getWeather("683506");
+    template = service.getFormatter().compile("{temperature.full}, {humidity.full}, {pressure.full}, {wind.full}, {windDirection.full}, {clouds.full}, {rain.full}, {snow.full}, {sunrise.full}, {sunset.full}");
+  }
+
+  @Benchmark
+  public String temperatureTextFull() {
+    return weather.getTemperatureTextFull();
+  }
+
+  @Benchmark
+  public String humidityTextFull() {
+    return weather.getHumidityTextFull();
+  }
+
+  @Benchmark
+  public String pressureTextFull() {
+    return weather.getPressureTextFull();
+  }
+
+  @Benchmark
+  public String windTextFull() {
+    return weather.getWindTextFull();
+  }
+
+  @Benchmark
+  public String windDirectionTextFull() {
+    return weather.getWindDirectionTextFull();
+  }
+
+  @Benchmark
+  public String cloudsTextFull() {
+    return weather.getCloudsTextFull();
+  }
+
+  @Benchmark
+  public String rainTextFull() {
+    return weather.getRainTextFull();
+  }
+
+  @Benchmark
+  public String snowTextFull() {
+    return weather.getSnowTextFull();
+  }
+
+  @Benchmark
+  public String sunriseTextFull() {
+    return weather.getSunriseTextFull();
+  }
+
+  @Benchmark
+  public String sunsetTextFull() {
+    return weather.getSunsetTextFull();
+  }
+
+  @Benchmark
+  public StringBuilder template() {
+
+    builder.setLength(0);
+
+    return template.format(weather, builder);
+  }
+
+}
@@ -17,8 +17,7 @@
 
 package jatoo.weather;
 
-import java.text.SimpleDateFormat;
-import java.util.Date;
+import java.time.ZoneId;
 
 /**
  * The object representation of the weather.
@@ -95,28 +94,24 @@ public class JaTooWeather {
   public Long sunrise;
   public Long sunset;
 
-  private final JaTooWeatherService service;
+  /** The zone of the city (<code>null</code> for the default zone). */
+  public ZoneId zone;
 
-  private final String missingValueText;
-  private final String unitSeparatorText;
-  private final String valueSeparatorText;
+  /** The coordinates of the city, in degrees (<code>null</code> if unknown). */
+  public Double latitude;
+  public Double longitude;
 
-  public JaTooWeather(final JaTooWeatherService service) {
+  private final JaTooWeatherService service;
 
+  public JaTooWeather(final JaTooWeatherService service) {
     this.service = service;
-
-    this.missingValueText = service.getText("jatoo.weather.missingValue");
-    this.unitSeparatorText = service.getText("jatoo.weather.unitSeparator");
-    this.valueSeparatorText = service.getText("jatoo.weather.valueSeparator");
   }
 
   public JaTooWeather(final JaTooWeatherService service, final JaTooWeatherCacheObject weather) {
 
     this.service = service;
 
-    this.missingValueText = service.getText("jatoo.weather.missingValue");
-    this.unitSeparatorText = service.getText("jatoo.weather.unitSeparator");
-    this.valueSeparatorText = service.getText("jatoo.weather.valueSeparator");
+    this.timestamp = weather.getTimestamp();
 
     this.city = weather.getCity();
     this.description = weather.getDescription();
@@ -147,6 +142,11 @@ public class JaTooWeather {
 
     this.sunrise = weather.getSunrise();
     this.sunset = weather.getSunset();
+
+    this.zone = weather.getZone();
+
+    this.latitude = weather.getLatitude();
+    this.longitude = weather.getLongitude();
   }
 
   //
@@ -154,120 +154,101 @@ public class JaTooWeather {
   //
 
   public final String getDescriptionText() {
-    if (description == null) {
-      return missingValueText;
-    }
-    return description;
+    return service.getFormatter().format(this, JaTooWeatherFormatter.DESCRIPTION);
   }
 
   public final String getTemperatureText() {
-    if (temperature == null) {
-      return missingValueText;
-    }
-    return temperature + unitSeparatorText + service.getText("jatoo.weather.temperature.unit." + temperatureUnit.name());
+    return service.getFormatter().format(this, JaTooWeatherFormatter.TEMPERATURE);
   }
 
   public final String getTemperatureTextFull() {
-    return service.getText("jatoo.weather.temperature.text") + valueSeparatorText + getTemperatureText();
+    return service.getFormatter().format(this, JaTooWeatherFormatter.TEMPERATURE | JaTooWeatherFormatter.FULL);
   }
 
   public final String getHumidityText() {
-    if (humidity == null) {
-      return missingValueText;
-    }
-    return humidity + unitSeparatorText + service.getText("jatoo.weather.humidity.unit." + humidityUnit.name());
+    return service.getFormatter().format(this, JaTooWeatherFormatter.HUMIDITY);
   }
 
   public final String getHumidityTextFull() {
-    return service.getText("jatoo.weather.humidity.text") + valueSeparatorText + getHumidityText();
+    return service.getFormatter().format(this, JaTooWeatherFormatter.HUMIDITY | JaTooWeatherFormatter.FULL);
   }
 
   public final String getPressureText() {
-    if (pressure == null) {
-      return missingValueText;
-    }
-    return pressure + unitSeparatorText + service.getText("jatoo.weather.pressure.unit." + pressureUnit.name());
+    return service.getFormatter().format(this, JaTooWeatherFormatter.PRESSURE);
   }
 
   public final String getPressureTextFull() {
-    return service.getText("jatoo.weather.pressure.text") + valueSeparatorText + getPressureText();
+    return service.getFormatter().format(this, JaTooWeatherFormatter.PRESSURE | JaTooWeatherFormatter.FULL);
   }
 
   public final String getWindText() {
-    if (wind == null) {
-      return missingValueText;
-    }
-    return wind + unitSeparatorText + service.getText("jatoo.weather.wind.unit." + windUnit.name());
+    return service.getFormatter().format(this, JaTooWeatherFormatter.WIND);
   }
 
   public final String getWindTextFull() {
-    return service.getText("jatoo.weather.wind.text") + valueSeparatorText + getWindText();
+    return service.getFormatter().format(this, JaTooWeatherFormatter.WIND | JaTooWeatherFormatter.FULL);
   }
 
   public final String getWindDirectionText() {
-    if (windDirection == null) {
-      return missingValueText;
-    }
-    return windDirection + unitSeparatorText + service.getText("jatoo.weather.windDirection.unit." + windDirectionUnit.name());
+    return service.getFormatter().format(this, JaTooWeatherFormatter.WIND_DIRECTION);
   }
 
   public final String getWindDirectionTextFull() {
-    return service.getText("jatoo.weather.windDirection.text") + valueSeparatorText + getWindDirectionText();
+    return service.getFormatter().format(this, JaTooWeatherFormatter.WIND_DIRECTION | JaTooWeatherFormatter.FULL);
   }
 
   public final String getCloudsText() {
-    if (clouds == null) {
-      return missingValueText;
-    }
-    return clouds + unitSeparatorText + service.getText("jatoo.weather.clouds.unit." + cloudsUnit.name());
+    return service.getFormatter().format(this, JaTooWeatherFormatter.CLOUDS);
   }
 
   public final String getCloudsTextFull() {
-    return service.getText("jatoo.weather.clouds.text") + valueSeparatorText + getCloudsText();
+    return service.getFormatter().format(this, JaTooWeatherFormatter.CLOUDS | JaTooWeatherFormatter.FULL);
   }
 
   public final String getRainText() {
-    if (rain == null) {
-      return missingValueText;
-    }
-    return String.valueOf(rain);
+    return service.getFormatter().format(this, JaTooWeatherFormatter.RAIN);
   }
 
   public final String getRainTextFull() {
-    return service.getText("jatoo.weather.rain.text") + valueSeparatorText + getRainText();
+    return service.getFormatter().format(this, JaTooWeatherFormatter.RAIN | JaTooWeatherFormatter.FULL);
   }
 
   public final String getSnowText() {
-    if (snow == null) {
-      return missingValueText;
-    }
-    return String.valueOf(snow);
+    return service.getFormatter().format(this, JaTooWeatherFormatter.SNOW);
   }
 
   public final String getSnowTextFull() {
-    return service.getText("jatoo.weather.snow.text") + valueSeparatorText + getSnowText();
+    return service.getFormatter().format(this, JaTooWeatherFormatter.SNOW | JaTooWeatherFormatter.FULL);
   }
 
   public final String getSunriseText() {
-    if (sunrise == null) {
-      return missingValueText;
-    }
-    return new SimpleDateFormat(service.getText("jatoo.weather.sunrise.pattern")).format(new Date(sunrise));
+    return service.getFormatter().format(this, JaTooWeatherFormatter.SUNRISE);
   }
 
   public final String getSunriseTextFull() {
-    return service.getText("jatoo.weather.sunrise.text") + valueSeparatorText + getSunriseText();
+    return service.getFormatter().format(this, JaTooWeatherFormatter.SUNRISE | JaTooWeatherFormatter.FULL);
   }
 
   public final String getSunsetText() {
-    if (sunset == null) {
-      return missingValueText;
-    }
-    return new SimpleDateFormat(service.getText("jatoo.weather.sunset.pattern")).format(new Date(sunset));
+    return service.getFormatter().format(this, JaTooWeatherFormatter.SUNSET);
   }
 
   public final String getSunsetTextFull() {
-    return service.getText("jatoo.weather.sunset.text") + valueSeparatorText + getSunsetText();
+    return service.getFormatter().format(this, JaTooWeatherFormatter.SUNSET | JaTooWeatherFormatter.FULL);
+  }
+
+  /**
+   * Renders this weather using the given template.
+   * 
+   * @param template
+   *          the template, like <code>"{temperature.full}, {humidity}"</code>
+   * 
+   * @return the text
+   * 
+   * @see JaTooWeatherFormatter
+   */
+  public final String format(final String template) {
+    return service.getFormatter().format(this, template);
   }
 
   //
@@ -442,4 +423,28 @@ public class JaTooWeather {
     this.sunset = sunset;
   }
 
+  public ZoneId getZone() {
+    return this.zone;
+  }
+
+  public void setZone(ZoneId zone) {
+    this.zone = zone;
+  }
+
+  public Double getLatitude() {
+    return this.latitude;
+  }
+
+  public void setLatitude(Double latitude) {
+    this.latitude = latitude;
+  }
+
+  public Double getLongitude() {
+    return this.longitude;
+  }
+
+  public void setLongitude(Double longitude) {
+    this.longitude = longitude;
+  }
+
 }
@@ -17,14 +17,44 @@
 
 package jatoo.weather;
 
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
 import java.io.File;
 import java.io.FileInputStream;
+import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
 import java.io.IOException;
-import java.io.ObjectInputStream;
-import java.io.ObjectOutputStream;
+import java.nio.channels.FileLock;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.BiPredicate;
+
+import javax.management.ObjectName;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
@@ -35,83 +65,1533 @@ import org.apache.commons.logging.LogFactory;
  * @author <a href="http://cristian.sulea.net" rel="author">Cristian Sulea</a>
  * @version 1.0, October 19, 2016
  */
-@SuppressWarnings("unchecked")
 public class JaTooWeatherCache {
 
   /** The logger. */
   private static final Log LOGGER = LogFactory.getLog(JaTooWeatherCache.class);
 
-  /** The file where the cache will be saved. */
-  private static final File CACHE_FILE = new File(System.getProperty("user.home"), ".jatoo/weather/cache.obj");
-  static {
-    CACHE_FILE.getParentFile().mkdirs();
-  }
+  /**
+   * The system property with the directory of the cache, if not the default
+   * one (<code>.jatoo/weather</code>, in the home of the user).
+   */
+  public static final String DIRECTORY_PROPERTY = "jatoo.weather.cache.dir";
+
+  /** The magic number at the beginning of the files of the cache. */
+  static final int MAGIC = 0x4A545743;
+
+  /** The length of the header of the files of the cache. */
+  static final int HEADER_LENGTH = 6;
+
+  /** The codec of the cached objects. */
+  private static final JaTooWeatherCacheCodec CODEC = new JaTooWeatherCacheBinaryCodec();
+
+  /** The maximum number of keys saved in the hot set. */
+  private static final int HOT_SET_MAXIMUM_SIZE = 1000;
+
+  /** The least heat of a hot entry (about an access in the last half-life). */
+  private static final double HOT_HEAT_THRESHOLD = 1;
+
+  /**
+   * The minimum number of records in the journal before a compaction (a save of
+   * the whole cache, followed by the truncation of the journal). Above it, the
+   * journal is compacted once it holds more records than half the cache, so the
+   * cost of the compactions stays constant per added object.
+   */
+  private static final int JOURNAL_COMPACTION_THRESHOLD = 1000;
+
+  /**
+   * The (estimated) heap size of an entry, without the texts: the node of the
+   * map, the entry and the object with all its values.
+   */
+  private static final int ENTRY_HEAP_SIZE = 232;
 
-  /** The cache. */
-  private static final Map<String, JaTooWeatherCacheObject> CACHE = new HashMap<>();
+  /**
+   * The interval between the checks for the changes made by the other
+   * processes sharing the directory of the cache, in milliseconds. The checks
+   * are done in the background only, never by the lookups.
+   */
+  private static final long SYNC_INTERVAL = TimeUnit.SECONDS.toMillis(1);
+
+  /** The number of entries sampled to estimate the heap size of the cache. */
+  private static final int HEAP_SIZE_SAMPLES = 1000;
+
+  /**
+   * The cache, safe for concurrent lookups and updates (there is no global lock
+   * around it, the services are synchronizing per key).
+   */
+  private static final Map<String, JaTooWeatherCacheEntry> CACHE = new ConcurrentHashMap<>();
+
+  /** The spatial index of the cached objects with coordinates. */
+  private static final JaTooWeatherCacheGeoIndex GEO_INDEX = new JaTooWeatherCacheGeoIndex();
+
+  /**
+   * The keys of the hot set (with their heat) restored after a restart, but
+   * missing from the cache, to be warmed up.
+   */
+  private static final Map<String, Double> WARM_UP = new ConcurrentHashMap<>();
+
+  /** The keys added since the last flush (in write-behind mode). */
+  private static final Set<String> DIRTY = ConcurrentHashMap.newKeySet();
+
+  /** The scheduler of the (write-behind) flushes. */
+  private static final ScheduledExecutorService FLUSHER = new ScheduledThreadPoolExecutor(1, JaTooWeatherExecutors.newThreadFactory("jatoo-weather-cache-flush"));
 
-  /** The singleton instance. */
-  private static final JaTooWeatherCache INSTANCE = new JaTooWeatherCache();
+  /** The directory of the cache, if set before the first use. */
+  private static File configuredDirectory;
+
+  /** The singleton instance (created, and loaded, on first use). */
+  private static volatile JaTooWeatherCache instance;
 
   /**
-   * The getter for the singleton instance.
+   * The getter for the singleton instance. The first call creates the cache
+   * and starts loading it in the background, without waiting for the load.
    * 
    * @return the singleton instance
    */
   public static JaTooWeatherCache getInstance() {
-    return INSTANCE;
+
+    JaTooWeatherCache instance = JaTooWeatherCache.instance;
+
+    if (instance == null) {
+
+      synchronized (JaTooWeatherCache.class) {
+
+        instance = JaTooWeatherCache.instance;
+
+        if (instance == null) {
+          JaTooWeatherCache.instance = instance = new JaTooWeatherCache(getDirectory());
+        }
+      }
+    }
+
+    return instance;
+  }
+
+  /**
+   * Sets the directory where the cache is saved, instead of the one given by
+   * the {@link #DIRECTORY_PROPERTY} system property (or the default one). Must
+   * be called before the first use of the cache (before the first service is
+   * created).
+   * 
+   * @param directory
+   *          the directory
+   * 
+   * @throws IllegalStateException
+   *           if the cache is already in use
+   */
+  public static synchronized void setDirectory(final File directory) {
+
+    if (instance != null) {
+      throw new IllegalStateException("the cache is already in use, in: " + instance.directory);
+    }
+
+    configuredDirectory = directory;
+  }
+
+  /**
+   * Gets the directory where the cache is saved: the one set with
+   * {@link #setDirectory(File)}, the one given by the
+   * {@link #DIRECTORY_PROPERTY} system property, or <code>.jatoo/weather</code>
+   * in the home of the user.
+   * 
+   * @return the directory
+   */
+  public static synchronized File getDirectory() {
+
+    if (instance != null) {
+      return instance.directory;
+    }
+
+    if (configuredDirectory != null) {
+      return configuredDirectory;
+    }
+
+    String property = System.getProperty(DIRECTORY_PROPERTY);
+
+    if (property != null && !property.isEmpty()) {
+      return new File(property);
+    }
+
+    return new File(System.getProperty("user.home"), ".jatoo/weather");
   }
 
+  /** The directory of the cache (created on the first write). */
+  private final File directory;
+
+  /** The file where the cache will be saved. */
+  private final File cacheFile;
+
+  /** The journal, where the objects added since the last save are appended. */
+  private final JaTooWeatherCacheJournal journal;
+
+  /** The file of the hot set: the hottest keys, with their heat. */
+  private final File hotFile;
+
+  /** The lock of the directory, shared with the other processes using it. */
+  private final JaTooWeatherCacheLock directoryLock;
+
+  /** The generation of the last snapshot read (or saved) by this process. */
+  private volatile long generation;
+
+  /** The thread of the first load, while loading. */
+  private volatile Thread loader;
+
+  /** The hook saving the cache on exit. */
+  final Thread shutdownHook;
+
+  /** Released when the first load (started in background) is done. */
+  private final CountDownLatch loaded = new CountDownLatch(1);
+
+  /**
+   * The lookups of the keys not loaded yet, waiting for the first load to reach
+   * them (or to end).
+   */
+  private final Map<String, CountDownLatch> loadWaiters = new ConcurrentHashMap<>();
+
+  /** The longest time a lookup waits for its key to be loaded. */
+  private volatile long loadWait = TimeUnit.SECONDS.toMillis(1);
+
+  /**
+   * Whether the added objects are written to disk later, in the background
+   * (off by default, so an added object is on disk as soon as possible).
+   */
+  private volatile boolean writeBehind;
+
+  /** The (maximum) interval between two flushes, in milliseconds. */
+  private long writeBehindInterval = TimeUnit.SECONDS.toMillis(5);
+
+  /** The number of dirty keys triggering a flush before the interval ends. */
+  private volatile int writeBehindThreshold = 500;
+
+  /** The periodic flush. */
+  private ScheduledFuture<?> writeBehindFlush;
+
+  /**
+   * Whether a flush (triggered by a put, or by the dirty keys threshold) is
+   * pending.
+   */
+  private final AtomicBoolean flushPending = new AtomicBoolean();
+
+  /** The maximum number of entries, beyond which entries are evicted. */
+  private volatile int maximumSize = 100000;
+
+  /** The maximum age of the entries, beyond which they are purged. */
+  private volatile long maximumAge = TimeUnit.DAYS.toMillis(1);
+
+  /**
+   * The hand of the eviction clock, sweeping the entries (guarded by the
+   * {@link #evictionLock}).
+   */
+  private Iterator<Map.Entry<String, JaTooWeatherCacheEntry>> evictionClock;
+
+  /** The lock of the eviction sweeps (only one at a time, never waited for). */
+  private final Lock evictionLock = new ReentrantLock();
+
+  /** The number of evicted (or purged) entries. */
+  private final LongAdder evictions = new LongAdder();
+
+  /** The number of entries removed since the last save (still on disk). */
+  private final AtomicInteger removedSinceSave = new AtomicInteger();
+
+  /** The shared (second level) store, if any. */
+  private volatile JaTooWeatherCacheStore store;
+
+  /** The metrics (registered as MBean on demand). */
+  private final JaTooWeatherCacheMetrics metrics = new JaTooWeatherCacheMetrics(this);
+
+  /** The name of the MBean of the metrics, if registered. */
+  private ObjectName objectName;
+
   /** Private constructor for singleton classes. */
-  private JaTooWeatherCache() {
-    load();
+  private JaTooWeatherCache(final File directory) {
+
+    this.directory = directory;
+    this.cacheFile = new File(directory, "cache.obj");
+    this.journal = new JaTooWeatherCacheJournal(new File(directory, "cache.journal"), CODEC);
+    this.hotFile = new File(directory, "cache.hot");
+    this.directoryLock = new JaTooWeatherCacheLock(new File(directory, "cache.lock"));
+
+    // the flusher loads first, so the (scheduled) flushes
+    // and purges never run against a partially loaded cache
+    FLUSHER.execute(() -> {
+
+      loader = Thread.currentThread();
+
+      try {
+        load();
+      }
+
+      finally {
+        loader = null;
+        loaded.countDown();
+        loadWaiters.values().forEach(CountDownLatch::countDown);
+        loadWaiters.clear();
+      }
+    });
+
+    scheduleFlush();
+
+    FLUSHER.scheduleWithFixedDelay(this::purge, 1, 1, TimeUnit.MINUTES);
+
+    FLUSHER.scheduleWithFixedDelay(this::syncIfChanged, SYNC_INTERVAL, SYNC_INTERVAL, TimeUnit.MILLISECONDS);
+
+    shutdownHook = new Thread(() -> {
+      flush();
+
+      // a partially loaded cache has a partial hot set
+      if (isLoaded()) {
+        saveHotSet();
+      }
+    }, "jatoo-weather-cache-shutdown");
+
+    Runtime.getRuntime().addShutdownHook(shutdownHook);
   }
 
+  /**
+   * Loads the cache: the last saved snapshot, followed by the replay of the
+   * journal. The loaded objects are visible to the lookups as soon as they are
+   * read, and they never replace newer (or the same) objects.
+   * 
+   * @return <code>true</code> if the cache was loaded, <code>false</code>
+   *         otherwise
+   */
   public boolean load() {
 
-    try (ObjectInputStream stream = new ObjectInputStream(new FileInputStream(CACHE_FILE))) {
-      CACHE.putAll((Map<String, JaTooWeatherCacheObject>) stream.readObject());
+    long start = System.nanoTime();
+
+    boolean loaded = true;
+    boolean migrate = false;
+
+    synchronized (journal) {
+
+      try {
+        migrate = locked(this::read);
+      }
+
+      catch (IOException e) {
+        LOGGER.warn("failed to load the cache", e);
+        loaded = false;
+      }
     }
 
-    catch (IOException | ClassNotFoundException e) {
-      LOGGER.warn("failed to load the cache", e);
-      return false;
+    loadHotSet();
+
+    evict();
+    purge();
+
+    metrics.load(start);
+
+    if (loaded && migrate) {
+      LOGGER.info("migrating the cache to version: " + CODEC.getVersion());
+      save();
     }
 
-    return true;
+    return loaded;
   }
 
-  public boolean save() {
+  /**
+   * Reads the last saved snapshot, followed by the replay of the journal (with
+   * the journal synchronized and the directory locked). A failure of one does
+   * not prevent the other.
+   * 
+   * @return <code>true</code> if the snapshot or the journal was written in
+   *         another (older) format, so the cache should be migrated
+   * 
+   * @throws IOException
+   *           if the snapshot or the journal could not be read (entirely)
+   */
+  private boolean read() throws IOException {
+
+    generation = directoryLock.getGeneration();
+
+    IOException failure = null;
+    boolean migrate = false;
+
+    try {
+      migrate = readSnapshot();
+    }
+
+    catch (IOException e) {
+      failure = e;
+    }
+
+    try {
+      journal.replay(this::restore);
+      migrate |= journal.isOutdated();
+    }
+
+    catch (IOException e) {
+
+      if (failure == null) {
+        failure = e;
+      }
+
+      else {
+        failure.addSuppressed(e);
+      }
+    }
+
+    if (failure != null) {
+      throw failure;
+    }
+
+    return migrate;
+  }
+
+  /**
+   * Reads the last saved snapshot.
+   * 
+   * @return <code>true</code> if the snapshot was written in another (older)
+   *         format, so it should be migrated
+   */
+  private boolean readSnapshot() throws IOException {
+
+    boolean migrate = false;
+
+    try (BufferedInputStream stream = new BufferedInputStream(new FileInputStream(cacheFile))) {
+
+      stream.mark(HEADER_LENGTH);
+
+      DataInputStream in = new DataInputStream(stream);
+      int version = readHeader(in);
+
+      if (version < 0) {
+        stream.reset();
+
+        Map<String, JaTooWeatherCacheObject> objects = new HashMap<>();
+        JaTooWeatherCacheLegacyReader.readSnapshot(stream, objects);
+
+        for (Map.Entry<String, JaTooWeatherCacheObject> object : objects.entrySet()) {
+          restore(object.getKey(), object.getValue());
+        }
+
+        migrate = true;
+      }
+
+      else {
+
+        while (in.readBoolean()) {
+          restore(in.readUTF(), CODEC.read(in, version));
+        }
+
+        migrate = version != CODEC.getVersion();
+      }
+    }
+
+    catch (FileNotFoundException e) {
+      // nothing saved yet
+    }
+
+    return migrate;
+  }
+
+  /**
+   * Takes the lock of the directory of the cache (with the journal
+   * synchronized), if the directory exists.
+   * 
+   * @return the lock, or <code>null</code> if there is nothing to lock
+   */
+  private FileLock lock() throws IOException {
+
+    if (!directory.isDirectory()) {
+      return null;
+    }
+
+    return directoryLock.lock();
+  }
+
+  /**
+   * Does the given action with the directory of the cache locked (and the
+   * journal synchronized, by the caller).
+   * 
+   * @return the result of the action
+   */
+  private <T> T locked(final LockedAction<T> action) throws IOException {
+
+    FileLock lock = lock();
+
+    try {
+      return action.run();
+    }
+
+    finally {
+      if (lock != null) {
+        lock.release();
+      }
+    }
+  }
+
+  /**
+   * Catches up with the other processes sharing the directory of the cache
+   * (with the journal synchronized and the directory locked): the records they
+   * appended to the journal are replayed, and if one of them saved the cache
+   * meanwhile (the generation changed) the new snapshot is read again.
+   */
+  private void sync() throws IOException {
+
+    long generation = directoryLock.getGeneration();
+
+    if (generation != this.generation) {
+
+      readSnapshot();
+      journal.replay(this::restore);
+
+      this.generation = generation;
+    }
+
+    else {
+      journal.catchUp(this::restore);
+    }
+
+    // the objects of the others count too
+    evict();
+  }
+
+  /**
+   * Catches up with the other processes sharing the directory of the cache, if
+   * they changed the snapshot or the journal since the last time, so the
+   * objects they fetched are shared.
+   * 
+   * @return <code>true</code> if there were changes
+   */
+  private boolean syncIfChanged() {
+
+    if (!isLoaded()) {
+      return false;
+    }
 
-    try (ObjectOutputStream stream = new ObjectOutputStream(new FileOutputStream(CACHE_FILE))) {
-      stream.writeObject(CACHE);
+    try {
+
+      if (directoryLock.getGeneration() == generation && !journal.isChanged()) {
+        return false;
+      }
+
+      synchronized (journal) {
+        locked(() -> {
+          sync();
+          return null;
+        });
+      }
     }
 
     catch (IOException e) {
-      LOGGER.error("failed to save the cache", e);
+      LOGGER.warn("failed to synchronize the cache", e);
       return false;
     }
 
     return true;
   }
 
-  public void add(final JaTooWeatherService service, final String city, final JaTooWeather weather) {
-    CACHE.put(createKey(service, city), new JaTooWeatherCacheObject(weather));
+  /**
+   * Puts a loaded object in the cache, unless a newer one was added meanwhile,
+   * releasing the lookups waiting for it.
+   */
+  private void restore(final String key, final JaTooWeatherCacheObject object) {
+
+    CACHE.compute(key, (k, previous) -> {
+
+      if (previous != null && previous.getObject().getTimestamp() >= object.getTimestamp()) {
+        return previous;
+      }
+
+      return index(key, previous, new JaTooWeatherCacheEntry(object, previous));
+    });
+
+    if (!loadWaiters.isEmpty()) {
+
+      CountDownLatch waiter = loadWaiters.remove(key);
+
+      if (waiter != null) {
+        waiter.countDown();
+      }
+    }
   }
 
-  public JaTooWeather get(final JaTooWeatherService service, final String city) {
+  /**
+   * Waits (at most the {@link #setLoadWait(long)} time) for the first load to
+   * reach the given key, for a lookup that missed it while loading.
+   * 
+   * @return the entry, or <code>null</code> if not loaded (yet)
+   */
+  private JaTooWeatherCacheEntry awaitEntry(final String key) {
 
-    JaTooWeatherCacheObject weather = CACHE.get(createKey(service, city));
+    long start = System.nanoTime();
 
-    if (weather == null) {
-      return null;
+    CountDownLatch waiter = loadWaiters.computeIfAbsent(key, k -> new CountDownLatch(1));
+
+    // the key may have been loaded, or the load ended,
+    // before the waiter was there to be released
+    JaTooWeatherCacheEntry entry = CACHE.get(key);
+
+    if (entry == null && !isLoaded()) {
+
+      try {
+        waiter.await(loadWait, TimeUnit.MILLISECONDS);
+      }
+
+      catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+
+      entry = CACHE.get(key);
     }
 
-    return new JaTooWeather(service, weather);
+    metrics.loadWait(start);
+
+    return entry;
+  }
+
+  /**
+   * Tells whether the first load of the cache (started in background, when the
+   * cache is first used) is done. Meanwhile the lookups run against the
+   * partially loaded cache, the missed keys being waited for (see
+   * {@link #setLoadWait(long)}).
+   * 
+   * @return <code>true</code> if loaded
+   */
+  public boolean isLoaded() {
+    return loaded.getCount() == 0;
+  }
+
+  /**
+   * Waits for the first load of the cache to be done.
+   * 
+   * @param timeout
+   *          the maximum time to wait
+   * @param unit
+   *          the unit of the timeout
+   * 
+   * @return <code>true</code> if loaded, <code>false</code> if the timeout
+   *         elapsed first
+   * 
+   * @throws InterruptedException
+   *           if the waiting thread is interrupted
+   */
+  public boolean awaitLoaded(final long timeout, final TimeUnit unit) throws InterruptedException {
+    return loaded.await(timeout, unit);
+  }
+
+  /**
+   * Sets the longest time a lookup missing a key waits, while the cache is
+   * loading, for the key to be loaded.
+   * 
+   * @param loadWait
+   *          the time, in milliseconds, or 0 to not wait (a missing key is
+   *          fetched again)
+   */
+  public void setLoadWait(final long loadWait) {
+    this.loadWait = loadWait;
+  }
+
+  public long getLoadWait() {
+    return this.loadWait;
+  }
+
+  /**
+   * Creates the directory of the cache, if missing (on the first write, so a
+   * cache only read, or not used at all, touches nothing).
+   */
+  private void createDirectory() {
+    if (!directory.isDirectory() && !directory.mkdirs()) {
+      LOGGER.warn("failed to create the directory of the cache: " + directory);
+    }
   }
 
-  private String createKey(final JaTooWeatherService service, final String city) {
-    return service.getClass().getName() + "." + city;
+  /**
+   * Saves (a snapshot of) the whole cache and truncates the journal.
+   * 
+   * @return <code>true</code> if the cache was saved, <code>false</code>
+   *         otherwise
+   */
+  public boolean save() {
+
+    // a snapshot of a partially loaded cache would lose the rest
+    if (!isLoaded() && Thread.currentThread() != loader) {
+
+      try {
+        loaded.await();
+      }
+
+      catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        return false;
+      }
+    }
+
+    createDirectory();
+
+    long start = System.nanoTime();
+
+    // appends are blocked meanwhile (the ones of the other processes too),
+    // so no record can be lost between the snapshot and the truncation
+    synchronized (journal) {
+
+      try {
+        locked(() -> {
+
+          metrics.lockWait(start);
+
+          sync();
+
+          File temporary = File.createTempFile("cache", ".tmp", directory);
+
+          try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temporary)))) {
+
+            writeHeader(out, CODEC);
+
+            for (Map.Entry<String, JaTooWeatherCacheEntry> entry : CACHE.entrySet()) {
+              out.writeBoolean(true);
+              out.writeUTF(entry.getKey());
+              CODEC.write(out, entry.getValue().getObject());
+            }
+
+            out.writeBoolean(false);
+          }
+
+          replace(temporary, cacheFile);
+
+          removedSinceSave.set(0);
+
+          journal.truncate();
+
+          generation = directoryLock.incrementGeneration();
+
+          return null;
+        });
+      }
+
+      catch (IOException e) {
+        LOGGER.error("failed to save the cache", e);
+        return false;
+      }
+    }
+
+    saveHotSet();
+
+    metrics.save(start);
+
+    return true;
+  }
+
+  /**
+   * Restores the heat of the entries of the (saved) hot set, keeping the
+   * missing ones to be warmed up.
+   */
+  private void loadHotSet() {
+
+    try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(hotFile)))) {
+
+      for (int i = in.readInt(); i > 0; i--) {
+
+        String key = in.readUTF();
+        double heat = in.readDouble();
+
+        JaTooWeatherCacheEntry entry = CACHE.get(key);
+
+        if (entry == null) {
+          WARM_UP.put(key, heat);
+        }
+
+        else {
+          entry.setHeat(heat);
+        }
+      }
+    }
+
+    catch (FileNotFoundException e) {
+      // nothing saved yet
+    }
+
+    catch (IOException e) {
+      LOGGER.warn("failed to load the hot set of the cache", e);
+    }
+  }
+
+  /**
+   * Saves the hot set: the hottest keys (still waiting to be warmed up
+   * included), with their heat.
+   */
+  private void saveHotSet() {
+
+    List<Map.Entry<String, Double>> hot = getHotKeys("", HOT_SET_MAXIMUM_SIZE);
+
+    if (hot.isEmpty() && !hotFile.exists()) {
+      return;
+    }
+
+    createDirectory();
+
+    try {
+
+      File temporary = File.createTempFile("cache", ".tmp", directory);
+
+      try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temporary)))) {
+
+        out.writeInt(hot.size());
+
+        for (Map.Entry<String, Double> key : hot) {
+          out.writeUTF(key.getKey());
+          out.writeDouble(key.getValue());
+        }
+      }
+
+      replace(temporary, hotFile);
+    }
+
+    catch (IOException e) {
+      LOGGER.warn("failed to save the hot set of the cache", e);
+    }
+  }
+
+  /**
+   * Replaces the given file with the given (completely written) temporary one,
+   * atomically where possible, so the other processes never read a partially
+   * written file.
+   */
+  private static void replace(final File temporary, final File file) throws IOException {
+
+    try {
+
+      try {
+        Files.move(temporary.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+      }
+
+      catch (AtomicMoveNotSupportedException e) {
+        Files.move(temporary.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+      }
+    }
+
+    finally {
+      Files.deleteIfExists(temporary.toPath());
+    }
+  }
+
+  /**
+   * Gets the hottest keys with the given prefix, the entries of the cache and
+   * the ones waiting to be warmed up (see {@link #loadHotSet()}).
+   * 
+   * @return the keys, with their heat, the hottest first
+   */
+  private List<Map.Entry<String, Double>> getHotKeys(final String prefix, final int count) {
+
+    long now = System.currentTimeMillis();
+
+    PriorityQueue<Map.Entry<String, Double>> hottest = new PriorityQueue<>(Map.Entry.comparingByValue());
+
+    for (Map.Entry<String, JaTooWeatherCacheEntry> entry : CACHE.entrySet()) {
+      if (entry.getKey().startsWith(prefix)) {
+        offer(hottest, count, entry.getKey(), entry.getValue().getHeat(now));
+      }
+    }
+
+    for (Map.Entry<String, Double> entry : WARM_UP.entrySet()) {
+      if (entry.getKey().startsWith(prefix)) {
+        offer(hottest, count, entry.getKey(), entry.getValue());
+      }
+    }
+
+    List<Map.Entry<String, Double>> keys = new ArrayList<>(hottest);
+    keys.sort(Collections.reverseOrder(Map.Entry.comparingByValue()));
+
+    return keys;
+  }
+
+  private static void offer(final PriorityQueue<Map.Entry<String, Double>> hottest, final int count, final String key, final double heat) {
+
+    if (heat < HOT_HEAT_THRESHOLD || count <= 0) {
+      return;
+    }
+
+    if (hottest.size() < count) {
+      hottest.add(new AbstractMap.SimpleImmutableEntry<>(key, heat));
+    }
+
+    else if (hottest.peek().getValue() < heat) {
+      hottest.poll();
+      hottest.add(new AbstractMap.SimpleImmutableEntry<>(key, heat));
+    }
+  }
+
+  /**
+   * Gets the hottest (most accessed lately) cities of the given service, the
+   * ones in the cache and the ones of the hot set saved before the restart,
+   * but not fetched yet.
+   * 
+   * @param service
+   *          the service
+   * @param count
+   *          the maximum number of cities
+   * 
+   * @return the cities, the hottest first
+   */
+  List<String> getHotCities(final JaTooWeatherService service, final int count) {
+
+    String prefix = createKey(service, "");
+    List<String> cities = new ArrayList<>();
+
+    for (Map.Entry<String, Double> key : getHotKeys(prefix, count)) {
+      cities.add(key.getKey().substring(prefix.length()));
+    }
+
+    return cities;
+  }
+
+  public JaTooWeatherCacheObject add(final JaTooWeatherService service, final String city, final JaTooWeather weather) {
+    return add(service, city, weather, 0);
+  }
+
+  /**
+   * Adds the given weather to the cache, with its own (adapted) expiration.
+   * 
+   * @param service
+   *          the service
+   * @param city
+   *          the city
+   * @param weather
+   *          the weather
+   * @param expiration
+   *          the expiration, in milliseconds, or 0 for the expiration of the
+   *          service
+   * 
+   * @return the cached object
+   */
+  JaTooWeatherCacheObject add(final JaTooWeatherService service, final String city, final JaTooWeather weather, final long expiration) {
+
+    String key = createKey(service, city);
+
+    JaTooWeatherCacheObject object = new JaTooWeatherCacheObject(weather, expiration);
+    put(key, object);
+
+    JaTooWeatherCacheStore store = this.store;
+
+    if (store != null) {
+
+      try {
+        store.put(key, object, expiration > 0 ? expiration : service.getExpiration(city));
+      }
+
+      catch (IOException e) {
+        metrics.sharedFailure();
+        LOGGER.warn("failed to put in the shared cache store: " + key, e);
+      }
+    }
+
+    return object;
+  }
+
+  /**
+   * Puts the given object in the (local) cache, to be written to disk. The
+   * writing (and the compaction) is always done by the flusher, never on the
+   * calling thread: right away, or later in write-behind mode.
+   */
+  private JaTooWeatherCacheEntry put(final String key, final JaTooWeatherCacheObject object) {
+
+    Double heat = WARM_UP.remove(key);
+
+    JaTooWeatherCacheEntry entry = CACHE.compute(key, (k, previous) -> {
+
+      JaTooWeatherCacheEntry replacement = new JaTooWeatherCacheEntry(object, previous);
+
+      if (heat != null && previous == null) {
+        replacement.setHeat(heat);
+      }
+
+      return index(key, previous, replacement);
+    });
+
+    evict();
+
+    DIRTY.add(key);
+
+    if ((!writeBehind || DIRTY.size() >= writeBehindThreshold) && flushPending.compareAndSet(false, true)) {
+      FLUSHER.execute(() -> {
+        flushPending.set(false);
+        flush();
+      });
+    }
+
+    return entry;
+  }
+
+  /**
+   * Moves the key from the given (replaced) entry to the given one in the
+   * spatial index. Called while computing the new entry, so the index always
+   * follows the entry actually replaced, even for concurrent puts of the same
+   * key.
+   * 
+   * @return the new entry
+   */
+  private static JaTooWeatherCacheEntry index(final String key, final JaTooWeatherCacheEntry previous, final JaTooWeatherCacheEntry entry) {
+
+    if (previous != null) {
+      GEO_INDEX.remove(key, previous.getObject());
+    }
+
+    GEO_INDEX.add(key, entry.getObject());
+
+    return entry;
+  }
+
+  /**
+   * Writes to disk (appends to the journal) all the objects added since the
+   * last flush. In write-behind mode this is done periodically, in the
+   * background, and also when the JVM shuts down.
+   * 
+   * @return <code>true</code> if the objects were written, <code>false</code>
+   *         otherwise
+   */
+  public boolean flush() {
+
+    if (DIRTY.isEmpty()) {
+      return true;
+    }
+
+    createDirectory();
+
+    // the keys are removed before their objects are read, so the ones added
+    // again meanwhile stay dirty, and put back if the objects are not written
+    List<String> flushed = new ArrayList<>();
+
+    try {
+
+      long start = System.nanoTime();
+
+      synchronized (journal) {
+
+        locked(() -> {
+
+          metrics.lockWait(start);
+
+          sync();
+
+          for (Iterator<String> i = DIRTY.iterator(); i.hasNext();) {
+
+            String key = i.next();
+            i.remove();
+
+            flushed.add(key);
+
+            JaTooWeatherCacheEntry entry = CACHE.get(key);
+
+            if (entry != null) {
+              journal.append(key, entry.getObject());
+            }
+          }
+
+          journal.flush();
+
+          return null;
+        });
+      }
+
+      compact();
+    }
+
+    catch (IOException e) {
+      DIRTY.addAll(flushed);
+      LOGGER.error("failed to flush the cache", e);
+      return false;
+    }
+
+    return true;
+  }
+
+  /**
+   * Saves the whole cache (compacting the journal) if the journal grew too big,
+   * or too many of the entries on disk were removed from the cache.
+   */
+  private void compact() {
+    if (journal.size() + removedSinceSave.get() > Math.max(JOURNAL_COMPACTION_THRESHOLD, CACHE.size() / 2)) {
+      save();
+    }
+  }
+
+  /**
+   * Evicts entries until the size of the cache is back within the maximum
+   * size. The entries are swept like a clock: each entry accessed since the
+   * last sweep gets another chance (the more accessed, the more chances), the
+   * others are evicted. If another thread is already sweeping, this one does
+   * not wait for it.
+   */
+  private void evict() {
+
+    if (CACHE.size() <= maximumSize || !evictionLock.tryLock()) {
+      return;
+    }
+
+    try {
+
+      while (CACHE.size() > maximumSize) {
+
+        if (evictionClock == null || !evictionClock.hasNext()) {
+
+          evictionClock = CACHE.entrySet().iterator();
+
+          if (!evictionClock.hasNext()) {
+            break;
+          }
+        }
+
+        Map.Entry<String, JaTooWeatherCacheEntry> entry = evictionClock.next();
+
+        if (!entry.getValue().sweep()) {
+          remove(entry.getKey(), entry.getValue());
+        }
+      }
+    }
+
+    finally {
+      evictionLock.unlock();
+    }
+  }
+
+  /**
+   * Removes the entries older than the maximum age.
+   */
+  private void purge() {
+
+    long now = System.currentTimeMillis();
+
+    for (Map.Entry<String, JaTooWeatherCacheEntry> entry : CACHE.entrySet()) {
+      if (now - entry.getValue().getObject().getTimestamp() > maximumAge) {
+        remove(entry.getKey(), entry.getValue());
+      }
+    }
+  }
+
+  private void remove(final String key, final JaTooWeatherCacheEntry entry) {
+
+    // (not remove and then unindex, a concurrent put may index the key again)
+    boolean[] removed = new boolean[1];
+
+    CACHE.computeIfPresent(key, (k, current) -> {
+
+      if (current != entry) {
+        return current;
+      }
+
+      GEO_INDEX.remove(key, entry.getObject());
+      removed[0] = true;
+
+      return null;
+    });
+
+    if (removed[0]) {
+      evictions.increment();
+      removedSinceSave.incrementAndGet();
+    }
+  }
+
+  /**
+   * Sets the maximum number of entries of the cache. When exceeded, the least
+   * (frequently and recently) accessed entries are evicted.
+   * 
+   * @param maximumSize
+   *          the maximum number of entries
+   */
+  public void setMaximumSize(final int maximumSize) {
+    this.maximumSize = maximumSize;
+    evict();
+  }
+
+  public int getMaximumSize() {
+    return this.maximumSize;
+  }
+
+  /**
+   * Sets the maximum age of the entries of the cache. The older ones are purged
+   * periodically (and are not loaded anymore).
+   * 
+   * @param maximumAge
+   *          the maximum age, in milliseconds
+   */
+  public void setMaximumAge(final long maximumAge) {
+    this.maximumAge = maximumAge;
+  }
+
+  public long getMaximumAge() {
+    return this.maximumAge;
+  }
+
+  /**
+   * Gets the number of entries of the cache.
+   * 
+   * @return the number of entries
+   */
+  public int getSize() {
+    return CACHE.size();
+  }
+
+  /**
+   * Gets the number of entries evicted (or purged) from the cache, since the
+   * cache was created.
+   * 
+   * @return the number of evictions
+   */
+  public long getEvictionCount() {
+    return evictions.sum();
+  }
+
+  /**
+   * Gets the size of the cache on disk: the snapshot plus the journal.
+   * 
+   * @return the size, in bytes
+   */
+  public long getPersistedSize() {
+    return cacheFile.length() + journal.length();
+  }
+
+  /**
+   * Estimates the heap used by the entries of the cache (by sampling some of
+   * them).
+   * 
+   * @return the estimated size, in bytes
+   */
+  public long getEstimatedHeapSize() {
+
+    long sampled = 0;
+    int samples = 0;
+
+    for (Map.Entry<String, JaTooWeatherCacheEntry> entry : CACHE.entrySet()) {
+
+      JaTooWeatherCacheObject object = entry.getValue().getObject();
+      sampled += ENTRY_HEAP_SIZE + getHeapSize(entry.getKey()) + getHeapSize(object.getCity()) + getHeapSize(object.getDescription());
+
+      if (++samples == HEAP_SIZE_SAMPLES) {
+        break;
+      }
+    }
+
+    if (samples == 0) {
+      return 0;
+    }
+
+    return sampled * CACHE.size() / samples;
+  }
+
+  /**
+   * Estimates the heap used by the given text (the {@link String} and its
+   * array, with one byte per char, as most texts are Latin-1).
+   */
+  private static long getHeapSize(final String text) {
+
+    if (text == null) {
+      return 0;
+    }
+
+    return 24 + 16 + ((text.length() + 7) & ~7);
+  }
+
+  /**
+   * Gets the metrics of the cache (also available through JMX, in the
+   * <code>jatoo.weather</code> domain, if registered).
+   * 
+   * @return the metrics
+   * 
+   * @see #setMBeanRegistered(boolean)
+   */
+  public JaTooWeatherCacheMetrics getMetrics() {
+    return this.metrics;
+  }
+
+  /**
+   * Registers (or unregisters) the metrics of the cache as MBean. Not
+   * registered by default.
+   * 
+   * @param registered
+   *          whether the metrics are available through JMX
+   */
+  public synchronized void setMBeanRegistered(final boolean registered) {
+
+    if (registered && objectName == null) {
+      objectName = JaTooWeatherMBeans.register("Cache", null, metrics);
+    }
+
+    else if (!registered && objectName != null) {
+      JaTooWeatherMBeans.unregister(objectName);
+      objectName = null;
+    }
+  }
+
+  public synchronized boolean isMBeanRegistered() {
+    return objectName != null;
+  }
+
+  private synchronized void scheduleFlush() {
+
+    if (writeBehindFlush != null) {
+      writeBehindFlush.cancel(false);
+    }
+
+    writeBehindFlush = FLUSHER.scheduleWithFixedDelay(this::flush, writeBehindInterval, writeBehindInterval, TimeUnit.MILLISECONDS);
+  }
+
+  /**
+   * Enables (or disables) the write-behind mode: the added objects are only
+   * marked as dirty, and written to disk later, in the background, by a flush
+   * done at most once per interval (or sooner, if there are too many dirty
+   * objects). Otherwise each added object is written right away (still in the
+   * background, the objects added meanwhile being written together).
+   * <p>
+   * The mode trades durability for fewer writes: the objects added since the
+   * last flush are written on exit, but lost if the process is killed.
+   * 
+   * @param writeBehind
+   *          <code>true</code> to enable the mode, <code>false</code> to write
+   *          each added object immediately (the default)
+   * 
+   * @see #setWriteBehindInterval(long)
+   * @see #setWriteBehindThreshold(int)
+   */
+  public void setWriteBehind(final boolean writeBehind) {
+
+    this.writeBehind = writeBehind;
+
+    if (!writeBehind) {
+      flush();
+    }
+  }
+
+  public boolean isWriteBehind() {
+    return this.writeBehind;
+  }
+
+  /**
+   * Sets the interval between the (write-behind) flushes.
+   * 
+   * @param writeBehindInterval
+   *          the interval, in milliseconds
+   */
+  public synchronized void setWriteBehindInterval(final long writeBehindInterval) {
+    this.writeBehindInterval = writeBehindInterval;
+    scheduleFlush();
+  }
+
+  public synchronized long getWriteBehindInterval() {
+    return this.writeBehindInterval;
+  }
+
+  /**
+   * Sets the number of dirty objects triggering a (write-behind) flush before
+   * the interval ends.
+   * 
+   * @param writeBehindThreshold
+   *          the number of dirty objects
+   */
+  public void setWriteBehindThreshold(final int writeBehindThreshold) {
+    this.writeBehindThreshold = writeBehindThreshold;
+  }
+
+  public int getWriteBehindThreshold() {
+    return this.writeBehindThreshold;
+  }
+
+  /**
+   * Sets the shared (second level) store, used by many nodes at once: the local
+   * misses are looked up in the shared store before going to the provider, and
+   * the fetched weathers are put in the shared store too.
+   * 
+   * @param store
+   *          the shared store, or <code>null</code> for none (the default)
+   */
+  public void setStore(final JaTooWeatherCacheStore store) {
+    this.store = store;
+  }
+
+  public JaTooWeatherCacheStore getStore() {
+    return this.store;
+  }
+
+  public JaTooWeather get(final JaTooWeatherService service, final String city) {
+
+    JaTooWeatherCacheObject weather = getObject(service, city);
+
+    if (weather == null) {
+      return null;
+    }
+
+    return new JaTooWeather(service, weather);
+  }
+
+  JaTooWeatherCacheObject getObject(final JaTooWeatherService service, final String city) {
+
+    JaTooWeatherCacheEntry entry = getEntry(service, city);
+
+    if (entry == null) {
+      return null;
+    }
+
+    return entry.getObject();
+  }
+
+  /**
+   * Gets the entry for the given city, recording the access.
+   */
+  JaTooWeatherCacheEntry getEntry(final JaTooWeatherService service, final String city) {
+
+    String key = createKey(service, city);
+    JaTooWeatherCacheEntry entry = CACHE.get(key);
+
+    if (entry == null && !isLoaded() && loadWait > 0) {
+      entry = awaitEntry(key);
+    }
+
+    if (entry != null) {
+      entry.touch();
+    }
+
+    return entry;
+  }
+
+  /**
+   * Gets the entry for the given city from the shared store (if any), keeping
+   * it in the local cache too, unless the local entry is newer.
+   * 
+   * @return the newest of the shared and the local entries, or
+   *         <code>null</code> if not found in the shared store
+   */
+  JaTooWeatherCacheEntry getSharedEntry(final JaTooWeatherService service, final String city) {
+
+    JaTooWeatherCacheStore store = this.store;
+
+    if (store == null) {
+      return null;
+    }
+
+    String key = createKey(service, city);
+    JaTooWeatherCacheObject object;
+
+    try {
+      object = store.get(key);
+    }
+
+    catch (IOException e) {
+      metrics.sharedFailure();
+      LOGGER.warn("failed to get from the shared cache store: " + key, e);
+      return null;
+    }
+
+    if (object == null) {
+      metrics.sharedMiss();
+      return null;
+    }
+
+    metrics.sharedHit();
+
+    JaTooWeatherCacheEntry entry = CACHE.get(key);
+
+    if (entry != null && entry.getObject().getTimestamp() >= object.getTimestamp()) {
+      return entry;
+    }
+
+    return put(key, object);
+  }
+
+  /**
+   * Gets the entry nearest to the given coordinates, within the given distance,
+   * recording the access.
+   * 
+   * @param service
+   *          the service
+   * @param latitude
+   *          the latitude, in degrees
+   * @param longitude
+   *          the longitude, in degrees
+   * @param maxDistance
+   *          the maximum distance, in kilometers
+   * @param filter
+   *          the filter of the entries (by city), like the fresh ones only
+   * 
+   * @return the nearest entry, or <code>null</code> if none
+   */
+  JaTooWeatherCacheEntry getNearestEntry(final JaTooWeatherService service, final double latitude, final double longitude, final double maxDistance, final BiPredicate<String, JaTooWeatherCacheEntry> filter) {
+
+    String prefix = createKey(service, "");
+
+    JaTooWeatherCacheEntry nearest = null;
+    double nearestDistance = maxDistance;
+
+    for (String key : GEO_INDEX.getKeysNear(latitude, longitude, maxDistance)) {
+
+      if (!key.startsWith(prefix)) {
+        continue;
+      }
+
+      JaTooWeatherCacheEntry entry = CACHE.get(key);
+
+      if (entry == null || !JaTooWeatherCacheGeoIndex.hasCoordinates(entry.getObject())) {
+        continue;
+      }
+
+      double distance = JaTooWeatherCacheGeoIndex.getDistance(latitude, longitude, entry.getObject().getLatitudeValue(), entry.getObject().getLongitudeValue());
+
+      if (distance <= nearestDistance && filter.test(key.substring(prefix.length()), entry)) {
+        nearest = entry;
+        nearestDistance = distance;
+      }
+    }
+
+    if (nearest != null) {
+      nearest.touch();
+    }
+
+    return nearest;
+  }
+
+  /**
+   * Gets the entry for the given city, without recording the access.
+   */
+  JaTooWeatherCacheEntry peekEntry(final JaTooWeatherService service, final String city) {
+    return CACHE.get(createKey(service, city));
+  }
+
+  String createKey(final JaTooWeatherService service, final String city) {
+    return service.getCacheNamespace() + "." + city;
+  }
+
+  /**
+   * Writes the header of a file of the cache: the magic number and the version
+   * of the codec.
+   * 
+   * @param out
+   *          the output to write to
+   * @param codec
+   *          the codec of the file
+   * 
+   * @throws IOException
+   *           if the header could not be written
+   */
+  static void writeHeader(final DataOutput out, final JaTooWeatherCacheCodec codec) throws IOException {
+    out.writeInt(MAGIC);
+    out.writeShort(codec.getVersion());
+  }
+
+  /**
+   * Reads the header of a file of the cache.
+   * 
+   * @param in
+   *          the input to read from
+   * 
+   * @return the version of the codec, or -1 if the file is not in the current
+   *         format (but in the legacy one)
+   * 
+   * @throws IOException
+   *           if the header could not be read
+   */
+  static int readHeader(final DataInput in) throws IOException {
+
+    if (in.readInt() != MAGIC) {
+      return -1;
+    }
+
+    return in.readUnsignedShort();
+  }
+
+  /**
+   * An action done with the directory of the cache locked.
+   */
+  private interface LockedAction<T> {
+    T run() throws IOException;
   }
 
 }
@@ -0,0 +1,403 @@
+/*
+ * Copyright (C) Cristian Sulea ( http://cristian.sulea.net )
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package jatoo.weather;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.time.DateTimeException;
+import java.time.ZoneId;
+
+/**
+ * The (compact) binary codec of the cached objects: fixed width primitives for
+ * the values, ordinals for the units and length prefixed UTF-8 for the texts.
+ * <p>
+ * Since version 2, the values are preceded by the masks of the present (and
+ * integer, and float) values, and only the present values are written. New
+ * values are added at the end, with new bits, so the files written before
+ * them can still be read (with the new values missing). The zone of the city
+ * (an id, like the texts), its coordinates and the (adapted) expiration of the
+ * object were added this way.
+ * <p>
+ * Since version 3, every object is preceded by its length, so the readers can
+ * also skip the values added after them (in files written by newer releases,
+ * like the ones shared by several processes), instead of reading them as the
+ * next object. The version must still be incremented whenever the layout
+ * changes other than by adding values at the end.
+ * 
+ * @author <a href="http://cristian.sulea.net" rel="author">Cristian Sulea</a>
+ * @version 3.0, October 18, 2026
+ */
+public class JaTooWeatherCacheBinaryCodec implements JaTooWeatherCacheCodec {
+
+  /** The version of the format. */
+  public static final int VERSION = 3;
+
+  /**
+   * The mask of the values known to this version (the ones added later are
+   * skipped).
+   */
+  private static final int KNOWN_VALUES = (1 << (JaTooWeatherCacheObject.EXPIRATION + 1)) - 1;
+
+  /** The buffers of the objects being written, to prefix them by length. */
+  private static final ThreadLocal<Buffer> BUFFERS = ThreadLocal.withInitial(Buffer::new);
+
+  /** The type of a missing ({@code null}) number (version 1). */
+  private static final byte NUMBER_NULL = 0;
+  /** The type of an {@link Integer} (or smaller) number (version 1). */
+  private static final byte NUMBER_INT = 1;
+  /** The type of a {@link Long} number (version 1). */
+  private static final byte NUMBER_LONG = 2;
+  /** The type of a {@link Double} (or any other) number (version 1). */
+  private static final byte NUMBER_DOUBLE = 3;
+  /** The type of a {@link Float} number (version 1). */
+  private static final byte NUMBER_FLOAT = 4;
+
+  @Override
+  public int getVersion() {
+    return VERSION;
+  }
+
+  @Override
+  public void write(final DataOutput out, final JaTooWeatherCacheObject object) throws IOException {
+
+    Buffer buffer = BUFFERS.get();
+    buffer.reset();
+
+    writeValues(buffer.out, object);
+
+    out.writeInt(buffer.size());
+    out.write(buffer.getBytes(), 0, buffer.size());
+  }
+
+  private static void writeValues(final DataOutput out, final JaTooWeatherCacheObject object) throws IOException {
+
+    out.writeLong(object.getTimestamp());
+
+    writeString(out, object.getCity());
+    writeString(out, object.getDescription());
+
+    out.writeShort(object.getPresentMask());
+    out.writeShort(object.getIntegralMask());
+    out.writeShort(object.getFloatMask());
+
+    writeValue(out, object, JaTooWeatherCacheObject.TEMPERATURE, object.getTemperatureValue());
+    writeValue(out, object, JaTooWeatherCacheObject.HUMIDITY, object.getHumidityValue());
+    writeValue(out, object, JaTooWeatherCacheObject.PRESSURE, object.getPressureValue());
+    writeValue(out, object, JaTooWeatherCacheObject.WIND, object.getWindValue());
+    writeValue(out, object, JaTooWeatherCacheObject.WIND_DIRECTION, object.getWindDirectionValue());
+    writeValue(out, object, JaTooWeatherCacheObject.CLOUDS, object.getCloudsValue());
+    writeValue(out, object, JaTooWeatherCacheObject.RAIN, object.getRainValue());
+    writeValue(out, object, JaTooWeatherCacheObject.SNOW, object.getSnowValue());
+
+    writeEnum(out, object.getTemperatureUnit());
+    writeEnum(out, object.getHumidityUnit());
+    writeEnum(out, object.getPressureUnit());
+    writeEnum(out, object.getWindUnit());
+    writeEnum(out, object.getWindDirectionUnit());
+    writeEnum(out, object.getCloudsUnit());
+    writeEnum(out, object.getRainUnit());
+    writeEnum(out, object.getSnowUnit());
+
+    writeTime(out, object, JaTooWeatherCacheObject.SUNRISE, object.getSunriseValue());
+    writeTime(out, object, JaTooWeatherCacheObject.SUNSET, object.getSunsetValue());
+
+    if (object.isPresent(JaTooWeatherCacheObject.ZONE)) {
+      writeString(out, object.getZone().getId());
+    }
+
+    writeValue(out, object, JaTooWeatherCacheObject.LATITUDE, object.getLatitudeValue());
+    writeValue(out, object, JaTooWeatherCacheObject.LONGITUDE, object.getLongitudeValue());
+
+    writeTime(out, object, JaTooWeatherCacheObject.EXPIRATION, object.getExpiration());
+  }
+
+  @Override
+  public JaTooWeatherCacheObject read(final DataInput in, final int version) throws IOException {
+
+    if (version == 1) {
+      return readVersion1(in);
+    }
+
+    // the same values, without the length
+    if (version == 2) {
+      return readValues(in);
+    }
+
+    if (version != VERSION) {
+      throw new IOException("unsupported version: " + version);
+    }
+
+    byte[] bytes = new byte[in.readInt()];
+    in.readFully(bytes);
+
+    return readValues(new DataInputStream(new ByteArrayInputStream(bytes)));
+  }
+
+  private static JaTooWeatherCacheObject readValues(final DataInput in) throws IOException {
+
+    long timestamp = in.readLong();
+
+    String city = readString(in);
+    String description = readString(in);
+
+    int present = in.readUnsignedShort() & KNOWN_VALUES;
+    int integral = in.readUnsignedShort() & KNOWN_VALUES;
+    int floats = in.readUnsignedShort() & KNOWN_VALUES;
+
+    double temperature = readValue(in, present, JaTooWeatherCacheObject.TEMPERATURE);
+    double humidity = readValue(in, present, JaTooWeatherCacheObject.HUMIDITY);
+    double pressure = readValue(in, present, JaTooWeatherCacheObject.PRESSURE);
+    double wind = readValue(in, present, JaTooWeatherCacheObject.WIND);
+    double windDirection = readValue(in, present, JaTooWeatherCacheObject.WIND_DIRECTION);
+    double clouds = readValue(in, present, JaTooWeatherCacheObject.CLOUDS);
+    double rain = readValue(in, present, JaTooWeatherCacheObject.RAIN);
+    double snow = readValue(in, present, JaTooWeatherCacheObject.SNOW);
+
+    JaTooWeather.TEMPERATURE_UNIT temperatureUnit = readEnum(in, JaTooWeather.TEMPERATURE_UNIT.values());
+    JaTooWeather.HUMIDITY_UNIT humidityUnit = readEnum(in, JaTooWeather.HUMIDITY_UNIT.values());
+    JaTooWeather.PRESSURE_UNIT pressureUnit = readEnum(in, JaTooWeather.PRESSURE_UNIT.values());
+    JaTooWeather.WIND_UNIT windUnit = readEnum(in, JaTooWeather.WIND_UNIT.values());
+    JaTooWeather.WIND_DIRECTION_UNIT windDirectionUnit = readEnum(in, JaTooWeather.WIND_DIRECTION_UNIT.values());
+    JaTooWeather.CLOUDS_UNIT cloudsUnit = readEnum(in, JaTooWeather.CLOUDS_UNIT.values());
+    JaTooWeather.RAIN_UNIT rainUnit = readEnum(in, JaTooWeather.RAIN_UNIT.values());
+    JaTooWeather.SNOW_UNIT snowUnit = readEnum(in, JaTooWeather.SNOW_UNIT.values());
+
+    long sunrise = readTime(in, present, JaTooWeatherCacheObject.SUNRISE);
+    long sunset = readTime(in, present, JaTooWeatherCacheObject.SUNSET);
+
+    ZoneId zone = readZone(in, present);
+
+    if (zone == null) {
+      present &= ~(1 << JaTooWeatherCacheObject.ZONE);
+    }
+
+    double latitude = readValue(in, present, JaTooWeatherCacheObject.LATITUDE);
+    double longitude = readValue(in, present, JaTooWeatherCacheObject.LONGITUDE);
+
+    long expiration = readTime(in, present, JaTooWeatherCacheObject.EXPIRATION);
+
+    if (expiration == JaTooWeatherCacheObject.TIME_NULL) {
+      expiration = 0;
+    }
+
+    return new JaTooWeatherCacheObject(timestamp, city, description, present, integral, floats, temperature, temperatureUnit, humidity, humidityUnit, pressure, pressureUnit, wind, windUnit, windDirection, windDirectionUnit, clouds, cloudsUnit, rain, rainUnit, snow, snowUnit, sunrise, sunset, zone, latitude, longitude, expiration);
+  }
+
+  private static JaTooWeatherCacheObject readVersion1(final DataInput in) throws IOException {
+
+    return new JaTooWeatherCacheObject(
+
+        in.readLong(),
+
+        readString(in),
+        readString(in),
+
+        readNumber(in),
+        readEnum(in, JaTooWeather.TEMPERATURE_UNIT.values()),
+
+        readNumber(in),
+        readEnum(in, JaTooWeather.HUMIDITY_UNIT.values()),
+
+        readNumber(in),
+        readEnum(in, JaTooWeather.PRESSURE_UNIT.values()),
+
+        readNumber(in),
+        readEnum(in, JaTooWeather.WIND_UNIT.values()),
+
+        readNumber(in),
+        readEnum(in, JaTooWeather.WIND_DIRECTION_UNIT.values()),
+
+        readNumber(in),
+        readEnum(in, JaTooWeather.CLOUDS_UNIT.values()),
+
+        readNumber(in),
+        readEnum(in, JaTooWeather.RAIN_UNIT.values()),
+
+        readNumber(in),
+        readEnum(in, JaTooWeather.SNOW_UNIT.values()),
+
+        readTimeVersion1(in),
+        readTimeVersion1(in),
+
+        null,
+
+        null,
+        null,
+
+        0);
+  }
+
+  private static void writeString(final DataOutput out, final String string) throws IOException {
+
+    if (string == null) {
+      out.writeInt(-1);
+    }
+
+    else {
+
+      byte[] bytes = string.getBytes(StandardCharsets.UTF_8);
+
+      out.writeInt(bytes.length);
+      out.write(bytes);
+    }
+  }
+
+  private static String readString(final DataInput in) throws IOException {
+
+    int length = in.readInt();
+
+    if (length < 0) {
+      return null;
+    }
+
+    byte[] bytes = new byte[length];
+    in.readFully(bytes);
+
+    return new String(bytes, StandardCharsets.UTF_8);
+  }
+
+  private static void writeValue(final DataOutput out, final JaTooWeatherCacheObject object, final int index, final double value) throws IOException {
+    if (object.isPresent(index)) {
+      out.writeDouble(value);
+    }
+  }
+
+  private static double readValue(final DataInput in, final int present, final int index) throws IOException {
+
+    if ((present & (1 << index)) == 0) {
+      return Double.NaN;
+    }
+
+    return in.readDouble();
+  }
+
+  private static void writeTime(final DataOutput out, final JaTooWeatherCacheObject object, final int index, final long time) throws IOException {
+    if (object.isPresent(index)) {
+      out.writeLong(time);
+    }
+  }
+
+  private static long readTime(final DataInput in, final int present, final int index) throws IOException {
+
+    if ((present & (1 << index)) == 0) {
+      return JaTooWeatherCacheObject.TIME_NULL;
+    }
+
+    return in.readLong();
+  }
+
+  /**
+   * Reads the zone, if present. A zone unknown to this JVM (older time zone
+   * data) is read as missing, so the times are rendered in the default zone.
+   */
+  private static ZoneId readZone(final DataInput in, final int present) throws IOException {
+
+    if ((present & (1 << JaTooWeatherCacheObject.ZONE)) == 0) {
+      return null;
+    }
+
+    String id = readString(in);
+
+    try {
+      return ZoneId.of(id);
+    }
+
+    catch (DateTimeException e) {
+      return null;
+    }
+  }
+
+  private static Number readNumber(final DataInput in) throws IOException {
+
+    byte type = in.readByte();
+
+    switch (type) {
+
+      case NUMBER_NULL:
+        return null;
+
+      case NUMBER_INT:
+        return in.readInt();
+
+      case NUMBER_LONG:
+        return in.readLong();
+
+      case NUMBER_DOUBLE:
+        return in.readDouble();
+
+      case NUMBER_FLOAT:
+        return in.readFloat();
+
+      default:
+        throw new IOException("unknown number type: " + type);
+    }
+  }
+
+  private static void writeEnum(final DataOutput out, final Enum<?> value) throws IOException {
+    out.writeByte(value == null ? -1 : value.ordinal());
+  }
+
+  private static <E extends Enum<E>> E readEnum(final DataInput in, final E[] values) throws IOException {
+
+    int ordinal = in.readByte();
+
+    if (ordinal < 0) {
+      return null;
+    }
+
+    if (ordinal >= values.length) {
+      throw new IOException("unknown ordinal: " + ordinal);
+    }
+
+    return values[ordinal];
+  }
+
+  private static Long readTimeVersion1(final DataInput in) throws IOException {
+
+    long time = in.readLong();
+
+    if (time == JaTooWeatherCacheObject.TIME_NULL) {
+      return null;
+    }
+
+    return time;
+  }
+
+  /**
+   * A (reusable) buffer of an object being written.
+   */
+  private static final class Buffer extends ByteArrayOutputStream {
+
+    private final DataOutputStream out = new DataOutputStream(this);
+
+    private Buffer() {
+      super(256);
+    }
+
+    private byte[] getBytes() {
+      return buf;
+    }
+  }
+
+}
@@ -0,0 +1,69 @@
+/*
+ * Copyright (C) Cristian Sulea ( http://cristian.sulea.net )
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package jatoo.weather;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+/**
+ * The codec of the cached objects, used to write (and read) them to (and from)
+ * the files of the cache.
+ * 
+ * @author <a href="http://cristian.sulea.net" rel="author">Cristian Sulea</a>
+ * @version 1.0, October 18, 2026
+ */
+public interface JaTooWeatherCacheCodec {
+
+  /**
+   * Gets the version of the format written by this codec, saved in the header
+   * of the files so they can still be read after the format changes.
+   * 
+   * @return the version of the format
+   */
+  int getVersion();
+
+  /**
+   * Writes the given object.
+   * 
+   * @param out
+   *          the output to write to
+   * @param object
+   *          the object to write
+   * 
+   * @throws IOException
+   *           if the object could not be written
+   */
+  void write(DataOutput out, JaTooWeatherCacheObject object) throws IOException;
+
+  /**
+   * Reads an object, written in the given version of the format.
+   * 
+   * @param in
+   *          the input to read from
+   * @param version
+   *          the version of the format
+   * 
+   * @return the object
+   * 
+   * @throws IOException
+   *           if the object could not be read (or the version is not supported)
+   */
+  JaTooWeatherCacheObject read(DataInput in, int version) throws IOException;
+
+}
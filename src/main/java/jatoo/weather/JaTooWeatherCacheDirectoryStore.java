@@ -0,0 +1,217 @@
+/*
+ * Copyright (C) Cristian Sulea ( http://cristian.sulea.net )
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package jatoo.weather;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * A {@link JaTooWeatherCacheStore} keeping the objects in a directory shared
+ * by all the nodes (like a network share, or just a local directory for the
+ * processes of the same machine). Every object has its own file, named after
+ * the hash of its key, and written in the format of the cache.
+ * <p>
+ * The files are replaced atomically (written aside, then renamed), so the
+ * readers never see a partially written object, and no locks are needed.
+ * 
+ * @author <a href="http://cristian.sulea.net" rel="author">Cristian Sulea</a>
+ * @version 1.0, October 18, 2026
+ */
+public class JaTooWeatherCacheDirectoryStore implements JaTooWeatherCacheStore {
+
+  /** The logger. */
+  private static final Log LOGGER = LogFactory.getLog(JaTooWeatherCacheDirectoryStore.class);
+
+  /** The extension of the files of the objects. */
+  private static final String EXTENSION = ".obj";
+
+  /** The age beyond which a temporary file is considered left behind. */
+  private static final long TEMP_FILE_MAXIMUM_AGE = TimeUnit.MINUTES.toMillis(1);
+
+  /** The codec of the files. */
+  private static final JaTooWeatherCacheCodec CODEC = new JaTooWeatherCacheBinaryCodec();
+
+  /** The shared directory. */
+  private final File directory;
+
+  /**
+   * The constructor.
+   * 
+   * @param directory
+   *          the shared directory (created if missing)
+   */
+  public JaTooWeatherCacheDirectoryStore(final File directory) {
+    this.directory = directory;
+    this.directory.mkdirs();
+  }
+
+  @Override
+  public JaTooWeatherCacheObject get(final String key) throws IOException {
+
+    try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(getFile(key))))) {
+
+      int version = JaTooWeatherCache.readHeader(in);
+
+      if (version < 0) {
+        throw new IOException("not a file of the cache: " + getFile(key));
+      }
+
+      // another key with the same hash
+      if (!key.equals(in.readUTF())) {
+        return null;
+      }
+
+      if (in.readLong() < System.currentTimeMillis()) {
+        return null;
+      }
+
+      return CODEC.read(in, version);
+    }
+
+    catch (FileNotFoundException e) {
+      return null;
+    }
+  }
+
+  @Override
+  public void put(final String key, final JaTooWeatherCacheObject object, final long ttl) throws IOException {
+
+    File file = getFile(key);
+    File temp = File.createTempFile(file.getName(), ".tmp", directory);
+
+    try {
+
+      try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temp)))) {
+        JaTooWeatherCache.writeHeader(out, CODEC);
+        out.writeUTF(key);
+        out.writeLong(ttl > 0 ? System.currentTimeMillis() + ttl : Long.MAX_VALUE);
+        CODEC.write(out, object);
+      }
+
+      try {
+        Files.move(temp.toPath(), file.toPath(), StandardCopyOption.ATOMIC_MOVE);
+      }
+
+      catch (AtomicMoveNotSupportedException e) {
+        Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+      }
+    }
+
+    finally {
+      Files.deleteIfExists(temp.toPath());
+    }
+  }
+
+  /**
+   * Deletes the files of the expired objects (and the ones left behind by the
+   * interrupted writes). Meant to be called periodically, by one of the nodes.
+   * 
+   * @return the number of deleted files
+   */
+  public int purge() {
+
+    File[] files = directory.listFiles();
+
+    if (files == null) {
+      return 0;
+    }
+
+    int count = 0;
+    long now = System.currentTimeMillis();
+
+    for (File file : files) {
+
+      boolean expired;
+
+      if (file.getName().endsWith(EXTENSION)) {
+
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+
+          if (JaTooWeatherCache.readHeader(in) < 0) {
+            expired = true;
+          }
+
+          else {
+            in.readUTF();
+            expired = in.readLong() < now;
+          }
+        }
+
+        catch (IOException e) {
+          LOGGER.warn("failed to read the shared cache file: " + file, e);
+          expired = false;
+        }
+      }
+
+      else {
+        expired = file.getName().endsWith(".tmp") && now - file.lastModified() > TEMP_FILE_MAXIMUM_AGE;
+      }
+
+      if (expired && file.delete()) {
+        count++;
+      }
+    }
+
+    return count;
+  }
+
+  public File getDirectory() {
+    return this.directory;
+  }
+
+  /**
+   * Gets the file of the object with the given key.
+   */
+  private File getFile(final String key) {
+
+    try {
+
+      StringBuilder name = new StringBuilder();
+
+      for (byte b : MessageDigest.getInstance("SHA-1").digest(key.getBytes(StandardCharsets.UTF_8))) {
+        name.append(Character.forDigit((b >> 4) & 0xF, 16));
+        name.append(Character.forDigit(b & 0xF, 16));
+      }
+
+      return new File(directory, name.append(EXTENSION).toString());
+    }
+
+    catch (NoSuchAlgorithmException e) {
+      throw new IllegalStateException(e);
+    }
+  }
+
+}
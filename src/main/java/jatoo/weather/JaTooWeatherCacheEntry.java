@@ -0,0 +1,177 @@
+/*
+ * Copyright (C) Cristian Sulea ( http://cristian.sulea.net )
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package jatoo.weather;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * An entry of the cache: the cached object, together with its (approximate)
+ * access frequency, used to choose what to evict when the cache is full, its
+ * decaying access count (the heat), used to find the hot entries, and its
+ * (adapted) expiration.
+ * 
+ * @author <a href="http://cristian.sulea.net" rel="author">Cristian Sulea</a>
+ * @version 1.0, October 18, 2026
+ */
+final class JaTooWeatherCacheEntry {
+
+  /** The maximum value of the frequency counter. */
+  private static final int MAX_FREQUENCY = 15;
+
+  /** The time after which the heat of an entry halves. */
+  static final long HEAT_HALF_LIFE = TimeUnit.MINUTES.toMillis(10);
+
+  /** The cached object. */
+  private final JaTooWeatherCacheObject object;
+
+  /**
+   * The (small, saturating) access frequency, incremented by lookups and
+   * decremented by the eviction sweeps. Updates are racy on purpose, a lost
+   * increment does not matter.
+   */
+  private volatile int frequency;
+
+  /**
+   * The accesses during the current half-life period (the
+   * {@link #heatPeriod}). Racy too, so an access costs a single write.
+   */
+  private volatile int hits;
+
+  /**
+   * The access count before the {@link #heatPeriod}, already halved for every
+   * {@link #HEAT_HALF_LIFE} since. The decay is only computed when read, or
+   * once per period, by the first access.
+   */
+  private volatile double heat;
+  private volatile long heatPeriod;
+
+  JaTooWeatherCacheEntry(final JaTooWeatherCacheObject object) {
+    this.object = object;
+  }
+
+  /**
+   * Creates a new entry, replacing the given one (the access frequency is
+   * kept).
+   * 
+   * @param object
+   *          the cached object
+   * @param previous
+   *          the replaced entry, or <code>null</code>
+   */
+  JaTooWeatherCacheEntry(final JaTooWeatherCacheObject object, final JaTooWeatherCacheEntry previous) {
+    this.object = object;
+    this.frequency = previous == null ? 0 : previous.frequency;
+    this.hits = previous == null ? 0 : previous.hits;
+    this.heat = previous == null ? 0 : previous.heat;
+    this.heatPeriod = previous == null ? 0 : previous.heatPeriod;
+  }
+
+  JaTooWeatherCacheObject getObject() {
+    return this.object;
+  }
+
+  /**
+   * Gets the (adapted) expiration of the object.
+   * 
+   * @return the expiration, in milliseconds, or 0 for the expiration of the
+   *         service (not adapted)
+   */
+  long getExpiration() {
+    return object.getExpiration();
+  }
+
+  /**
+   * Records an access.
+   * 
+   * @return the cached object
+   */
+  JaTooWeatherCacheObject touch() {
+
+    int f = frequency;
+
+    if (f < MAX_FREQUENCY) {
+      frequency = f + 1;
+    }
+
+    long period = System.currentTimeMillis() / HEAT_HALF_LIFE;
+
+    if (period != heatPeriod) {
+      heat = getHeatOfPeriod(period);
+      hits = 0;
+      heatPeriod = period;
+    }
+
+    hits++;
+
+    return object;
+  }
+
+  /**
+   * Gets the heat of this entry: the number of accesses, each halved at the
+   * end of every {@link #HEAT_HALF_LIFE} period since.
+   * 
+   * @param now
+   *          the current time
+   * 
+   * @return the heat
+   */
+  double getHeat(final long now) {
+    return getHeatOfPeriod(now / HEAT_HALF_LIFE);
+  }
+
+  private double getHeatOfPeriod(final long period) {
+
+    double heat = this.heat + hits;
+
+    if (heat == 0 || period <= heatPeriod) {
+      return heat;
+    }
+
+    // halved once per period, exactly (and quickly)
+    return Math.scalb(heat, (int) -Math.min(period - heatPeriod, Integer.MAX_VALUE));
+  }
+
+  /**
+   * Sets the heat of this entry (restored after a restart).
+   */
+  void setHeat(final double heat) {
+    this.heat = heat;
+    this.hits = 0;
+    this.heatPeriod = System.currentTimeMillis() / HEAT_HALF_LIFE;
+  }
+
+  /**
+   * Gives this entry a (second) chance during an eviction sweep.
+   * 
+   * @return <code>true</code> if the entry was accessed since the last sweep
+   *         (and should be kept), <code>false</code> if it should be evicted
+   */
+  boolean sweep() {
+
+    int f = frequency;
+
+    if (f == 0) {
+      return false;
+    }
+
+    frequency = f - 1;
+
+    return true;
+  }
+
+}
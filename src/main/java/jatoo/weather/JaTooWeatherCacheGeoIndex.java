@@ -0,0 +1,166 @@
+/*
+ * Copyright (C) Cristian Sulea ( http://cristian.sulea.net )
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package jatoo.weather;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * The spatial index of the cached objects with coordinates: a grid of cells of
+ * a tenth of a degree (about 11 km), each with the keys of the objects inside
+ * it, so the objects near some coordinates are found by visiting only the
+ * cells around them.
+ * <p>
+ * The index is only a hint, kept up to date without locking the cache: the
+ * keys it returns must be looked up in the cache (and their coordinates
+ * checked) again.
+ * 
+ * @author <a href="http://cristian.sulea.net" rel="author">Cristian Sulea</a>
+ * @version 1.0, October 18, 2026
+ */
+class JaTooWeatherCacheGeoIndex {
+
+  /** The size of a cell, in degrees. */
+  private static final double CELL = 0.1;
+
+  private static final int ROWS = (int) Math.round(180 / CELL);
+  private static final int COLUMNS = (int) Math.round(360 / CELL);
+
+  /** The length of a degree of latitude, in kilometers. */
+  private static final double DEGREE = 111.195;
+
+  /** The mean radius of the Earth, in kilometers. */
+  private static final double EARTH_RADIUS = 6371.0088;
+
+  private final ConcurrentMap<Integer, Set<String>> cells = new ConcurrentHashMap<>();
+
+  void add(final String key, final JaTooWeatherCacheObject object) {
+
+    if (!hasCoordinates(object)) {
+      return;
+    }
+
+    // (not computeIfAbsent, the set may be removed before the key is added)
+    cells.compute(getCell(object.getLatitudeValue(), object.getLongitudeValue()), (cell, keys) -> {
+
+      Set<String> set = keys == null ? ConcurrentHashMap.newKeySet() : keys;
+      set.add(key);
+
+      return set;
+    });
+  }
+
+  void remove(final String key, final JaTooWeatherCacheObject object) {
+
+    if (!hasCoordinates(object)) {
+      return;
+    }
+
+    cells.computeIfPresent(getCell(object.getLatitudeValue(), object.getLongitudeValue()), (cell, keys) -> {
+      keys.remove(key);
+      return keys.isEmpty() ? null : keys;
+    });
+  }
+
+  void clear() {
+    cells.clear();
+  }
+
+  /**
+   * Gets the keys of the objects that may be within the given distance from
+   * the given coordinates (the keys in the cells covering the circle).
+   * 
+   * @param latitude
+   *          the latitude, in degrees
+   * @param longitude
+   *          the longitude, in degrees
+   * @param distance
+   *          the distance, in kilometers
+   * 
+   * @return the keys
+   */
+  List<String> getKeysNear(final double latitude, final double longitude, final double distance) {
+
+    List<String> keys = new ArrayList<>();
+
+    int row = getRow(latitude);
+    int column = getColumn(longitude);
+
+    int rows = (int) Math.ceil(distance / DEGREE / CELL);
+    int columns = (int) Math.ceil(distance / (DEGREE * Math.max(Math.cos(Math.toRadians(Math.min(Math.abs(latitude) + rows * CELL, 90))), 0.01)) / CELL);
+
+    // near the poles, or too far, all the cells are fewer
+    if (columns * 2 + 1 >= COLUMNS || (long) (rows * 2 + 1) * (columns * 2 + 1) > cells.size()) {
+
+      for (Set<String> cell : cells.values()) {
+        keys.addAll(cell);
+      }
+
+      return keys;
+    }
+
+    for (int r = Math.max(0, row - rows); r <= Math.min(ROWS - 1, row + rows); r++) {
+      for (int c = column - columns; c <= column + columns; c++) {
+
+        Set<String> cell = cells.get(r * COLUMNS + Math.floorMod(c, COLUMNS));
+
+        if (cell != null) {
+          keys.addAll(cell);
+        }
+      }
+    }
+
+    return keys;
+  }
+
+  static boolean hasCoordinates(final JaTooWeatherCacheObject object) {
+    return object.isPresent(JaTooWeatherCacheObject.LATITUDE) && object.isPresent(JaTooWeatherCacheObject.LONGITUDE);
+  }
+
+  /**
+   * Computes the (great-circle) distance between the given coordinates.
+   * 
+   * @return the distance, in kilometers
+   */
+  static double getDistance(final double latitude1, final double longitude1, final double latitude2, final double longitude2) {
+
+    double sinLatitude = Math.sin(Math.toRadians(latitude2 - latitude1) / 2);
+    double sinLongitude = Math.sin(Math.toRadians(longitude2 - longitude1) / 2);
+
+    double a = sinLatitude * sinLatitude + Math.cos(Math.toRadians(latitude1)) * Math.cos(Math.toRadians(latitude2)) * sinLongitude * sinLongitude;
+
+    return 2 * EARTH_RADIUS * Math.asin(Math.min(1, Math.sqrt(a)));
+  }
+
+  private static int getCell(final double latitude, final double longitude) {
+    return getRow(latitude) * COLUMNS + getColumn(longitude);
+  }
+
+  private static int getRow(final double latitude) {
+    return Math.max(0, Math.min(ROWS - 1, (int) Math.floor((latitude + 90) / CELL)));
+  }
+
+  private static int getColumn(final double longitude) {
+    return Math.floorMod((int) Math.floor((longitude + 180) / CELL), COLUMNS);
+  }
+
+}
@@ -0,0 +1,331 @@
+/*
+ * Copyright (C) Cristian Sulea ( http://cristian.sulea.net )
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package jatoo.weather;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.function.BiConsumer;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * The append-only journal of the cache: every added object is appended as one
+ * record, so the cost of a write does not depend on the size of the cache. The
+ * journal is replayed (over the last snapshot) when the cache is loaded, and
+ * truncated when a new snapshot is saved.
+ * <p>
+ * The journal may be shared by several processes (see
+ * {@link JaTooWeatherCacheLock}): the records appended by the others since the
+ * last replay are replayed with {@link #catchUp(BiConsumer)}.
+ * 
+ * @author <a href="http://cristian.sulea.net" rel="author">Cristian Sulea</a>
+ * @version 1.0, October 18, 2026
+ */
+final class JaTooWeatherCacheJournal {
+
+  /** The logger. */
+  private static final Log LOGGER = LogFactory.getLog(JaTooWeatherCacheJournal.class);
+
+  /** The file of the journal. */
+  private final File file;
+
+  /** The codec of the records. */
+  private final JaTooWeatherCacheCodec codec;
+
+  /** The stream the records are appended to (opened on first append). */
+  private DataOutputStream stream;
+
+  /** The number of records in the journal. */
+  private int records;
+
+  /** Whether the replayed journal was written in another format. */
+  private boolean outdated;
+
+  /** The version of the codec of the replayed journal. */
+  private int version;
+
+  /** The length of the journal replayed (or written) by this process. */
+  private volatile long position;
+
+  JaTooWeatherCacheJournal(final File file, final JaTooWeatherCacheCodec codec) {
+    this.file = file;
+    this.codec = codec;
+  }
+
+  /**
+   * Appends a record to the journal. The record is buffered, use
+   * {@link #flush()} to write it.
+   * 
+   * @param key
+   *          the key of the object
+   * @param object
+   *          the object
+   * 
+   * @throws IOException
+   *           if the record could not be written
+   */
+  synchronized void append(final String key, final JaTooWeatherCacheObject object) throws IOException {
+
+    if (stream == null) {
+
+      file.getParentFile().mkdirs();
+
+      boolean empty = file.length() == 0;
+
+      stream = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file, true)));
+
+      if (empty) {
+        JaTooWeatherCache.writeHeader(stream, codec);
+        version = codec.getVersion();
+        outdated = false;
+      }
+    }
+
+    stream.writeUTF(key);
+    codec.write(stream, object);
+
+    records++;
+  }
+
+  /**
+   * Writes the buffered records. The records of the other processes must be
+   * replayed (see {@link #catchUp(BiConsumer)}) before appending, as the whole
+   * journal is then considered replayed.
+   * 
+   * @throws IOException
+   *           if the records could not be written
+   */
+  synchronized void flush() throws IOException {
+    if (stream != null) {
+      stream.flush();
+      position = file.length();
+    }
+  }
+
+  /**
+   * Replays the journal, record by record, into the given consumer. A truncated
+   * (incomplete) last record, as left by a crash, is discarded.
+   * 
+   * @param cache
+   *          the consumer of the replayed objects (by key)
+   * 
+   * @return the number of replayed records
+   * 
+   * @throws IOException
+   *           if the journal could not be read
+   */
+  synchronized int replay(final BiConsumer<String, JaTooWeatherCacheObject> cache) throws IOException {
+
+    // reopened on the next append, with a header if
+    // the journal was truncated (by another process)
+    close();
+
+    records = 0;
+    outdated = false;
+    position = 0;
+
+    if (!file.exists()) {
+      return records;
+    }
+
+    byte[] bytes = Files.readAllBytes(file.toPath());
+
+    if (bytes.length < JaTooWeatherCache.HEADER_LENGTH) {
+      truncate(0);
+      return records;
+    }
+
+    DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes));
+    version = JaTooWeatherCache.readHeader(in);
+
+    if (version < 0) {
+      outdated = true;
+      position = bytes.length;
+
+      Map<String, JaTooWeatherCacheObject> objects = new HashMap<>();
+      records = JaTooWeatherCacheLegacyReader.replayJournal(new DataInputStream(new ByteArrayInputStream(bytes)), objects);
+
+      for (Map.Entry<String, JaTooWeatherCacheObject> object : objects.entrySet()) {
+        cache.accept(object.getKey(), object.getValue());
+      }
+
+      return records;
+    }
+
+    outdated = version != codec.getVersion();
+
+    records = replay(cache, in, bytes.length, JaTooWeatherCache.HEADER_LENGTH);
+
+    return records;
+  }
+
+  /**
+   * Replays the records appended (by the other processes) since the last
+   * replay, or the whole journal if it was truncated meanwhile.
+   * 
+   * @param cache
+   *          the consumer of the replayed objects (by key)
+   * 
+   * @return the number of replayed records
+   * 
+   * @throws IOException
+   *           if the journal could not be read
+   */
+  synchronized int catchUp(final BiConsumer<String, JaTooWeatherCacheObject> cache) throws IOException {
+
+    long length = file.length();
+
+    if (length == position) {
+      return 0;
+    }
+
+    if (length < position || position < JaTooWeatherCache.HEADER_LENGTH || version < 0) {
+      return replay(cache);
+    }
+
+    byte[] bytes = new byte[(int) (length - position)];
+
+    try (RandomAccessFile raf = new RandomAccessFile(file, "r")) {
+      raf.seek(position);
+      raf.readFully(bytes);
+    }
+
+    int replayed = replay(cache, new DataInputStream(new ByteArrayInputStream(bytes)), position + bytes.length, position);
+
+    records += replayed;
+
+    return replayed;
+  }
+
+  /**
+   * Replays the records of the given input, up to the given length of the
+   * journal, discarding a truncated (incomplete) last record.
+   */
+  private int replay(final BiConsumer<String, JaTooWeatherCacheObject> cache, final DataInputStream in, final long length, final long start) throws IOException {
+
+    int replayed = 0;
+    long end = start;
+
+    while (true) {
+
+      try {
+        cache.accept(in.readUTF(), codec.read(in, version));
+      }
+
+      catch (EOFException e) {
+        break;
+      }
+
+      replayed++;
+      end = length - in.available();
+    }
+
+    if (end < length) {
+      LOGGER.warn("discarding the incomplete last record of the journal");
+      truncate(end);
+    }
+
+    position = end;
+
+    return replayed;
+  }
+
+  /**
+   * Empties the journal (after all its records were saved in a snapshot).
+   * 
+   * @throws IOException
+   *           if the journal could not be truncated
+   */
+  synchronized void truncate() throws IOException {
+
+    truncate(0);
+
+    records = 0;
+    position = 0;
+  }
+
+  private void truncate(final long length) throws IOException {
+
+    close();
+
+    try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+      raf.setLength(length);
+    }
+  }
+
+  /**
+   * Gets the length of the journal on disk (without the records still
+   * buffered).
+   * 
+   * @return the length, in bytes
+   */
+  long length() {
+    return file.length();
+  }
+
+  /**
+   * Tells whether the journal was changed (by another process) since the last
+   * replay or write. Without the lock the result is only a hint.
+   * 
+   * @return <code>true</code> if changed
+   */
+  boolean isChanged() {
+    return file.length() != position;
+  }
+
+  /**
+   * Closes the journal (it will be reopened on the next append).
+   * 
+   * @throws IOException
+   *           if the journal could not be closed
+   */
+  synchronized void close() throws IOException {
+    if (stream != null) {
+      try {
+        stream.close();
+      } finally {
+        stream = null;
+      }
+    }
+  }
+
+  synchronized int size() {
+    return records;
+  }
+
+  /**
+   * Tells whether the last replayed journal was written in another (older)
+   * format, so it should be compacted (rewritten) as soon as possible.
+   * 
+   * @return <code>true</code> if the journal is outdated
+   */
+  synchronized boolean isOutdated() {
+    return outdated;
+  }
+
+}
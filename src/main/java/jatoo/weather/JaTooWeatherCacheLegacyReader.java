@@ -0,0 +1,185 @@
+/*
+ * Copyright (C) Cristian Sulea ( http://cristian.sulea.net )
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package jatoo.weather;
+
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectStreamClass;
+import java.io.Serializable;
+import java.util.Map;
+
+/**
+ * The reader of the cache files written (with Java serialization) by the
+ * previous versions, used to migrate them to the current format.
+ * 
+ * @author <a href="http://cristian.sulea.net" rel="author">Cristian Sulea</a>
+ * @version 1.0, October 18, 2026
+ */
+final class JaTooWeatherCacheLegacyReader {
+
+  /** The name of the class of the objects, as serialized. */
+  private static final String LEGACY_CLASS_NAME = "jatoo.weather.JaTooWeatherCacheObject";
+
+  /** Utility class, no instances. */
+  private JaTooWeatherCacheLegacyReader() {}
+
+  /**
+   * Reads a snapshot (a serialized {@link Map}) into the given map.
+   * 
+   * @param in
+   *          the stream to read from
+   * @param cache
+   *          the map to read into
+   * 
+   * @throws IOException
+   *           if the snapshot could not be read
+   */
+  @SuppressWarnings("unchecked")
+  static void readSnapshot(final InputStream in, final Map<String, JaTooWeatherCacheObject> cache) throws IOException {
+
+    try {
+      for (Map.Entry<String, LegacyObject> entry : ((Map<String, LegacyObject>) new LegacyObjectInputStream(in).readObject()).entrySet()) {
+        cache.put(entry.getKey(), entry.getValue().toObject());
+      }
+    }
+
+    catch (ClassNotFoundException | ClassCastException e) {
+      throw new IOException("failed to read the snapshot", e);
+    }
+  }
+
+  /**
+   * Replays a journal (records of key, length and serialized object) into the
+   * given map.
+   * 
+   * @param in
+   *          the stream to read from
+   * @param cache
+   *          the map to replay into
+   * 
+   * @return the number of replayed records
+   * 
+   * @throws IOException
+   *           if the journal could not be read
+   */
+  static int replayJournal(final DataInputStream in, final Map<String, JaTooWeatherCacheObject> cache) throws IOException {
+
+    int records = 0;
+
+    while (true) {
+
+      String key;
+      byte[] bytes;
+
+      try {
+        key = in.readUTF();
+        bytes = new byte[in.readInt()];
+        in.readFully(bytes);
+      }
+
+      catch (EOFException e) {
+        break;
+      }
+
+      try (ObjectInputStream objectStream = new LegacyObjectInputStream(new ByteArrayInputStream(bytes))) {
+        cache.put(key, ((LegacyObject) objectStream.readObject()).toObject());
+        records++;
+      }
+
+      catch (ClassNotFoundException | ClassCastException e) {
+        throw new IOException("failed to replay the record for: " + key, e);
+      }
+    }
+
+    return records;
+  }
+
+  /**
+   * Stream reading the serialized {@link JaTooWeatherCacheObject}s (of the
+   * first release) as {@link LegacyObject}s.
+   */
+  private static final class LegacyObjectInputStream extends ObjectInputStream {
+
+    LegacyObjectInputStream(final InputStream in) throws IOException {
+      super(in);
+    }
+
+    @Override
+    protected ObjectStreamClass readClassDescriptor() throws IOException, ClassNotFoundException {
+
+      ObjectStreamClass descriptor = super.readClassDescriptor();
+
+      if (descriptor.getName().equals(LEGACY_CLASS_NAME)) {
+        return ObjectStreamClass.lookup(LegacyObject.class);
+      }
+
+      return descriptor;
+    }
+  }
+
+  /**
+   * The {@link JaTooWeatherCacheObject} of the first release (with the same
+   * fields and serial version).
+   */
+  @SuppressWarnings("unused")
+  private static final class LegacyObject implements Serializable {
+
+    private static final long serialVersionUID = 4344283831742062586L;
+
+    private long timestamp;
+
+    private String city;
+    private String description;
+
+    private Number temperature;
+    private JaTooWeather.TEMPERATURE_UNIT temperatureUnit;
+
+    private Number humidity;
+    private JaTooWeather.HUMIDITY_UNIT humidityUnit;
+
+    private Number pressure;
+    private JaTooWeather.PRESSURE_UNIT pressureUnit;
+
+    private Number wind;
+    private JaTooWeather.WIND_UNIT windUnit;
+
+    private Number windDirection;
+    private JaTooWeather.WIND_DIRECTION_UNIT windDirectionUnit;
+
+    private Number clouds;
+    private JaTooWeather.CLOUDS_UNIT cloudsUnit;
+
+    private Number rain;
+    private JaTooWeather.RAIN_UNIT rainUnit;
+
+    private Number snow;
+    private JaTooWeather.SNOW_UNIT snowUnit;
+
+    private Long sunrise;
+    private Long sunset;
+
+    JaTooWeatherCacheObject toObject() {
+      return new JaTooWeatherCacheObject(timestamp, city, description, temperature, temperatureUnit, humidity, humidityUnit, pressure, pressureUnit, wind, windUnit, windDirection, windDirectionUnit, clouds, cloudsUnit, rain, rainUnit, snow, snowUnit, sunrise, sunset, null, null, null, 0);
+    }
+  }
+
+}
@@ -0,0 +1,191 @@
+/*
+ * Copyright (C) Cristian Sulea ( http://cristian.sulea.net )
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package jatoo.weather;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * The lock of the directory of the cache, shared by all the processes (JVMs)
+ * using the same directory, around all their reads and writes of the snapshot
+ * and of the journal. The lock file also holds the generation of the snapshot,
+ * incremented on each save, so the other processes can tell when to read it
+ * again.
+ * <p>
+ * The lock is a {@link FileLock}, held by the whole process, so the threads of
+ * a process must take it one at a time (the cache takes it with the journal
+ * synchronized).
+ * <p>
+ * The channel of the lock file is closed by the JDK when a thread using it is
+ * interrupted, so it is opened again by the next (not interrupted) thread.
+ * 
+ * @author <a href="http://cristian.sulea.net" rel="author">Cristian Sulea</a>
+ * @version 1.0, October 18, 2026
+ */
+final class JaTooWeatherCacheLock {
+
+  /** The length of the generation, at the beginning of the file. */
+  private static final int GENERATION_LENGTH = 8;
+
+  /** The lock file. */
+  private final File file;
+
+  /** The channel of the lock file (opened on first use). */
+  private volatile FileChannel channel;
+
+  JaTooWeatherCacheLock(final File file) {
+    this.file = file;
+  }
+
+  /**
+   * Takes the lock, waiting for the other processes to release it.
+   * 
+   * @return the lock, to be released (closed) when done
+   * 
+   * @throws IOException
+   *           if the lock could not be taken
+   */
+  FileLock lock() throws IOException {
+
+    // the locked region is after the generation, which can then be read
+    // without the lock, even where the locks are mandatory (Windows)
+    return withChannel(channel -> channel.lock(GENERATION_LENGTH, 1, false));
+  }
+
+  /**
+   * Gets the generation of the snapshot. Without the lock the value is only a
+   * hint, to avoid taking the lock when nothing changed.
+   * 
+   * @return the generation, 0 if nothing was saved yet
+   * 
+   * @throws IOException
+   *           if the generation could not be read
+   */
+  long getGeneration() throws IOException {
+
+    if (channel == null && !file.exists()) {
+      return 0;
+    }
+
+    return withChannel(channel -> {
+
+      ByteBuffer buffer = ByteBuffer.allocate(GENERATION_LENGTH);
+
+      while (buffer.hasRemaining()) {
+        if (channel.read(buffer, buffer.position()) < 0) {
+          return 0L;
+        }
+      }
+
+      buffer.flip();
+
+      return buffer.getLong();
+    });
+  }
+
+  /**
+   * Increments the generation of the snapshot (with the lock taken), after a
+   * save.
+   * 
+   * @return the new generation
+   * 
+   * @throws IOException
+   *           if the generation could not be written
+   */
+  long incrementGeneration() throws IOException {
+
+    long generation = getGeneration() + 1;
+
+    ByteBuffer buffer = ByteBuffer.allocate(GENERATION_LENGTH);
+    buffer.putLong(generation);
+    buffer.flip();
+
+    withChannel(channel -> {
+
+      while (buffer.hasRemaining()) {
+        channel.write(buffer, buffer.position());
+      }
+
+      return null;
+    });
+
+    return generation;
+  }
+
+  /**
+   * Closes the lock file (it will be opened again on the next use).
+   * 
+   * @throws IOException
+   *           if the file could not be closed
+   */
+  synchronized void close() throws IOException {
+    if (channel != null) {
+      try {
+        channel.close();
+      } finally {
+        channel = null;
+      }
+    }
+  }
+
+  /**
+   * Does the given operation on the channel of the lock file. If the channel
+   * was closed by the interrupt of another thread, the operation is done again
+   * on a new channel; the interrupted thread itself fails.
+   */
+  private <T> T withChannel(final ChannelOperation<T> operation) throws IOException {
+
+    while (true) {
+
+      FileChannel channel = getChannel();
+
+      try {
+        return operation.run(channel);
+      }
+
+      catch (ClosedChannelException e) {
+        if (Thread.currentThread().isInterrupted()) {
+          throw e;
+        }
+      }
+    }
+  }
+
+  private synchronized FileChannel getChannel() throws IOException {
+
+    if (channel == null || !channel.isOpen()) {
+      channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+    }
+
+    return channel;
+  }
+
+  /**
+   * An operation on the channel of the lock file.
+   */
+  private interface ChannelOperation<T> {
+    T run(FileChannel channel) throws IOException;
+  }
+
+}
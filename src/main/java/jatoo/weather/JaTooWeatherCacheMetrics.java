@@ -0,0 +1,198 @@
+/*
+ * Copyright (C) Cristian Sulea ( http://cristian.sulea.net )
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package jatoo.weather;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * The metrics of the cache: the size (in entries, in memory and on disk), the
+ * durations of the saves and loads, the time spent waiting for the
+ * journal or for the (background) load, and the lookups of the shared store. The recording is lock-free.
+ * 
+ * @author <a href="http://cristian.sulea.net" rel="author">Cristian Sulea</a>
+ * @version 1.0, October 18, 2026
+ * 
+ * @see JaTooWeatherCache#getMetrics()
+ */
+public class JaTooWeatherCacheMetrics implements JaTooWeatherCacheMetricsMXBean {
+
+  private final JaTooWeatherCache cache;
+
+  /** The durations of the saves, in nanoseconds. */
+  private final JaTooWeatherHistogram saves = new JaTooWeatherHistogram();
+  private volatile long lastSave;
+
+  /** The durations of the loads, in nanoseconds. */
+  private final JaTooWeatherHistogram loads = new JaTooWeatherHistogram();
+  private volatile long lastLoad;
+
+  /** The waits for the journal, in nanoseconds. */
+  private final JaTooWeatherHistogram lockWait = new JaTooWeatherHistogram();
+
+  /** The waits of the lookups for the keys not loaded yet, in nanoseconds. */
+  private final JaTooWeatherHistogram loadWait = new JaTooWeatherHistogram();
+
+  /** The lookups (and failures) of the shared store. */
+  private final LongAdder sharedHits = new LongAdder();
+  private final LongAdder sharedMisses = new LongAdder();
+  private final LongAdder sharedFailures = new LongAdder();
+
+  JaTooWeatherCacheMetrics(final JaTooWeatherCache cache) {
+    this.cache = cache;
+  }
+
+  void save(final long start) {
+    lastSave = System.nanoTime() - start;
+    saves.record(lastSave);
+  }
+
+  void load(final long start) {
+    lastLoad = System.nanoTime() - start;
+    loads.record(lastLoad);
+  }
+
+  void lockWait(final long start) {
+    lockWait.record(System.nanoTime() - start);
+  }
+
+  void loadWait(final long start) {
+    loadWait.record(System.nanoTime() - start);
+  }
+
+  void sharedHit() {
+    sharedHits.increment();
+  }
+
+  void sharedMiss() {
+    sharedMisses.increment();
+  }
+
+  void sharedFailure() {
+    sharedFailures.increment();
+  }
+
+  @Override
+  public int getEntryCount() {
+    return cache.getSize();
+  }
+
+  @Override
+  public long getEstimatedHeapSize() {
+    return cache.getEstimatedHeapSize();
+  }
+
+  @Override
+  public long getEvictionCount() {
+    return cache.getEvictionCount();
+  }
+
+  @Override
+  public long getPersistedSize() {
+    return cache.getPersistedSize();
+  }
+
+  @Override
+  public long getSaveCount() {
+    return saves.getCount();
+  }
+
+  @Override
+  public double getSaveDurationLast() {
+    return JaTooWeatherServiceMetrics.toMillis(lastSave);
+  }
+
+  @Override
+  public double getSaveDurationMax() {
+    return JaTooWeatherServiceMetrics.toMillis(saves.getMax());
+  }
+
+  @Override
+  public long getLoadCount() {
+    return loads.getCount();
+  }
+
+  @Override
+  public double getLoadDurationLast() {
+    return JaTooWeatherServiceMetrics.toMillis(lastLoad);
+  }
+
+  @Override
+  public double getLoadDurationMax() {
+    return JaTooWeatherServiceMetrics.toMillis(loads.getMax());
+  }
+
+  @Override
+  public long getLockWaitCount() {
+    return lockWait.getCount();
+  }
+
+  @Override
+  public double getLockWaitTime() {
+    return JaTooWeatherServiceMetrics.toMillis(lockWait.getSum());
+  }
+
+  @Override
+  public boolean isLoaded() {
+    return cache.isLoaded();
+  }
+
+  @Override
+  public long getLoadWaitCount() {
+    return loadWait.getCount();
+  }
+
+  @Override
+  public double getLoadWaitTime() {
+    return JaTooWeatherServiceMetrics.toMillis(loadWait.getSum());
+  }
+
+  @Override
+  public long getSharedHitCount() {
+    return sharedHits.sum();
+  }
+
+  @Override
+  public long getSharedMissCount() {
+    return sharedMisses.sum();
+  }
+
+  @Override
+  public long getSharedFailureCount() {
+    return sharedFailures.sum();
+  }
+
+  /**
+   * Gets the histogram of the durations of the saves, in nanoseconds.
+   * 
+   * @return the histogram
+   */
+  public JaTooWeatherHistogram getSaves() {
+    return this.saves;
+  }
+
+  /**
+   * Gets the histogram of the durations of the loads, in nanoseconds.
+   * 
+   * @return the histogram
+   */
+  public JaTooWeatherHistogram getLoads() {
+    return this.loads;
+  }
+
+}
@@ -0,0 +1,68 @@
+/*
+ * Copyright (C) Cristian Sulea ( http://cristian.sulea.net )
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package jatoo.weather;
+
+/**
+ * The JMX view of the metrics of the cache (the durations are in
+ * milliseconds).
+ * 
+ * @author <a href="http://cristian.sulea.net" rel="author">Cristian Sulea</a>
+ * @version 1.0, October 18, 2026
+ * 
+ * @see JaTooWeatherCacheMetrics
+ */
+public interface JaTooWeatherCacheMetricsMXBean {
+
+  int getEntryCount();
+
+  long getEstimatedHeapSize();
+
+  long getEvictionCount();
+
+  long getPersistedSize();
+
+  long getSaveCount();
+
+  double getSaveDurationLast();
+
+  double getSaveDurationMax();
+
+  long getLoadCount();
+
+  double getLoadDurationLast();
+
+  double getLoadDurationMax();
+
+  long getLockWaitCount();
+
+  double getLockWaitTime();
+
+  boolean isLoaded();
+
+  long getLoadWaitCount();
+
+  double getLoadWaitTime();
+
+  long getSharedHitCount();
+
+  long getSharedMissCount();
+
+  long getSharedFailureCount();
+
+}
@@ -15,84 +15,297 @@
  * along with this program.  If not, see <http://www.gnu.org/licenses/>.
  */
 
+
 package jatoo.weather;
 
 import java.io.Serializable;
+import java.time.ZoneId;
 
 /**
- * The cached object representation of the weather.
+ * The cached object representation of the weather. The values are kept as
+ * primitives (no boxing, no extra objects per value), together with bit masks
+ * telling which values are present and which were integers (or floats), so the
+ * {@link Number} getters return exactly what was cached. The boxed values
+ * (needed by {@link JaTooWeather}) are created once, on the first hit, and
+ * shared by all the following hits.
  * 
  * @author <a href="http://cristian.sulea.net" rel="author">Cristian Sulea</a>
- * @version 1.0, October 19, 2016
+ * @version 2.0, October 18, 2026
  */
-@SuppressWarnings("serial")
 public class JaTooWeatherCacheObject implements Serializable {
 
+  private static final long serialVersionUID = 2L;
+
+  /** The index (bit) of the temperature in the masks. */
+  static final int TEMPERATURE = 0;
+  /** The index (bit) of the humidity in the masks. */
+  static final int HUMIDITY = 1;
+  /** The index (bit) of the pressure in the masks. */
+  static final int PRESSURE = 2;
+  /** The index (bit) of the wind in the masks. */
+  static final int WIND = 3;
+  /** The index (bit) of the windDirection in the masks. */
+  static final int WIND_DIRECTION = 4;
+  /** The index (bit) of the clouds in the masks. */
+  static final int CLOUDS = 5;
+  /** The index (bit) of the rain in the masks. */
+  static final int RAIN = 6;
+  /** The index (bit) of the snow in the masks. */
+  static final int SNOW = 7;
+  /** The index (bit) of the sunrise in the masks. */
+  static final int SUNRISE = 8;
+  /** The index (bit) of the sunset in the masks. */
+  static final int SUNSET = 9;
+  /** The index (bit) of the zone in the masks. */
+  static final int ZONE = 10;
+  /** The index (bit) of the latitude in the masks. */
+  static final int LATITUDE = 11;
+  /** The index (bit) of the longitude in the masks. */
+  static final int LONGITUDE = 12;
+  /** The index (bit) of the (adapted) expiration in the masks. */
+  static final int EXPIRATION = 13;
+
+  /** The value of a missing time. */
+  static final long TIME_NULL = Long.MIN_VALUE;
+
   private final long timestamp;
 
   private final String city;
   private final String description;
 
-  private final Number temperature;
+  /** The values present (not <code>null</code>), one bit per value. */
+  private final int present;
+  /** The values that were integers, one bit per value. */
+  private final int integral;
+  /** The values that were floats, one bit per value. */
+  private final int floats;
+
+  private final double temperature;
   private final JaTooWeather.TEMPERATURE_UNIT temperatureUnit;
 
-  private final Number humidity;
+  private final double humidity;
   private final JaTooWeather.HUMIDITY_UNIT humidityUnit;
 
-  private final Number pressure;
+  private final double pressure;
   private final JaTooWeather.PRESSURE_UNIT pressureUnit;
 
-  private final Number wind;
+  private final double wind;
   private final JaTooWeather.WIND_UNIT windUnit;
 
-  private final Number windDirection;
+  private final double windDirection;
   private final JaTooWeather.WIND_DIRECTION_UNIT windDirectionUnit;
 
-  private final Number clouds;
+  private final double clouds;
   private final JaTooWeather.CLOUDS_UNIT cloudsUnit;
 
-  private final Number rain;
+  private final double rain;
   private final JaTooWeather.RAIN_UNIT rainUnit;
 
-  private final Number snow;
+  private final double snow;
   private final JaTooWeather.SNOW_UNIT snowUnit;
 
-  private final Long sunrise;
-  private final Long sunset;
+  private final long sunrise;
+  private final long sunset;
+
+  /** The zone of the city, or <code>null</code> if unknown. */
+  private final ZoneId zone;
+
+  /** The coordinates of the city, in degrees. */
+  private final double latitude;
+  private final double longitude;
+
+  /**
+   * The (adapted) expiration of the object, in milliseconds, or 0 for the
+   * expiration of the service.
+   */
+  private final long expiration;
+
+  /** The boxed values, by index, created on the first use. */
+  private transient volatile Object[] boxes;
 
   public JaTooWeatherCacheObject(final JaTooWeather weather) {
+    this(weather, 0);
+  }
+
+  JaTooWeatherCacheObject(final JaTooWeather weather, final long expiration) {
+    this(weather.getTimestamp(), weather.getCity(), weather.getDescription(), weather.getTemperature(), weather.getTemperatureUnit(), weather.getHumidity(), weather.getHumidityUnit(), weather.getPressure(), weather.getPressureUnit(), weather.getWind(), weather.getWindUnit(), weather.getWindDirection(), weather.getWindDirectionUnit(), weather.getClouds(), weather.getCloudsUnit(), weather.getRain(), weather.getRainUnit(), weather.getSnow(), weather.getSnowUnit(), weather.getSunrise(), weather.getSunset(), weather.getZone(), weather.getLatitude(), weather.getLongitude(), expiration);
+  }
+
+  JaTooWeatherCacheObject(final long timestamp, final String city, final String description, final Number temperature, final JaTooWeather.TEMPERATURE_UNIT temperatureUnit, final Number humidity, final JaTooWeather.HUMIDITY_UNIT humidityUnit, final Number pressure, final JaTooWeather.PRESSURE_UNIT pressureUnit, final Number wind, final JaTooWeather.WIND_UNIT windUnit, final Number windDirection, final JaTooWeather.WIND_DIRECTION_UNIT windDirectionUnit, final Number clouds, final JaTooWeather.CLOUDS_UNIT cloudsUnit, final Number rain, final JaTooWeather.RAIN_UNIT rainUnit, final Number snow, final JaTooWeather.SNOW_UNIT snowUnit, final Long sunrise, final Long sunset, final ZoneId zone, final Double latitude, final Double longitude, final long expiration) {
+    this(timestamp, city, description,
+
+        present(TEMPERATURE, temperature) | present(HUMIDITY, humidity) | present(PRESSURE, pressure) | present(WIND, wind) | present(WIND_DIRECTION, windDirection) | present(CLOUDS, clouds) | present(RAIN, rain) | present(SNOW, snow) | present(SUNRISE, sunrise) | present(SUNSET, sunset) | present(ZONE, zone) | present(LATITUDE, latitude) | present(LONGITUDE, longitude) | (expiration > 0 ? 1 << EXPIRATION : 0),
+        integral(TEMPERATURE, temperature) | integral(HUMIDITY, humidity) | integral(PRESSURE, pressure) | integral(WIND, wind) | integral(WIND_DIRECTION, windDirection) | integral(CLOUDS, clouds) | integral(RAIN, rain) | integral(SNOW, snow),
+        floats(TEMPERATURE, temperature) | floats(HUMIDITY, humidity) | floats(PRESSURE, pressure) | floats(WIND, wind) | floats(WIND_DIRECTION, windDirection) | floats(CLOUDS, clouds) | floats(RAIN, rain) | floats(SNOW, snow),
+
+        value(temperature), temperatureUnit,
+        value(humidity), humidityUnit,
+        value(pressure), pressureUnit,
+        value(wind), windUnit,
+        value(windDirection), windDirectionUnit,
+        value(clouds), cloudsUnit,
+        value(rain), rainUnit,
+        value(snow), snowUnit,
+
+        sunrise == null ? TIME_NULL : sunrise,
+        sunset == null ? TIME_NULL : sunset,
+
+        zone,
+
+        value(latitude),
+        value(longitude),
+
+        expiration);
+  }
+
+  JaTooWeatherCacheObject(final long timestamp, final String city, final String description, final int present, final int integral, final int floats, final double temperature, final JaTooWeather.TEMPERATURE_UNIT temperatureUnit, final double humidity, final JaTooWeather.HUMIDITY_UNIT humidityUnit, final double pressure, final JaTooWeather.PRESSURE_UNIT pressureUnit, final double wind, final JaTooWeather.WIND_UNIT windUnit, final double windDirection, final JaTooWeather.WIND_DIRECTION_UNIT windDirectionUnit, final double clouds, final JaTooWeather.CLOUDS_UNIT cloudsUnit, final double rain, final JaTooWeather.RAIN_UNIT rainUnit, final double snow, final JaTooWeather.SNOW_UNIT snowUnit, final long sunrise, final long sunset, final ZoneId zone, final double latitude, final double longitude, final long expiration) {
+
+    this.timestamp = timestamp;
+
+    this.city = city;
+    this.description = description;
+
+    this.present = present;
+    this.integral = integral;
+    this.floats = floats;
+
+    this.temperature = temperature;
+    this.temperatureUnit = temperatureUnit;
 
-    this.timestamp = weather.getTimestamp();
+    this.humidity = humidity;
+    this.humidityUnit = humidityUnit;
 
-    this.city = weather.getCity();
-    this.description = weather.getDescription();
+    this.pressure = pressure;
+    this.pressureUnit = pressureUnit;
 
-    this.temperature = weather.getTemperature();
-    this.temperatureUnit = weather.getTemperatureUnit();
+    this.wind = wind;
+    this.windUnit = windUnit;
 
-    this.humidity = weather.getHumidity();
-    this.humidityUnit = weather.getHumidityUnit();
+    this.windDirection = windDirection;
+    this.windDirectionUnit = windDirectionUnit;
 
-    this.pressure = weather.getPressure();
-    this.pressureUnit = weather.getPressureUnit();
+    this.clouds = clouds;
+    this.cloudsUnit = cloudsUnit;
 
-    this.wind = weather.getWind();
-    this.windUnit = weather.getWindUnit();
+    this.rain = rain;
+    this.rainUnit = rainUnit;
 
-    this.windDirection = weather.getWindDirection();
-    this.windDirectionUnit = weather.getWindDirectionUnit();
+    this.snow = snow;
+    this.snowUnit = snowUnit;
 
-    this.clouds = weather.getClouds();
-    this.cloudsUnit = weather.getCloudsUnit();
+    this.sunrise = sunrise;
+    this.sunset = sunset;
 
-    this.rain = weather.getRain();
-    this.rainUnit = weather.getRainUnit();
+    this.zone = zone;
 
-    this.snow = weather.getSnow();
-    this.snowUnit = weather.getSnowUnit();
+    this.latitude = latitude;
+    this.longitude = longitude;
 
-    this.sunrise = weather.getSunrise();
-    this.sunset = weather.getSunset();
+    this.expiration = expiration;
+  }
+
+  private static int present(final int index, final Object value) {
+    return value == null ? 0 : 1 << index;
+  }
+
+  private static int integral(final int index, final Number value) {
+    return value instanceof Integer || value instanceof Long || value instanceof Short || value instanceof Byte ? 1 << index : 0;
+  }
+
+  private static int floats(final int index, final Number value) {
+    return value instanceof Float ? 1 << index : 0;
+  }
+
+  private static double value(final Number value) {
+    return value == null ? Double.NaN : value.doubleValue();
+  }
+
+  /**
+   * Boxes the given value, as the type it was cached with.
+   */
+  private Number number(final int index, final double value) {
+
+    int bit = 1 << index;
+
+    if ((present & bit) == 0) {
+      return null;
+    }
+
+    if ((integral & bit) != 0) {
+
+      long longValue = (long) value;
+
+      if (longValue == (int) longValue) {
+        return (int) longValue;
+      }
+
+      return longValue;
+    }
+
+    if ((floats & bit) != 0) {
+      return (float) value;
+    }
+
+    return value;
+  }
+
+  /**
+   * Gets the boxed values, by index, creating them on the first use. The
+   * boxes are immutable, so the concurrent first uses may only create them
+   * twice, never see them partially.
+   */
+  private Object[] getBoxes() {
+
+    Object[] boxes = this.boxes;
+
+    if (boxes == null) {
+
+      boxes = new Object[LONGITUDE + 1];
+
+      boxes[TEMPERATURE] = number(TEMPERATURE, temperature);
+      boxes[HUMIDITY] = number(HUMIDITY, humidity);
+      boxes[PRESSURE] = number(PRESSURE, pressure);
+      boxes[WIND] = number(WIND, wind);
+      boxes[WIND_DIRECTION] = number(WIND_DIRECTION, windDirection);
+      boxes[CLOUDS] = number(CLOUDS, clouds);
+      boxes[RAIN] = number(RAIN, rain);
+      boxes[SNOW] = number(SNOW, snow);
+
+      boxes[SUNRISE] = sunrise == TIME_NULL ? null : Long.valueOf(sunrise);
+      boxes[SUNSET] = sunset == TIME_NULL ? null : Long.valueOf(sunset);
+
+      boxes[LATITUDE] = isPresent(LATITUDE) ? Double.valueOf(latitude) : null;
+      boxes[LONGITUDE] = isPresent(LONGITUDE) ? Double.valueOf(longitude) : null;
+
+      this.boxes = boxes;
+    }
+
+    return boxes;
+  }
+
+  /**
+   * Tells whether the value with the given index is present.
+   * 
+   * @param index
+   *          the index of the value (for example {@link #TEMPERATURE})
+   * 
+   * @return <code>true</code> if the value is present, <code>false</code> if
+   *         it is missing
+   */
+  boolean isPresent(final int index) {
+    return (present & (1 << index)) != 0;
+  }
+
+  int getPresentMask() {
+    return this.present;
+  }
+
+  int getIntegralMask() {
+    return this.integral;
+  }
+
+  int getFloatMask() {
+    return this.floats;
   }
 
   public long getTimestamp() {
@@ -108,6 +321,15 @@ public class JaTooWeatherCacheObject implements Serializable {
   }
 
   public Number getTemperature() {
+    return (Number) getBoxes()[TEMPERATURE];
+  }
+
+  /**
+   * Gets the temperature, without boxing.
+   * 
+   * @return the value, or {@link Double#NaN} if missing
+   */
+  public double getTemperatureValue() {
     return this.temperature;
   }
 
@@ -116,6 +338,15 @@ public class JaTooWeatherCacheObject implements Serializable {
   }
 
   public Number getHumidity() {
+    return (Number) getBoxes()[HUMIDITY];
+  }
+
+  /**
+   * Gets the humidity, without boxing.
+   * 
+   * @return the value, or {@link Double#NaN} if missing
+   */
+  public double getHumidityValue() {
     return this.humidity;
   }
 
@@ -124,6 +355,15 @@ public class JaTooWeatherCacheObject implements Serializable {
   }
 
   public Number getPressure() {
+    return (Number) getBoxes()[PRESSURE];
+  }
+
+  /**
+   * Gets the pressure, without boxing.
+   * 
+   * @return the value, or {@link Double#NaN} if missing
+   */
+  public double getPressureValue() {
     return this.pressure;
   }
 
@@ -132,6 +372,15 @@ public class JaTooWeatherCacheObject implements Serializable {
   }
 
   public Number getWind() {
+    return (Number) getBoxes()[WIND];
+  }
+
+  /**
+   * Gets the wind, without boxing.
+   * 
+   * @return the value, or {@link Double#NaN} if missing
+   */
+  public double getWindValue() {
     return this.wind;
   }
 
@@ -140,6 +389,15 @@ public class JaTooWeatherCacheObject implements Serializable {
   }
 
   public Number getWindDirection() {
+    return (Number) getBoxes()[WIND_DIRECTION];
+  }
+
+  /**
+   * Gets the wind direction, without boxing.
+   * 
+   * @return the value, or {@link Double#NaN} if missing
+   */
+  public double getWindDirectionValue() {
     return this.windDirection;
   }
 
@@ -148,6 +406,15 @@ public class JaTooWeatherCacheObject implements Serializable {
   }
 
   public Number getClouds() {
+    return (Number) getBoxes()[CLOUDS];
+  }
+
+  /**
+   * Gets the clouds, without boxing.
+   * 
+   * @return the value, or {@link Double#NaN} if missing
+   */
+  public double getCloudsValue() {
     return this.clouds;
   }
 
@@ -156,6 +423,15 @@ public class JaTooWeatherCacheObject implements Serializable {
   }
 
   public Number getRain() {
+    return (Number) getBoxes()[RAIN];
+  }
+
+  /**
+   * Gets the rain, without boxing.
+   * 
+   * @return the value, or {@link Double#NaN} if missing
+   */
+  public double getRainValue() {
     return this.rain;
   }
 
@@ -164,6 +440,15 @@ public class JaTooWeatherCacheObject implements Serializable {
   }
 
   public Number getSnow() {
+    return (Number) getBoxes()[SNOW];
+  }
+
+  /**
+   * Gets the snow, without boxing.
+   * 
+   * @return the value, or {@link Double#NaN} if missing
+   */
+  public double getSnowValue() {
     return this.snow;
   }
 
@@ -172,11 +457,70 @@ public class JaTooWeatherCacheObject implements Serializable {
   }
 
   public Long getSunrise() {
+    return (Long) getBoxes()[SUNRISE];
+  }
+
+  /**
+   * Gets the sunrise, without boxing.
+   * 
+   * @return the time, or {@link #TIME_NULL} if missing
+   */
+  public long getSunriseValue() {
     return this.sunrise;
   }
 
   public Long getSunset() {
+    return (Long) getBoxes()[SUNSET];
+  }
+
+  /**
+   * Gets the sunset, without boxing.
+   * 
+   * @return the time, or {@link #TIME_NULL} if missing
+   */
+  public long getSunsetValue() {
     return this.sunset;
   }
 
+  public ZoneId getZone() {
+    return this.zone;
+  }
+
+  public Double getLatitude() {
+    return (Double) getBoxes()[LATITUDE];
+  }
+
+  /**
+   * Gets the latitude, without boxing.
+   * 
+   * @return the latitude, or {@link Double#NaN} if missing
+   */
+  public double getLatitudeValue() {
+    return this.latitude;
+  }
+
+  public Double getLongitude() {
+    return (Double) getBoxes()[LONGITUDE];
+  }
+
+  /**
+   * Gets the longitude, without boxing.
+   * 
+   * @return the longitude, or {@link Double#NaN} if missing
+   */
+  public double getLongitudeValue() {
+    return this.longitude;
+  }
+
+  /**
+   * Gets the (adapted) expiration the object was cached with, kept with the
+   * object so it survives the reloads.
+   * 
+   * @return the expiration, in milliseconds, or 0 for the expiration of the
+   *         service
+   */
+  long getExpiration() {
+    return this.expiration;
+  }
+
 }
@@ -0,0 +1,69 @@
+/*
+ * Copyright (C) Cristian Sulea ( http://cristian.sulea.net )
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package jatoo.weather;
+
+import java.io.IOException;
+
+/**
+ * The SPI of a shared (second level) store of the cache, like a distributed
+ * cache or a shared directory, used by many nodes (processes) at once. The
+ * lookups go from the local cache to the shared store, and only then to the
+ * provider, so the weather fetched by one node serves all of them.
+ * <p>
+ * The implementations must be safe for concurrent use, and should fail fast
+ * (the failures are logged, and the lookups fall back to the provider).
+ * 
+ * @author <a href="http://cristian.sulea.net" rel="author">Cristian Sulea</a>
+ * @version 1.0, October 18, 2026
+ * 
+ * @see JaTooWeatherCache#setStore(JaTooWeatherCacheStore)
+ * @see JaTooWeatherCacheDirectoryStore
+ */
+public interface JaTooWeatherCacheStore {
+
+  /**
+   * Gets the object stored with the given key.
+   * 
+   * @param key
+   *          the key
+   * 
+   * @return the object, or <code>null</code> if not found (or expired)
+   * 
+   * @throws IOException
+   *           if the store could not be read
+   */
+  JaTooWeatherCacheObject get(String key) throws IOException;
+
+  /**
+   * Stores the given object, replacing the one with the same key (if any).
+   * 
+   * @param key
+   *          the key
+   * @param object
+   *          the object
+   * @param ttl
+   *          the time, in milliseconds, after which the object may be dropped
+   *          (0 or less to keep it as long as possible)
+   * 
+   * @throws IOException
+   *           if the store could not be written
+   */
+  void put(String key, JaTooWeatherCacheObject object, long ttl) throws IOException;
+
+}
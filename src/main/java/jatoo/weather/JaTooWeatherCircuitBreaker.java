@@ -0,0 +1,153 @@
+/*
+ * Copyright (C) Cristian Sulea ( http://cristian.sulea.net )
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package jatoo.weather;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The circuit breaker of a weather service, protecting the callers (and the
+ * provider) while the provider is down. After too many consecutive failures
+ * the circuit opens, and the fetches fail fast; after a while, a single trial
+ * fetch is let through (the circuit is half-open), closing the circuit if it
+ * succeeds, or opening it again if it fails.
+ * <p>
+ * The breaker is lock-free, the checks done before each fetch are just reads.
+ * 
+ * @author <a href="http://cristian.sulea.net" rel="author">Cristian Sulea</a>
+ * @version 1.0, October 18, 2026
+ * 
+ * @see JaTooWeatherService#getCircuitBreaker()
+ */
+public class JaTooWeatherCircuitBreaker {
+
+  public static enum STATE {
+    CLOSED,
+    OPEN,
+    HALF_OPEN
+  }
+
+  private volatile STATE state = STATE.CLOSED;
+
+  /** The number of consecutive failures (while closed). */
+  private final AtomicInteger failures = new AtomicInteger();
+
+  /** The time when the next trial fetch is let through (while open). */
+  private final AtomicLong nextTrial = new AtomicLong();
+
+  /** The number of consecutive failures opening the circuit. */
+  private volatile int failureThreshold = 5;
+
+  /** The time the circuit stays open before a trial. */
+  private volatile long openDuration = TimeUnit.SECONDS.toMillis(30);
+
+  /**
+   * Tells whether a fetch may go to the provider. While open, only one trial
+   * fetch is let through per open duration (so a trial that never ends does
+   * not keep the circuit open forever).
+   * 
+   * @return <code>true</code> if the fetch may go on, <code>false</code> if it
+   *         should fail fast
+   */
+  public boolean allowRequest() {
+
+    if (state == STATE.CLOSED) {
+      return true;
+    }
+
+    long now = System.currentTimeMillis();
+    long next = nextTrial.get();
+
+    if (now >= next && nextTrial.compareAndSet(next, now + openDuration)) {
+      state = STATE.HALF_OPEN;
+      return true;
+    }
+
+    return false;
+  }
+
+  /**
+   * Records a successful fetch, closing the circuit.
+   */
+  public void onSuccess() {
+
+    failures.set(0);
+
+    if (state != STATE.CLOSED) {
+      state = STATE.CLOSED;
+    }
+  }
+
+  /**
+   * Records a failed fetch, opening the circuit if the trial failed, or if
+   * there were too many consecutive failures.
+   */
+  public void onFailure() {
+
+    if (state != STATE.CLOSED || failures.incrementAndGet() >= failureThreshold) {
+      open();
+    }
+  }
+
+  private void open() {
+    nextTrial.set(System.currentTimeMillis() + openDuration);
+    state = STATE.OPEN;
+  }
+
+  /**
+   * Closes the circuit (forgetting the failures).
+   */
+  public void reset() {
+    onSuccess();
+  }
+
+  public STATE getState() {
+    return this.state;
+  }
+
+  /**
+   * Sets the number of consecutive failures opening the circuit.
+   * 
+   * @param failureThreshold
+   *          the number of failures
+   */
+  public void setFailureThreshold(final int failureThreshold) {
+    this.failureThreshold = failureThreshold;
+  }
+
+  public int getFailureThreshold() {
+    return this.failureThreshold;
+  }
+
+  /**
+   * Sets the time the circuit stays open before a trial fetch.
+   * 
+   * @param openDuration
+   *          the time, in milliseconds
+   */
+  public void setOpenDuration(final long openDuration) {
+    this.openDuration = openDuration;
+  }
+
+  public long getOpenDuration() {
+    return this.openDuration;
+  }
+
+}
@@ -0,0 +1,124 @@
+/*
+ * Copyright (C) Cristian Sulea ( http://cristian.sulea.net )
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package jatoo.weather;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Factory for the (daemon) executors used in the background by the weather
+ * services and the cache.
+ * 
+ * @author <a href="http://cristian.sulea.net" rel="author">Cristian Sulea</a>
+ * @version 1.0, October 18, 2026
+ */
+final class JaTooWeatherExecutors {
+
+  /** Utility class, no instances. */
+  private JaTooWeatherExecutors() {}
+
+  /**
+   * Creates a bounded executor: at most the given number of threads (which
+   * are discarded when idle) and at most the given number of queued tasks
+   * (more are rejected).
+   * 
+   * @param name
+   *          the name prefix of the threads
+   * @param threads
+   *          the maximum number of threads
+   * @param queueCapacity
+   *          the maximum number of queued tasks
+   * 
+   * @return the newly created executor
+   */
+  static ThreadPoolExecutor newBoundedExecutor(final String name, final int threads, final int queueCapacity) {
+
+    ThreadPoolExecutor executor = new ThreadPoolExecutor(threads, threads, 30, TimeUnit.SECONDS, new ArrayBlockingQueue<Runnable>(queueCapacity), newThreadFactory(name));
+    executor.allowCoreThreadTimeOut(true);
+
+    return executor;
+  }
+
+  /**
+   * Creates a serial executor: the tasks are run one at a time, in a single
+   * thread (which is discarded when idle), in the order they were submitted.
+   * 
+   * @param name
+   *          the name prefix of the thread
+   * 
+   * @return the newly created executor
+   */
+  static ThreadPoolExecutor newSerialExecutor(final String name) {
+
+    ThreadPoolExecutor executor = new ThreadPoolExecutor(1, 1, 30, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(), newThreadFactory(name));
+    executor.allowCoreThreadTimeOut(true);
+
+    return executor;
+  }
+
+  /**
+   * Creates an executor running each task in a new virtual thread, if the
+   * platform supports them (JDK 21+), or in a (cached) daemon thread
+   * otherwise.
+   * 
+   * @param name
+   *          the name prefix of the threads (if not virtual)
+   * 
+   * @return the newly created executor
+   */
+  static ExecutorService newTaskExecutor(final String name) {
+
+    try {
+      return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+    }
+
+    catch (ReflectiveOperationException | RuntimeException e) {
+      return Executors.newCachedThreadPool(newThreadFactory(name));
+    }
+  }
+
+  /**
+   * Creates a factory of daemon threads, named with the given prefix.
+   * 
+   * @param name
+   *          the name prefix of the threads
+   * 
+   * @return the newly created thread factory
+   */
+  static ThreadFactory newThreadFactory(final String name) {
+
+    final AtomicInteger counter = new AtomicInteger();
+
+    return new ThreadFactory() {
+      public Thread newThread(final Runnable runnable) {
+
+        Thread thread = new Thread(runnable, name + "-" + counter.incrementAndGet());
+        thread.setDaemon(true);
+
+        return thread;
+      }
+    };
+  }
+
+}
@@ -0,0 +1,174 @@
+/*
+ * Copyright (C) Cristian Sulea ( http://cristian.sulea.net )
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package jatoo.weather;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Function;
+
+/**
+ * An in-flight fetch, shared by all the callers waiting for the weather of the
+ * same city. The fetch is cancelled (and the thread running it interrupted)
+ * only when all its waiters are cancelled. The interrupted upstream call is not
+ * a failure of the provider (see {@link JaTooWeatherService#isCancellation}).
+ * 
+ * @author <a href="http://cristian.sulea.net" rel="author">Cristian Sulea</a>
+ * @version 1.0, October 18, 2026
+ */
+final class JaTooWeatherFetch extends CompletableFuture<JaTooWeatherCacheObject> {
+
+  /** The number of callers waiting for this fetch. */
+  private int waiters;
+
+  /** The thread running this fetch, if running. */
+  private Thread thread;
+
+  /**
+   * Registers a new waiter for this fetch.
+   * 
+   * @return <code>true</code> if the waiter was registered, <code>false</code>
+   *         if the fetch was already cancelled
+   */
+  synchronized boolean retain() {
+
+    if (isCancelled()) {
+      return false;
+    }
+
+    waiters++;
+
+    return true;
+  }
+
+  /**
+   * Unregisters a (cancelled) waiter, cancelling the fetch if it was the last
+   * one.
+   */
+  synchronized void release() {
+    if (--waiters == 0) {
+      cancel(true);
+    }
+  }
+
+  /**
+   * Creates a (cancellable) view of this fetch, for an already registered
+   * waiter.
+   * 
+   * @param mapper
+   *          the function creating the result of the waiter
+   * 
+   * @return the view
+   */
+  <T> CompletableFuture<T> newWaiter(final Function<JaTooWeatherCacheObject, T> mapper) {
+    return newWaiter(mapper, null);
+  }
+
+  /**
+   * Creates a (cancellable) view of this fetch, for an already registered
+   * waiter, completed with a fallback result if the fetch fails.
+   * 
+   * @param mapper
+   *          the function creating the result of the waiter
+   * @param fallback
+   *          the function creating the result of the waiter if the fetch
+   *          fails, or <code>null</code> to fail the waiter too
+   * 
+   * @return the view
+   */
+  <T> CompletableFuture<T> newWaiter(final Function<JaTooWeatherCacheObject, T> mapper, final Function<Throwable, T> fallback) {
+
+    final CompletableFuture<T> waiter = new CompletableFuture<>();
+
+    whenComplete((object, t) -> {
+
+      if (t != null && fallback != null && !isCancelled()) {
+
+        try {
+          waiter.complete(fallback.apply(t));
+        }
+
+        catch (Throwable e) {
+          waiter.completeExceptionally(e);
+        }
+      }
+
+      else if (t != null) {
+        waiter.completeExceptionally(t);
+      }
+
+      else {
+
+        try {
+          waiter.complete(mapper.apply(object));
+        }
+
+        catch (Throwable e) {
+          waiter.completeExceptionally(e);
+        }
+      }
+    });
+
+    waiter.whenComplete((result, t) -> {
+      if (waiter.isCancelled()) {
+        release();
+      }
+    });
+
+    return waiter;
+  }
+
+  /**
+   * Marks the beginning of the fetch, on the current thread.
+   * 
+   * @return <code>true</code> if the fetch should go on, <code>false</code> if
+   *         it was already cancelled
+   */
+  synchronized boolean start() {
+
+    if (isDone()) {
+      return false;
+    }
+
+    thread = Thread.currentThread();
+
+    return true;
+  }
+
+  /**
+   * Marks the end of the fetch.
+   */
+  synchronized void finish() {
+    thread = null;
+  }
+
+  @Override
+  public boolean cancel(final boolean mayInterruptIfRunning) {
+
+    boolean cancelled = super.cancel(mayInterruptIfRunning);
+
+    if (cancelled && mayInterruptIfRunning) {
+      synchronized (this) {
+        if (thread != null) {
+          thread.interrupt();
+        }
+      }
+    }
+
+    return cancelled;
+  }
+
+}
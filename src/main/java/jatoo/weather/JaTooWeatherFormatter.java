@@ -0,0 +1,511 @@
+/*
+ * Copyright (C) Cristian Sulea ( http://cristian.sulea.net )
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package jatoo.weather;
+
+import java.io.IOException;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Renders the weather as text, using the texts of a service resolved only
+ * once. The templates (like <code>"{temperature.full}, {humidity}"</code>) are
+ * compiled into a render plan that appends straight into a
+ * {@link StringBuilder} or an {@link Appendable}, so the rendering does not
+ * build keys or look up texts anymore.
+ * <p>
+ * A template is plain text with placeholders, one for every measurement:
+ * <code>{description}</code>, <code>{temperature}</code>,
+ * <code>{humidity}</code>, <code>{pressure}</code>, <code>{wind}</code>,
+ * <code>{windDirection}</code>, <code>{clouds}</code>, <code>{rain}</code>,
+ * <code>{snow}</code>, <code>{sunrise}</code> and <code>{sunset}</code>, plus
+ * <code>{city}</code>. The <code>.full</code> suffix (for all but
+ * <code>{description}</code> and <code>{city}</code>) prefixes the value with
+ * its label. Use <code>{{</code> for a literal <code>{</code>.
+ * <p>
+ * The sunrise and the sunset are rendered in the zone of the city
+ * ({@link JaTooWeather#zone}), or in the default zone if unknown, with
+ * {@link DateTimeFormatter}s shared by all the formatters (of the same
+ * language).
+ * 
+ * @author <a href="http://cristian.sulea.net" rel="author">Cristian Sulea</a>
+ * @version 1.0, October 18, 2026
+ * 
+ * @see JaTooWeatherService#getFormatter()
+ */
+public class JaTooWeatherFormatter {
+
+  static final int DESCRIPTION = 0;
+  static final int TEMPERATURE = 1;
+  static final int HUMIDITY = 2;
+  static final int PRESSURE = 3;
+  static final int WIND = 4;
+  static final int WIND_DIRECTION = 5;
+  static final int CLOUDS = 6;
+  static final int RAIN = 7;
+  static final int SNOW = 8;
+  static final int SUNRISE = 9;
+  static final int SUNSET = 10;
+  static final int CITY = 11;
+
+  /** The flag for the placeholders with label. */
+  static final int FULL = 0x100;
+
+  /** The number of compiled templates kept (the least recently used go). */
+  private static final int MAX_TEMPLATES = 64;
+
+  /** The names of the placeholders, by index. */
+  private static final String[] NAMES = { "description", "temperature", "humidity", "pressure", "wind", "windDirection", "clouds", "rain", "snow", "sunrise", "sunset", "city" };
+
+  /** The date time formatters, by language and pattern. */
+  private static final Map<String, DateTimeFormatter> DATE_TIME_FORMATTERS = new ConcurrentHashMap<>();
+
+  /** The buffers used to render into an {@link Appendable}. */
+  private static final ThreadLocal<StringBuilder> BUFFER = ThreadLocal.withInitial(StringBuilder::new);
+
+  private final String missingValueText;
+
+  /** The labels (followed by the value separator), by index. */
+  private final String[] labels = new String[NAMES.length];
+
+  /** The units (preceded by the unit separator), by index and ordinal. */
+  private final String[][] units = new String[NAMES.length][];
+
+  private final DateTimeFormatter sunriseFormatter;
+  private final DateTimeFormatter sunsetFormatter;
+
+  /**
+   * The (most recently used) compiled templates, bounded, since the ad-hoc
+   * templates given to {@link #format(JaTooWeather, String)} are compiled too.
+   */
+  private final Map<String, Template> templates = new LinkedHashMap<String, Template>(16, 0.75f, true) {
+
+    private static final long serialVersionUID = 1L;
+
+    @Override
+    protected boolean removeEldestEntry(final Map.Entry<String, Template> eldest) {
+      return size() > MAX_TEMPLATES;
+    }
+  };
+
+  /**
+   * Creates a formatter with the texts of the given service.
+   * 
+   * @param service
+   *          the service providing the texts
+   */
+  public JaTooWeatherFormatter(final JaTooWeatherService service) {
+
+    missingValueText = service.getText("jatoo.weather.missingValue");
+
+    String unitSeparatorText = service.getText("jatoo.weather.unitSeparator");
+    String valueSeparatorText = service.getText("jatoo.weather.valueSeparator");
+
+    for (int index = TEMPERATURE; index <= SUNSET; index++) {
+      labels[index] = service.getText("jatoo.weather." + NAMES[index] + ".text") + valueSeparatorText;
+    }
+
+    units[TEMPERATURE] = getUnitTexts(service, TEMPERATURE, unitSeparatorText, JaTooWeather.TEMPERATURE_UNIT.values());
+    units[HUMIDITY] = getUnitTexts(service, HUMIDITY, unitSeparatorText, JaTooWeather.HUMIDITY_UNIT.values());
+    units[PRESSURE] = getUnitTexts(service, PRESSURE, unitSeparatorText, JaTooWeather.PRESSURE_UNIT.values());
+    units[WIND] = getUnitTexts(service, WIND, unitSeparatorText, JaTooWeather.WIND_UNIT.values());
+    units[WIND_DIRECTION] = getUnitTexts(service, WIND_DIRECTION, unitSeparatorText, JaTooWeather.WIND_DIRECTION_UNIT.values());
+    units[CLOUDS] = getUnitTexts(service, CLOUDS, unitSeparatorText, JaTooWeather.CLOUDS_UNIT.values());
+
+    Locale locale = service.getLanguage() == null ? Locale.getDefault(Locale.Category.FORMAT) : new Locale(service.getLanguage());
+
+    sunriseFormatter = getDateTimeFormatter(service.getText("jatoo.weather.sunrise.pattern"), locale);
+    sunsetFormatter = getDateTimeFormatter(service.getText("jatoo.weather.sunset.pattern"), locale);
+  }
+
+  /**
+   * Gets the (shared) formatter for the given pattern and locale.
+   * 
+   * @param pattern
+   *          the pattern
+   * @param locale
+   *          the locale
+   * 
+   * @return the formatter
+   */
+  static DateTimeFormatter getDateTimeFormatter(final String pattern, final Locale locale) {
+    return DATE_TIME_FORMATTERS.computeIfAbsent(locale.toLanguageTag() + ' ' + pattern, key -> DateTimeFormatter.ofPattern(pattern, locale));
+  }
+
+  private static String[] getUnitTexts(final JaTooWeatherService service, final int index, final String unitSeparatorText, final Enum<?>[] units) {
+
+    String[] texts = new String[units.length];
+
+    for (Enum<?> unit : units) {
+      texts[unit.ordinal()] = unitSeparatorText + service.getText("jatoo.weather." + NAMES[index] + ".unit." + unit.name());
+    }
+
+    return texts;
+  }
+
+  /**
+   * Gets the name of the given placeholder, as written in the templates.
+   * 
+   * @param placeholder
+   *          the index, optionally with the {@link #FULL} flag
+   * 
+   * @return the name (like <code>"temperature.full"</code>)
+   */
+  static String getName(final int placeholder) {
+
+    String name = NAMES[placeholder & ~FULL];
+
+    if ((placeholder & FULL) != 0) {
+      return name + ".full";
+    }
+
+    return name;
+  }
+
+  /**
+   * Compiles the given template (the most recently used compiled templates are
+   * cached, so compiling the same template again is cheap).
+   * 
+   * @param template
+   *          the template
+   * 
+   * @return the compiled template
+   * 
+   * @throws IllegalArgumentException
+   *           if the template is not valid
+   */
+  public Template compile(final String template) {
+
+    Template compiled;
+
+    synchronized (templates) {
+      compiled = templates.get(template);
+    }
+
+    if (compiled == null) {
+
+      compiled = new Template(template);
+
+      synchronized (templates) {
+        templates.put(template, compiled);
+      }
+    }
+
+    return compiled;
+  }
+
+  /**
+   * Formats the weather using the given template.
+   * 
+   * @param weather
+   *          the weather
+   * @param template
+   *          the template
+   * 
+   * @return the text
+   */
+  public String format(final JaTooWeather weather, final String template) {
+    return compile(template).format(weather);
+  }
+
+  /**
+   * Formats a single measurement of the weather.
+   * 
+   * @param weather
+   *          the weather
+   * @param placeholder
+   *          the index of the measurement, optionally with the {@link #FULL}
+   *          flag
+   * 
+   * @return the text
+   */
+  String format(final JaTooWeather weather, final int placeholder) {
+
+    if (placeholder == DESCRIPTION && weather.description != null) {
+      return weather.description;
+    }
+
+    if (placeholder == CITY && weather.city != null) {
+      return weather.city;
+    }
+
+    return append(new StringBuilder(32), weather, placeholder).toString();
+  }
+
+  /**
+   * Appends a single measurement of the weather.
+   */
+  StringBuilder append(final StringBuilder builder, final JaTooWeather weather, final int placeholder) {
+
+    int index = placeholder & ~FULL;
+
+    if ((placeholder & FULL) != 0) {
+      builder.append(labels[index]);
+    }
+
+    switch (index) {
+
+      case DESCRIPTION:
+        return builder.append(weather.description != null ? weather.description : missingValueText);
+
+      case TEMPERATURE:
+        return appendValue(builder, weather.temperature, weather.temperatureUnit, units[TEMPERATURE]);
+
+      case HUMIDITY:
+        return appendValue(builder, weather.humidity, weather.humidityUnit, units[HUMIDITY]);
+
+      case PRESSURE:
+        return appendValue(builder, weather.pressure, weather.pressureUnit, units[PRESSURE]);
+
+      case WIND:
+        return appendValue(builder, weather.wind, weather.windUnit, units[WIND]);
+
+      case WIND_DIRECTION:
+        return appendValue(builder, weather.windDirection, weather.windDirectionUnit, units[WIND_DIRECTION]);
+
+      case CLOUDS:
+        return appendValue(builder, weather.clouds, weather.cloudsUnit, units[CLOUDS]);
+
+      case RAIN:
+        return appendValue(builder, weather.rain, null, null);
+
+      case SNOW:
+        return appendValue(builder, weather.snow, null, null);
+
+      case SUNRISE:
+        return appendTime(builder, weather.sunrise, weather.zone, sunriseFormatter);
+
+      case SUNSET:
+        return appendTime(builder, weather.sunset, weather.zone, sunsetFormatter);
+
+      case CITY:
+        return builder.append(weather.city != null ? weather.city : missingValueText);
+
+      default:
+        throw new IllegalArgumentException("unknown placeholder: " + placeholder);
+    }
+  }
+
+  private StringBuilder appendValue(final StringBuilder builder, final Number value, final Enum<?> unit, final String[] unitTexts) {
+
+    if (value == null) {
+      return builder.append(missingValueText);
+    }
+
+    if (value instanceof Integer || value instanceof Short || value instanceof Byte) {
+      builder.append(value.intValue());
+    }
+    else if (value instanceof Long) {
+      builder.append(value.longValue());
+    }
+    else if (value instanceof Double) {
+      builder.append(value.doubleValue());
+    }
+    else if (value instanceof Float) {
+      builder.append(value.floatValue());
+    }
+    else {
+      builder.append(value);
+    }
+
+    if (unit != null) {
+      builder.append(unitTexts[unit.ordinal()]);
+    }
+
+    return builder;
+  }
+
+  private StringBuilder appendTime(final StringBuilder builder, final Long time, final ZoneId zone, final DateTimeFormatter formatter) {
+
+    if (time == null) {
+      return builder.append(missingValueText);
+    }
+
+    formatter.formatTo(Instant.ofEpochMilli(time).atZone(zone != null ? zone : ZoneId.systemDefault()), builder);
+
+    return builder;
+  }
+
+  /**
+   * A compiled template: the literal texts, interleaved with the placeholders.
+   */
+  public final class Template {
+
+    private final String template;
+
+    /** The literal texts (one more than the placeholders). */
+    private final String[] texts;
+
+    /** The placeholders (indexes, optionally with the {@link #FULL} flag). */
+    private final int[] placeholders;
+
+    private Template(final String template) {
+
+      this.template = template;
+
+      List<String> texts = new ArrayList<>();
+      List<Integer> placeholders = new ArrayList<>();
+
+      StringBuilder text = new StringBuilder();
+
+      for (int i = 0; i < template.length(); i++) {
+
+        char c = template.charAt(i);
+
+        if (c != '{') {
+          text.append(c);
+        }
+
+        else if (i + 1 < template.length() && template.charAt(i + 1) == '{') {
+          text.append(c);
+          i++;
+        }
+
+        else {
+
+          int end = template.indexOf('}', i);
+
+          if (end == -1) {
+            throw new IllegalArgumentException("unclosed placeholder at " + i + ": " + template);
+          }
+
+          texts.add(text.toString());
+          placeholders.add(parsePlaceholder(template.substring(i + 1, end)));
+
+          text.setLength(0);
+          i = end;
+        }
+      }
+
+      texts.add(text.toString());
+
+      this.texts = texts.toArray(new String[texts.size()]);
+      this.placeholders = new int[placeholders.size()];
+
+      for (int i = 0; i < this.placeholders.length; i++) {
+        this.placeholders[i] = placeholders.get(i);
+      }
+    }
+
+    private int parsePlaceholder(final String placeholder) {
+
+      boolean full = placeholder.endsWith(".full");
+      String name = full ? placeholder.substring(0, placeholder.length() - 5) : placeholder;
+
+      for (int index = 0; index < NAMES.length; index++) {
+
+        if (NAMES[index].equals(name) && !(full && labels[index] == null)) {
+          return full ? index | FULL : index;
+        }
+      }
+
+      throw new IllegalArgumentException("unknown placeholder {" + placeholder + "}: " + template);
+    }
+
+    /**
+     * Appends the weather, rendered with this template, to the given builder.
+     * 
+     * @param weather
+     *          the weather
+     * @param builder
+     *          the builder
+     * 
+     * @return the builder
+     */
+    public StringBuilder format(final JaTooWeather weather, final StringBuilder builder) {
+
+      for (int i = 0; i < placeholders.length; i++) {
+        builder.append(texts[i]);
+        append(builder, weather, placeholders[i]);
+      }
+
+      return builder.append(texts[placeholders.length]);
+    }
+
+    /**
+     * Appends the weather, rendered with this template, to the given
+     * {@link Appendable} (like a {@link java.io.Writer}).
+     * 
+     * @param weather
+     *          the weather
+     * @param appendable
+     *          the appendable
+     * 
+     * @return the appendable
+     * 
+     * @throws IOException
+     *           if the appendable fails
+     */
+    public <A extends Appendable> A format(final JaTooWeather weather, final A appendable) throws IOException {
+
+      if (appendable instanceof StringBuilder) {
+        format(weather, (StringBuilder) appendable);
+      }
+
+      else {
+
+        StringBuilder builder = BUFFER.get();
+        builder.setLength(0);
+
+        appendable.append(format(weather, builder));
+      }
+
+      return appendable;
+    }
+
+    /**
+     * Renders the weather with this template.
+     * 
+     * @param weather
+     *          the weather
+     * 
+     * @return the text
+     */
+    public String format(final JaTooWeather weather) {
+      return format(weather, new StringBuilder(template.length() + 32 * placeholders.length)).toString();
+    }
+
+    /**
+     * Gets the formatter this template was compiled by.
+     */
+    JaTooWeatherFormatter getFormatter() {
+      return JaTooWeatherFormatter.this;
+    }
+
+    /**
+     * Gets the placeholders of this template (indexes, optionally with the
+     * {@link #FULL} flag), in order.
+     */
+    int[] getPlaceholders() {
+      return placeholders.clone();
+    }
+
+    @Override
+    public String toString() {
+      return this.template;
+    }
+  }
+
+}
@@ -0,0 +1,332 @@
+/*
+ * Copyright (C) Cristian Sulea ( http://cristian.sulea.net )
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package jatoo.weather;
+
+import java.lang.reflect.UndeclaredThrowableException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A weather service over several providers (other weather services), hedging
+ * the slow upstream calls: the weather is asked from the primary provider
+ * first, and if no answer arrives within an adaptive delay (the observed
+ * {@link #setHedgeDelayPercentile(double)} percentile of its latencies, the
+ * 95th by default), from the next provider too. The first weather fetched
+ * wins (and is cached by this service), the other calls are cancelled.
+ * <p>
+ * The hedges (the calls made while another is still running) are capped at a
+ * percentage of the requests, so the quota used stays bounded. A failed call
+ * is retried on the next provider right away, without counting as a hedge.
+ * <p>
+ * The calls go through the protections of the providers (the negative cache,
+ * the circuit breaker, the rate limiter) and are recorded in their metrics,
+ * but not through their caches.
+ * 
+ * @author <a href="http://cristian.sulea.net" rel="author">Cristian Sulea</a>
+ * @version 1.0, October 18, 2026
+ */
+public class JaTooWeatherHedgedService extends JaTooWeatherService {
+
+  /** The fewest latencies of a provider to trust its percentile. */
+  private static final int MIN_LATENCY_SAMPLES = 20;
+
+  /** The providers, the primary first. */
+  private final List<JaTooWeatherService> providers;
+
+  /** The percentile of the latencies of a provider to hedge it after. */
+  private volatile double hedgeDelayPercentile = 0.95;
+
+  /** The shortest delay before a hedge, also used until the latencies are known. */
+  private volatile long minimumHedgeDelay = 100;
+
+  /** The maximum ratio of the hedges to the requests. */
+  private volatile double maximumHedgeRatio = 0.1;
+
+  private final AtomicLong requests = new AtomicLong();
+  private final AtomicLong hedges = new AtomicLong();
+
+  /**
+   * The constructor.
+   * 
+   * @param language
+   *          the language for which texts are desired
+   * @param providers
+   *          the providers, the primary first
+   */
+  public JaTooWeatherHedgedService(final String language, final JaTooWeatherService... providers) {
+    super(language);
+
+    if (providers.length == 0) {
+      throw new IllegalArgumentException("no providers");
+    }
+
+    this.providers = Collections.unmodifiableList(new ArrayList<>(Arrays.asList(providers)));
+  }
+
+  /**
+   * The constructor.
+   * 
+   * @param providers
+   *          the providers, the primary first
+   */
+  public JaTooWeatherHedgedService(final JaTooWeatherService... providers) {
+    this(null, providers);
+  }
+
+  @Override
+  protected JaTooWeather getWeatherImpl(final String city) throws Throwable {
+    return hedge(provider -> provider.getWeatherDirect(city));
+  }
+
+  @Override
+  protected JaTooWeather getWeatherImpl(final double latitude, final double longitude) throws Throwable {
+    return hedge(provider -> provider.getWeatherDirect(latitude, longitude));
+  }
+
+  /**
+   * Tells whether any of the providers fetches the weather by coordinates (the
+   * others are skipped).
+   */
+  @Override
+  public boolean isCoordinatesSupported() {
+
+    for (JaTooWeatherService provider : providers) {
+      if (provider.isCoordinatesSupported()) {
+        return true;
+      }
+    }
+
+    return false;
+  }
+
+  /**
+   * Calls the providers, one after another, hedging the slow ones and retrying
+   * the failed ones.
+   * 
+   * @param call
+   *          the call of a provider
+   * 
+   * @return the first weather fetched, or <code>null</code> if none of the
+   *         providers fetched it (without failing)
+   * 
+   * @throws Throwable
+   *           the failure of the last provider, if all failed
+   */
+  private JaTooWeather hedge(final Call call) throws Throwable {
+
+    requests.incrementAndGet();
+
+    CompletionService<JaTooWeather> completion = new ExecutorCompletionService<>(getExecutor());
+    List<Future<JaTooWeather>> calls = new ArrayList<>(providers.size());
+
+    Throwable failure = null;
+    int running = 0;
+
+    try {
+
+      while (true) {
+
+        if (running == 0 && calls.size() == providers.size()) {
+          break;
+        }
+
+        Future<JaTooWeather> done;
+
+        // nothing running, or the running call is too slow
+        if (running == 0) {
+          done = null;
+        }
+
+        else if (calls.size() < providers.size()) {
+          done = completion.poll(getHedgeDelay(providers.get(calls.size() - 1)), TimeUnit.MILLISECONDS);
+        }
+
+        else {
+          done = completion.take();
+        }
+
+        if (done == null) {
+
+          if (running > 0 && !tryHedge()) {
+            done = completion.take();
+          }
+
+          else {
+            calls.add(completion.submit(newCallable(call, providers.get(calls.size()))));
+            running++;
+            continue;
+          }
+        }
+
+        running--;
+
+        try {
+
+          JaTooWeather weather = done.get();
+
+          if (weather != null) {
+            return weather;
+          }
+        }
+
+        catch (ExecutionException e) {
+          failure = e.getCause() instanceof UndeclaredThrowableException ? e.getCause().getCause() : e.getCause();
+        }
+      }
+    }
+
+    finally {
+      for (Future<JaTooWeather> future : calls) {
+        future.cancel(true);
+      }
+    }
+
+    if (failure != null) {
+      throw failure;
+    }
+
+    return null;
+  }
+
+  private static Callable<JaTooWeather> newCallable(final Call call, final JaTooWeatherService provider) {
+    return () -> {
+
+      try {
+        return call.call(provider);
+      }
+
+      catch (Exception | Error e) {
+        throw e;
+      }
+
+      catch (Throwable t) {
+        throw new UndeclaredThrowableException(t);
+      }
+    };
+  }
+
+  /**
+   * Takes a hedge from the budget, if any left.
+   */
+  private boolean tryHedge() {
+
+    while (true) {
+
+      long hedges = this.hedges.get();
+
+      if (hedges + 1 > maximumHedgeRatio * requests.get()) {
+        return false;
+      }
+
+      if (this.hedges.compareAndSet(hedges, hedges + 1)) {
+        return true;
+      }
+    }
+  }
+
+  /**
+   * Gets the delay after which the given provider is hedged.
+   * 
+   * @return the delay, in milliseconds
+   */
+  private long getHedgeDelay(final JaTooWeatherService provider) {
+
+    JaTooWeatherHistogram latency = provider.getMetrics().getUpstreamLatency();
+
+    if (latency.getCount() < MIN_LATENCY_SAMPLES) {
+      return minimumHedgeDelay;
+    }
+
+    return Math.max(minimumHedgeDelay, TimeUnit.NANOSECONDS.toMillis(latency.getPercentile(hedgeDelayPercentile)));
+  }
+
+  public List<JaTooWeatherService> getProviders() {
+    return this.providers;
+  }
+
+  /**
+   * Sets the percentile of the latencies of a provider after which it is
+   * hedged.
+   * 
+   * @param hedgeDelayPercentile
+   *          the percentile, between 0 and 1 (0.95 by default)
+   */
+  public void setHedgeDelayPercentile(final double hedgeDelayPercentile) {
+    this.hedgeDelayPercentile = hedgeDelayPercentile;
+  }
+
+  public double getHedgeDelayPercentile() {
+    return this.hedgeDelayPercentile;
+  }
+
+  /**
+   * Sets the shortest delay before a hedge, used also while the latencies of a
+   * provider are not known yet.
+   * 
+   * @param minimumHedgeDelay
+   *          the delay, in milliseconds (100 by default)
+   */
+  public void setMinimumHedgeDelay(final long minimumHedgeDelay) {
+    this.minimumHedgeDelay = minimumHedgeDelay;
+  }
+
+  public long getMinimumHedgeDelay() {
+    return this.minimumHedgeDelay;
+  }
+
+  /**
+   * Sets the maximum percentage of the requests that may be hedged.
+   * 
+   * @param maximumHedgeRatio
+   *          the ratio of the hedges to the requests, between 0 (no hedges)
+   *          and 1 (0.1 by default)
+   */
+  public void setMaximumHedgeRatio(final double maximumHedgeRatio) {
+    this.maximumHedgeRatio = maximumHedgeRatio;
+  }
+
+  public double getMaximumHedgeRatio() {
+    return this.maximumHedgeRatio;
+  }
+
+  public long getRequestCount() {
+    return requests.get();
+  }
+
+  public long getHedgeCount() {
+    return hedges.get();
+  }
+
+  /**
+   * A call of a provider.
+   */
+  private interface Call {
+    JaTooWeather call(JaTooWeatherService provider) throws Throwable;
+  }
+
+}
@@ -0,0 +1,162 @@
+/*
+ * Copyright (C) Cristian Sulea ( http://cristian.sulea.net )
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package jatoo.weather;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A lock-free histogram of durations (or any other non negative values). The
+ * values are counted in buckets growing exponentially, with 8 sub-buckets per
+ * power of two, so the percentiles are exact within 12.5%, whatever the range
+ * of the values, in constant memory.
+ * 
+ * @author <a href="http://cristian.sulea.net" rel="author">Cristian Sulea</a>
+ * @version 1.0, October 18, 2026
+ */
+public class JaTooWeatherHistogram {
+
+  /** The number of bits of the sub-buckets (per power of two). */
+  private static final int SUB_BUCKET_BITS = 3;
+
+  /** The number of sub-buckets (per power of two). */
+  private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+
+  /** The counts, by bucket. */
+  private final AtomicLongArray buckets = new AtomicLongArray((64 - SUB_BUCKET_BITS + 1) * SUB_BUCKETS);
+
+  private final LongAdder count = new LongAdder();
+  private final LongAdder sum = new LongAdder();
+  private final LongAccumulator max = new LongAccumulator(Math::max, 0);
+
+  /**
+   * Records a value.
+   * 
+   * @param value
+   *          the value (the negative ones are recorded as 0)
+   */
+  public void record(final long value) {
+
+    long v = Math.max(value, 0);
+
+    buckets.incrementAndGet(getIndex(v));
+
+    count.increment();
+    sum.add(v);
+    max.accumulate(v);
+  }
+
+  /**
+   * Gets the index of the bucket of the given value: the values below
+   * {@link #SUB_BUCKETS} have their own buckets, the others are split by their
+   * highest bit, and then by the next {@link #SUB_BUCKET_BITS} bits.
+   */
+  private static int getIndex(final long value) {
+
+    if (value < SUB_BUCKETS) {
+      return (int) value;
+    }
+
+    int exponent = 63 - Long.numberOfLeadingZeros(value);
+    int subBucket = (int) (value >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+
+    return (exponent - SUB_BUCKET_BITS + 1) * SUB_BUCKETS + subBucket;
+  }
+
+  /**
+   * Gets the highest value counted in the bucket with the given index.
+   */
+  private static long getHighestValue(final int index) {
+
+    if (index < SUB_BUCKETS) {
+      return index;
+    }
+
+    int shift = index / SUB_BUCKETS - 1;
+    long lowest = (long) (SUB_BUCKETS + index % SUB_BUCKETS) << shift;
+
+    return lowest + (1L << shift) - 1;
+  }
+
+  /**
+   * Gets the value below which the given fraction of the recorded values fall.
+   * 
+   * @param percentile
+   *          the percentile, between 0 and 1 (like 0.99)
+   * 
+   * @return the value (never above the maximum), or 0 if nothing was recorded
+   */
+  public long getPercentile(final double percentile) {
+
+    long[] counts = new long[buckets.length()];
+    long total = 0;
+
+    for (int i = 0; i < counts.length; i++) {
+      counts[i] = buckets.get(i);
+      total += counts[i];
+    }
+
+    if (total == 0) {
+      return 0;
+    }
+
+    long rank = Math.max(1, (long) Math.ceil(percentile * total));
+
+    for (int i = 0; i < counts.length; i++) {
+
+      rank -= counts[i];
+
+      if (rank <= 0) {
+        return Math.min(getHighestValue(i), getMax());
+      }
+    }
+
+    return getMax();
+  }
+
+  public long getCount() {
+    return count.sum();
+  }
+
+  public long getSum() {
+    return sum.sum();
+  }
+
+  public long getMax() {
+    return max.get();
+  }
+
+  /**
+   * Gets the mean of the recorded values.
+   * 
+   * @return the mean, or 0 if nothing was recorded
+   */
+  public double getMean() {
+
+    long n = count.sum();
+
+    if (n == 0) {
+      return 0;
+    }
+
+    return (double) sum.sum() / n;
+  }
+
+}
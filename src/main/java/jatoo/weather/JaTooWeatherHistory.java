@@ -0,0 +1,282 @@
+/*
+ * Copyright (C) Cristian Sulea ( http://cristian.sulea.net )
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package jatoo.weather;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The (in memory) history of the weather: a time series per city (and
+ * service), where every fetched weather is appended. The series are stored
+ * compressed (see {@link JaTooWeatherHistoryBlock}), so months of samples for
+ * thousands of cities take only a few bytes per sample.
+ * 
+ * @author <a href="http://cristian.sulea.net" rel="author">Cristian Sulea</a>
+ * @version 1.0, October 18, 2026
+ * 
+ * @see JaTooWeatherService#setHistory(JaTooWeatherHistory)
+ */
+public class JaTooWeatherHistory {
+
+  /** The interval between two purges of the expired samples. */
+  private static final long PURGE_INTERVAL = TimeUnit.HOURS.toMillis(1);
+
+  /** The (background) purges, of all the histories, one at a time. */
+  private static final ExecutorService PURGER = JaTooWeatherExecutors.newSerialExecutor("jatoo-weather-history-purge");
+
+  /** The series, by cache key. */
+  private final Map<String, Series> series = new ConcurrentHashMap<>();
+
+  /** The time the samples are kept for. */
+  private volatile long retention;
+
+  /** The time the last purge was started (in the background). */
+  private final AtomicLong lastPurge = new AtomicLong(System.currentTimeMillis());
+
+  /**
+   * Creates a history keeping the samples for the given time.
+   * 
+   * @param retention
+   *          the time the samples are kept for, in milliseconds
+   */
+  public JaTooWeatherHistory(final long retention) {
+    this.retention = retention;
+  }
+
+  /**
+   * Creates a history keeping the samples for 90 days.
+   */
+  public JaTooWeatherHistory() {
+    this(TimeUnit.DAYS.toMillis(90));
+  }
+
+  /**
+   * Appends a sample to the series with the given key. Once per purge
+   * interval, the expired samples (of all the series) are purged in the
+   * background.
+   * 
+   * @param key
+   *          the cache key
+   * @param object
+   *          the (fetched) weather
+   */
+  void add(final String key, final JaTooWeatherCacheObject object) {
+
+    double[] values = JaTooWeatherSample.getValues(object);
+
+    // the series may be removed (purged) before the sample is added to it
+    boolean added = false;
+
+    while (!added) {
+      added = series.computeIfAbsent(key, k -> new Series()).add(object.getTimestamp(), values, retention);
+    }
+
+    long now = System.currentTimeMillis();
+    long last = lastPurge.get();
+
+    if (now - last > PURGE_INTERVAL && lastPurge.compareAndSet(last, now)) {
+      PURGER.execute(this::purge);
+    }
+  }
+
+  /**
+   * Gets the samples (in the given time range) of the series with the given
+   * key.
+   * 
+   * @param key
+   *          the cache key
+   * @param from
+   *          the start of the range (inclusive), in milliseconds
+   * @param to
+   *          the end of the range (inclusive), in milliseconds
+   * 
+   * @return the samples, in the order they were added
+   */
+  List<JaTooWeatherSample> get(final String key, final long from, final long to) {
+
+    Series s = series.get(key);
+
+    if (s == null) {
+      return new ArrayList<>();
+    }
+
+    return s.get(from, to);
+  }
+
+  /**
+   * Removes the samples older than the retention time (of all the series).
+   */
+  public void purge() {
+
+    for (Map.Entry<String, Series> entry : series.entrySet()) {
+
+      Series s = entry.getValue();
+
+      // (locked, so no sample can be added between the check and the removal)
+      synchronized (s) {
+        if (s.purge(retention)) {
+          s.removed = true;
+          series.remove(entry.getKey(), s);
+        }
+      }
+    }
+  }
+
+  public void setRetention(final long retention) {
+    this.retention = retention;
+  }
+
+  public long getRetention() {
+    return this.retention;
+  }
+
+  /**
+   * Gets the number of samples in the history.
+   * 
+   * @return the number of samples
+   */
+  public long getSampleCount() {
+
+    long count = 0;
+
+    for (Series s : series.values()) {
+      count += s.getSampleCount();
+    }
+
+    return count;
+  }
+
+  /**
+   * Gets the (approximate) memory used by the samples in the history.
+   * 
+   * @return the size, in bytes
+   */
+  public long getByteSize() {
+
+    long size = 0;
+
+    for (Series s : series.values()) {
+      size += s.getByteSize();
+    }
+
+    return size;
+  }
+
+  /**
+   * A series: the full (closed) blocks, followed by the one being filled.
+   */
+  private static final class Series {
+
+    private final Deque<JaTooWeatherHistoryBlock> blocks = new ArrayDeque<>();
+
+    /** Whether the (empty) series was removed from the history. */
+    private boolean removed;
+
+    /**
+     * Appends a sample.
+     * 
+     * @return <code>true</code> if the sample was added, <code>false</code> if
+     *         the series was removed meanwhile (so it should be added to a new
+     *         one)
+     */
+    synchronized boolean add(final long timestamp, final double[] values, final long retention) {
+
+      if (removed) {
+        return false;
+      }
+
+      JaTooWeatherHistoryBlock block = blocks.peekLast();
+
+      if (block == null || block.isFull()) {
+
+        if (block != null) {
+          block.trim();
+        }
+
+        block = new JaTooWeatherHistoryBlock();
+        blocks.addLast(block);
+      }
+
+      block.add(timestamp, values);
+
+      purge(retention);
+
+      return true;
+    }
+
+    synchronized List<JaTooWeatherSample> get(final long from, final long to) {
+
+      List<JaTooWeatherSample> samples = new ArrayList<>();
+
+      for (JaTooWeatherHistoryBlock block : blocks) {
+        if (block.getLastTimestamp() >= from && block.getFirstTimestamp() <= to) {
+          block.decode(from, to, samples);
+        }
+      }
+
+      return samples;
+    }
+
+    /**
+     * Removes the blocks with all the samples older than the retention time.
+     * 
+     * @return <code>true</code> if the series is now empty
+     */
+    synchronized boolean purge(final long retention) {
+
+      long oldest = System.currentTimeMillis() - retention;
+
+      while (!blocks.isEmpty() && blocks.peekFirst().getLastTimestamp() < oldest) {
+        blocks.removeFirst();
+      }
+
+      return blocks.isEmpty();
+    }
+
+    synchronized long getSampleCount() {
+
+      long count = 0;
+
+      for (JaTooWeatherHistoryBlock block : blocks) {
+        count += block.getCount();
+      }
+
+      return count;
+    }
+
+    synchronized long getByteSize() {
+
+      long size = 0;
+
+      for (JaTooWeatherHistoryBlock block : blocks) {
+        size += block.getByteSize();
+      }
+
+      return size;
+    }
+  }
+
+}
@@ -0,0 +1,349 @@
+/*
+ * Copyright (C) Cristian Sulea ( http://cristian.sulea.net )
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package jatoo.weather;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * A compressed block of samples, in the style of Gorilla (the time series
+ * database of Facebook): the times are encoded as deltas of deltas and the
+ * values as XORs with the previous ones, so a regular series with slowly
+ * changing values takes only a few bytes per sample.
+ * 
+ * @author <a href="http://cristian.sulea.net" rel="author">Cristian Sulea</a>
+ * @version 1.0, October 18, 2026
+ */
+final class JaTooWeatherHistoryBlock {
+
+  /** The maximum number of samples of a block. */
+  static final int CAPACITY = 256;
+
+  /** The bits. */
+  private long[] bits = new long[16];
+
+  /** The number of written bits. */
+  private int length;
+
+  /** The number of samples. */
+  private int count;
+
+  /** The time of the first sample, in seconds. */
+  private long firstTime;
+
+  /** The time of the last sample, in seconds. */
+  private long lastTime;
+
+  /** The delta between the times of the last two samples, in seconds. */
+  private long lastDelta;
+
+  /** The last values (as bits). */
+  private final long[] lastValues = new long[JaTooWeatherSample.VALUES];
+
+  /** The leading zeros of the last XOR of each value. */
+  private final int[] lastLeadingZeros = new int[JaTooWeatherSample.VALUES];
+
+  /** The trailing zeros of the last XOR of each value. */
+  private final int[] lastTrailingZeros = new int[JaTooWeatherSample.VALUES];
+
+  boolean isFull() {
+    return count >= CAPACITY;
+  }
+
+  int getCount() {
+    return this.count;
+  }
+
+  long getFirstTimestamp() {
+    return firstTime * 1000;
+  }
+
+  long getLastTimestamp() {
+    return lastTime * 1000;
+  }
+
+  /**
+   * Gets the (approximate) size of the block.
+   * 
+   * @return the size, in bytes
+   */
+  int getByteSize() {
+    return bits.length * 8;
+  }
+
+  /**
+   * Appends a sample.
+   * 
+   * @param timestamp
+   *          the time, in milliseconds
+   * @param values
+   *          the values
+   */
+  void add(final long timestamp, final double[] values) {
+
+    long time = timestamp / 1000;
+
+    if (count == 0) {
+
+      firstTime = time;
+
+      for (int i = 0; i < values.length; i++) {
+        lastValues[i] = Double.doubleToLongBits(values[i]);
+        lastLeadingZeros[i] = -1;
+        write(lastValues[i], 64);
+      }
+    }
+
+    else {
+
+      long delta = time - lastTime;
+      writeDeltaOfDelta(delta - lastDelta);
+      lastDelta = delta;
+
+      for (int i = 0; i < values.length; i++) {
+        writeValue(i, Double.doubleToLongBits(values[i]));
+      }
+    }
+
+    lastTime = time;
+    count++;
+  }
+
+  /**
+   * Decodes the samples in the given time range.
+   * 
+   * @param from
+   *          the start of the range (inclusive), in milliseconds
+   * @param to
+   *          the end of the range (inclusive), in milliseconds
+   * @param samples
+   *          the list to add the samples to
+   */
+  void decode(final long from, final long to, final List<JaTooWeatherSample> samples) {
+
+    Reader reader = new Reader();
+
+    long time = 0;
+    long delta = 0;
+
+    long[] values = new long[JaTooWeatherSample.VALUES];
+    int[] leadingZeros = new int[JaTooWeatherSample.VALUES];
+    int[] trailingZeros = new int[JaTooWeatherSample.VALUES];
+
+    for (int n = 0; n < count; n++) {
+
+      if (n == 0) {
+
+        time = firstTime;
+
+        for (int i = 0; i < values.length; i++) {
+          values[i] = reader.read(64);
+        }
+      }
+
+      else {
+
+        delta += reader.readDeltaOfDelta();
+        time += delta;
+
+        for (int i = 0; i < values.length; i++) {
+
+          if (reader.read(1) == 1) {
+
+            if (reader.read(1) == 1) {
+              leadingZeros[i] = (int) reader.read(5);
+              trailingZeros[i] = 64 - leadingZeros[i] - ((int) reader.read(6) + 1);
+            }
+
+            values[i] ^= reader.read(64 - leadingZeros[i] - trailingZeros[i]) << trailingZeros[i];
+          }
+        }
+      }
+
+      long timestamp = time * 1000;
+
+      if (timestamp >= from && timestamp <= to) {
+
+        double[] sample = new double[values.length];
+
+        for (int i = 0; i < values.length; i++) {
+          sample[i] = Double.longBitsToDouble(values[i]);
+        }
+
+        samples.add(new JaTooWeatherSample(timestamp, sample));
+      }
+    }
+  }
+
+  /**
+   * Releases the unused capacity (of a full block).
+   */
+  void trim() {
+    bits = Arrays.copyOf(bits, (length + 63) >>> 6);
+  }
+
+  private void writeDeltaOfDelta(final long deltaOfDelta) {
+
+    if (deltaOfDelta == 0) {
+      write(0b0, 1);
+    }
+
+    else if (deltaOfDelta >= -64 && deltaOfDelta <= 63) {
+      write(0b10, 2);
+      write(deltaOfDelta, 7);
+    }
+
+    else if (deltaOfDelta >= -256 && deltaOfDelta <= 255) {
+      write(0b110, 3);
+      write(deltaOfDelta, 9);
+    }
+
+    else if (deltaOfDelta >= -2048 && deltaOfDelta <= 2047) {
+      write(0b1110, 4);
+      write(deltaOfDelta, 12);
+    }
+
+    else {
+      write(0b1111, 4);
+      write(deltaOfDelta, 64);
+    }
+  }
+
+  private void writeValue(final int index, final long value) {
+
+    long xor = value ^ lastValues[index];
+    lastValues[index] = value;
+
+    if (xor == 0) {
+      write(0b0, 1);
+      return;
+    }
+
+    int leadingZeros = Math.min(Long.numberOfLeadingZeros(xor), 31);
+    int trailingZeros = Long.numberOfTrailingZeros(xor);
+
+    if (lastLeadingZeros[index] >= 0 && leadingZeros >= lastLeadingZeros[index] && trailingZeros >= lastTrailingZeros[index]) {
+      write(0b10, 2);
+      write(xor >>> lastTrailingZeros[index], 64 - lastLeadingZeros[index] - lastTrailingZeros[index]);
+    }
+
+    else {
+
+      int significantBits = 64 - leadingZeros - trailingZeros;
+
+      write(0b11, 2);
+      write(leadingZeros, 5);
+      write(significantBits - 1, 6);
+      write(xor >>> trailingZeros, significantBits);
+
+      lastLeadingZeros[index] = leadingZeros;
+      lastTrailingZeros[index] = trailingZeros;
+    }
+  }
+
+  private void write(final long value, final int n) {
+
+    if (n == 0) {
+      return;
+    }
+
+    if (length + n > bits.length * 64) {
+      bits = Arrays.copyOf(bits, bits.length * 2);
+    }
+
+    long masked = value & mask(n);
+
+    int index = length >>> 6;
+    int free = 64 - (length & 63);
+
+    if (n <= free) {
+      bits[index] |= masked << (free - n);
+    }
+
+    else {
+      bits[index] |= masked >>> (n - free);
+      bits[index + 1] |= masked << (64 - (n - free));
+    }
+
+    length += n;
+  }
+
+  private static long mask(final int n) {
+    return n == 64 ? -1L : (1L << n) - 1;
+  }
+
+  /**
+   * Reader of the bits of the block.
+   */
+  private final class Reader {
+
+    private int position;
+
+    long read(final int n) {
+
+      if (n == 0) {
+        return 0;
+      }
+
+      int index = position >>> 6;
+      int free = 64 - (position & 63);
+
+      long value;
+
+      if (n <= free) {
+        value = (bits[index] >>> (free - n)) & mask(n);
+      }
+
+      else {
+        int rest = n - free;
+        value = ((bits[index] & mask(free)) << rest) | (bits[index + 1] >>> (64 - rest));
+      }
+
+      position += n;
+
+      return value;
+    }
+
+    long readSigned(final int n) {
+      return (read(n) << (64 - n)) >> (64 - n);
+    }
+
+    long readDeltaOfDelta() {
+
+      if (read(1) == 0) {
+        return 0;
+      }
+
+      if (read(1) == 0) {
+        return readSigned(7);
+      }
+
+      if (read(1) == 0) {
+        return readSigned(9);
+      }
+
+      if (read(1) == 0) {
+        return readSigned(12);
+      }
+
+      return read(64);
+    }
+  }
+
+}
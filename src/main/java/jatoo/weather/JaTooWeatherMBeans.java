@@ -0,0 +1,115 @@
+/*
+ * Copyright (C) Cristian Sulea ( http://cristian.sulea.net )
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package jatoo.weather;
+
+import java.lang.management.ManagementFactory;
+
+import javax.management.InstanceAlreadyExistsException;
+import javax.management.InstanceNotFoundException;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * Registers the metrics in the platform MBean server, under the
+ * <code>jatoo.weather</code> domain. The registration is explicit (see
+ * {@link JaTooWeatherService#setMBeanRegistered(boolean)}), so the short lived
+ * instances are neither registered nor leaked by the server.
+ * 
+ * @author <a href="http://cristian.sulea.net" rel="author">Cristian Sulea</a>
+ * @version 1.0, October 18, 2026
+ */
+final class JaTooWeatherMBeans {
+
+  /** The logger. */
+  private static final Log LOGGER = LogFactory.getLog(JaTooWeatherMBeans.class);
+
+  /** The domain of the MBeans. */
+  static final String DOMAIN = "jatoo.weather";
+
+  /**
+   * Registers the given MBean. If the name is taken (like by another instance
+   * of the same service), an <code>id</code> is added to it.
+   * 
+   * @param type
+   *          the type (like <code>"Service"</code>)
+   * @param name
+   *          the name, or <code>null</code> if there is only one MBean of the
+   *          given type
+   * @param mbean
+   *          the MBean
+   * 
+   * @return the name the MBean was registered with, or <code>null</code> if the
+   *         registration failed
+   */
+  static ObjectName register(final String type, final String name, final Object mbean) {
+
+    MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+
+    String base = DOMAIN + ":type=" + type + (name == null ? "" : ",name=" + ObjectName.quote(name));
+
+    try {
+
+      for (int id = 1;; id++) {
+
+        ObjectName objectName = new ObjectName(id == 1 ? base : base + ",id=" + id);
+
+        try {
+          return server.registerMBean(mbean, objectName).getObjectName();
+        }
+
+        catch (InstanceAlreadyExistsException e) {
+          // try the next id
+        }
+      }
+    }
+
+    catch (JMException | SecurityException e) {
+      LOGGER.warn("failed to register the MBean: " + base, e);
+      return null;
+    }
+  }
+
+  /**
+   * Unregisters the MBean with the given name, if still registered.
+   * 
+   * @param objectName
+   *          the name returned by {@link #register(String, String, Object)}
+   */
+  static void unregister(final ObjectName objectName) {
+
+    try {
+      ManagementFactory.getPlatformMBeanServer().unregisterMBean(objectName);
+    }
+
+    catch (InstanceNotFoundException e) {
+      // already unregistered
+    }
+
+    catch (JMException | SecurityException e) {
+      LOGGER.warn("failed to unregister the MBean: " + objectName, e);
+    }
+  }
+
+  private JaTooWeatherMBeans() {}
+
+}
@@ -0,0 +1,275 @@
+/*
+ * Copyright (C) Cristian Sulea ( http://cristian.sulea.net )
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package jatoo.weather;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * The budget of the upstream calls of a weather service: a token bucket
+ * allowing a number of calls per period, with bursts of up to a number of
+ * calls. The callers over budget wait in two queues, the interactive ones (the
+ * misses) having priority over the background ones (the refreshes).
+ * <p>
+ * The bucket is kept as the time when it will be full again (a single atomic
+ * value), so taking a permit is just a compare-and-set, without locks. The
+ * limiter is disabled (unlimited) until a rate is set.
+ * 
+ * @author <a href="http://cristian.sulea.net" rel="author">Cristian Sulea</a>
+ * @version 1.0, October 18, 2026
+ * 
+ * @see JaTooWeatherService#getRateLimiter()
+ */
+public class JaTooWeatherRateLimiter {
+
+  public static enum PRIORITY {
+    INTERACTIVE,
+    BACKGROUND
+  }
+
+  /** The shortest wait between two checks of a waiting caller. */
+  private static final long MIN_PARK = TimeUnit.MILLISECONDS.toNanos(1);
+
+  /** The time (nanoseconds) a permit takes to be refilled, 0 if unlimited. */
+  private volatile long interval = 0;
+
+  /** The number of permits that can be taken at once, from a full bucket. */
+  private volatile int burst = 1;
+
+  /** The time (see {@link System#nanoTime()}) when the bucket is full again. */
+  private final AtomicLong full = new AtomicLong(System.nanoTime());
+
+  private final AtomicInteger interactiveWaiters = new AtomicInteger();
+  private final AtomicInteger backgroundWaiters = new AtomicInteger();
+
+  /** The longest time a caller waits for a permit. */
+  private volatile long maxWait = TimeUnit.SECONDS.toMillis(10);
+
+  /**
+   * Takes the given number of permits, if available now, without waiting. The
+   * permits are taken all or none, so no request may exceed the burst.
+   * <p>
+   * The callers already waiting are not overtaken: the interactive callers
+   * only wait for the interactive ones, the background callers wait for all.
+   * 
+   * @param priority
+   *          the priority of the caller
+   * @param permits
+   *          the number of permits (upstream calls)
+   * 
+   * @return <code>true</code> if the permits were taken, <code>false</code> if
+   *         over budget
+   * 
+   * @throws IllegalArgumentException
+   *           if more permits than the burst are requested (while limited)
+   */
+  public boolean tryAcquire(final PRIORITY priority, final int permits) {
+
+    if (interval == 0) {
+      return true;
+    }
+
+    checkPermits(permits);
+
+    if (interactiveWaiters.get() > 0 || (priority == PRIORITY.BACKGROUND && backgroundWaiters.get() > 0)) {
+      return false;
+    }
+
+    return tryAcquire(permits);
+  }
+
+  private boolean tryAcquire(final int permits) {
+
+    while (true) {
+
+      long interval = this.interval;
+
+      if (interval == 0) {
+        return true;
+      }
+
+      long now = System.nanoTime();
+      long full = this.full.get();
+      long start = full - now > 0 ? full : now;
+
+      if (start - now > (burst - permits) * interval) {
+        return false;
+      }
+
+      if (this.full.compareAndSet(full, start + permits * interval)) {
+        return true;
+      }
+    }
+  }
+
+  /**
+   * Takes the given number of permits, waiting (at most the
+   * {@link #setMaxWait(long)} time) in the queue of the given priority if over
+   * budget.
+   * 
+   * @param priority
+   *          the priority of the caller
+   * @param permits
+   *          the number of permits (upstream calls)
+   * 
+   * @return <code>true</code> if the permits were taken, <code>false</code> if
+   *         the maximum wait elapsed first
+   * 
+   * @throws InterruptedException
+   *           if the waiting thread is interrupted
+   * @throws IllegalArgumentException
+   *           if more permits than the burst are requested (while limited)
+   */
+  public boolean acquire(final PRIORITY priority, final int permits) throws InterruptedException {
+
+    if (tryAcquire(priority, permits)) {
+      return true;
+    }
+
+    AtomicInteger waiters = priority == PRIORITY.INTERACTIVE ? interactiveWaiters : backgroundWaiters;
+    waiters.incrementAndGet();
+
+    try {
+
+      long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(maxWait);
+
+      while (true) {
+
+        if ((priority == PRIORITY.INTERACTIVE || interactiveWaiters.get() == 0) && tryAcquire(permits)) {
+          return true;
+        }
+
+        long remaining = deadline - System.nanoTime();
+
+        if (remaining <= 0) {
+          return false;
+        }
+
+        LockSupport.parkNanos(this, Math.min(Math.max(getDelay(permits), MIN_PARK), remaining));
+
+        if (Thread.interrupted()) {
+          throw new InterruptedException();
+        }
+      }
+    }
+
+    finally {
+      waiters.decrementAndGet();
+    }
+  }
+
+  private void checkPermits(final int permits) {
+
+    if (permits < 1 || permits > burst) {
+      throw new IllegalArgumentException("the permits must be between 1 and the burst (" + burst + "): " + permits);
+    }
+  }
+
+  /**
+   * Gets the time until the given number of permits is available.
+   * 
+   * @return the time, in nanoseconds, 0 if available now
+   */
+  private long getDelay(final int permits) {
+
+    long interval = this.interval;
+
+    if (interval == 0) {
+      return 0;
+    }
+
+    return Math.max(0, full.get() - System.nanoTime() - (burst - permits) * interval);
+  }
+
+  /**
+   * Sets the budget of the upstream calls.
+   * 
+   * @param permits
+   *          the number of calls allowed per period, or 0 (or less) for
+   *          unlimited calls
+   * @param period
+   *          the period
+   * @param unit
+   *          the unit of the period
+   */
+  public void setRate(final int permits, final long period, final TimeUnit unit) {
+    this.interval = permits > 0 ? Math.max(1, unit.toNanos(period) / permits) : 0;
+  }
+
+  /**
+   * Gets the budget of the upstream calls.
+   * 
+   * @return the number of calls allowed per minute, or 0 if unlimited
+   */
+  public double getRate() {
+
+    long interval = this.interval;
+
+    if (interval == 0) {
+      return 0;
+    }
+
+    return (double) TimeUnit.MINUTES.toNanos(1) / interval;
+  }
+
+  /**
+   * Sets the number of calls allowed at once, after a quiet period (the size of
+   * the bucket).
+   * 
+   * @param burst
+   *          the number of calls, 1 (the default) for evenly spaced calls
+   */
+  public void setBurst(final int burst) {
+
+    if (burst < 1) {
+      throw new IllegalArgumentException("the burst must be at least 1: " + burst);
+    }
+
+    this.burst = burst;
+  }
+
+  public int getBurst() {
+    return this.burst;
+  }
+
+  /**
+   * Sets the longest time a caller waits for a permit, before giving up.
+   * 
+   * @param maxWait
+   *          the time, in milliseconds
+   */
+  public void setMaxWait(final long maxWait) {
+    this.maxWait = maxWait;
+  }
+
+  public long getMaxWait() {
+    return this.maxWait;
+  }
+
+  public int getInteractiveWaiters() {
+    return interactiveWaiters.get();
+  }
+
+  public int getBackgroundWaiters() {
+    return backgroundWaiters.get();
+  }
+
+}
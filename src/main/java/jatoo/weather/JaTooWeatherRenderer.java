@@ -0,0 +1,317 @@
+/*
+ * Copyright (C) Cristian Sulea ( http://cristian.sulea.net )
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package jatoo.weather;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+
+/**
+ * Renders many weathers at once (like a page listing hundreds of cities),
+ * straight as UTF-8 bytes into a {@link ByteBuffer} or an {@link OutputStream}.
+ * The weathers are rendered with a compiled template (so with the texts of the
+ * service already resolved), into a reused buffer, without a {@link String}
+ * per weather or per value.
+ * <p>
+ * The renderers are immutable and can be shared by many threads.
+ * 
+ * @author <a href="http://cristian.sulea.net" rel="author">Cristian Sulea</a>
+ * @version 1.0, October 18, 2026
+ * 
+ * @see JaTooWeatherFormatter#compile(String)
+ */
+public class JaTooWeatherRenderer {
+
+  public static enum LAYOUT {
+
+    /** One line (the template) per weather. */
+    LINES,
+
+    /**
+     * A JSON array, with one object per weather, with the placeholders of the
+     * template as keys and the texts as values (the rest of the template is
+     * ignored).
+     */
+    JSON
+  }
+
+  /** The size of the chunks written to the streams. */
+  private static final int CHUNK_SIZE = 8192;
+
+  /** The (per thread) buffers where the weathers are rendered. */
+  private static final ThreadLocal<StringBuilder> TEXT_BUFFER = ThreadLocal.withInitial(() -> new StringBuilder(256));
+
+  /** The (per thread) buffers where the bytes are collected for the streams. */
+  private static final ThreadLocal<ByteBuffer> CHUNK_BUFFER = ThreadLocal.withInitial(() -> ByteBuffer.allocate(CHUNK_SIZE));
+
+  private final JaTooWeatherFormatter.Template template;
+  private final LAYOUT layout;
+
+  private final JaTooWeatherFormatter formatter;
+  private final int[] placeholders;
+
+  /** The JSON keys, quoted, followed by the colon and the opening quote. */
+  private final String[] keys;
+
+  /**
+   * Creates a renderer.
+   * 
+   * @param template
+   *          the (compiled) template
+   * @param layout
+   *          the layout
+   */
+  public JaTooWeatherRenderer(final JaTooWeatherFormatter.Template template, final LAYOUT layout) {
+
+    this.template = template;
+    this.layout = layout;
+
+    this.formatter = template.getFormatter();
+    this.placeholders = template.getPlaceholders();
+
+    this.keys = new String[placeholders.length];
+
+    for (int i = 0; i < placeholders.length; i++) {
+      keys[i] = (i == 0 ? "{\"" : ",\"") + JaTooWeatherFormatter.getName(placeholders[i]) + "\":\"";
+    }
+  }
+
+  /**
+   * Renders the given weathers into the given buffer. If the buffer gets full,
+   * a bigger one is allocated (and returned), so keep the returned buffer to
+   * reuse it.
+   * 
+   * @param weathers
+   *          the weathers (the <code>null</code>s are skipped)
+   * @param buffer
+   *          the buffer where to write (from its position)
+   * 
+   * @return the buffer where the weathers were written (the given one, or a
+   *         bigger copy of it), with the position after the last byte
+   */
+  public ByteBuffer render(final Iterable<? extends JaTooWeather> weathers, final ByteBuffer buffer) {
+
+    ByteBuffer target = buffer;
+    StringBuilder text = TEXT_BUFFER.get();
+
+    boolean first = true;
+
+    for (JaTooWeather weather : weathers) {
+
+      if (weather == null) {
+        continue;
+      }
+
+      text.setLength(0);
+      append(text, weather, first);
+      first = false;
+
+      for (int i = 0; (i = encode(text, i, target)) < text.length();) {
+        target = grow(target);
+      }
+    }
+
+    text.setLength(0);
+    appendEnd(text, first);
+
+    for (int i = 0; (i = encode(text, i, target)) < text.length();) {
+      target = grow(target);
+    }
+
+    return target;
+  }
+
+  /**
+   * Renders the given weathers into the given stream.
+   * 
+   * @param weathers
+   *          the weathers (the <code>null</code>s are skipped)
+   * @param out
+   *          the stream where to write (not flushed, nor closed)
+   * 
+   * @throws IOException
+   *           if the stream fails
+   */
+  public void render(final Iterable<? extends JaTooWeather> weathers, final OutputStream out) throws IOException {
+
+    ByteBuffer chunk = CHUNK_BUFFER.get();
+    StringBuilder text = TEXT_BUFFER.get();
+
+    chunk.clear();
+
+    boolean first = true;
+
+    try {
+
+      for (JaTooWeather weather : weathers) {
+
+        if (weather == null) {
+          continue;
+        }
+
+        text.setLength(0);
+        append(text, weather, first);
+        first = false;
+
+        for (int i = 0; (i = encode(text, i, chunk)) < text.length();) {
+          drain(chunk, out);
+        }
+      }
+
+      text.setLength(0);
+      appendEnd(text, first);
+
+      for (int i = 0; (i = encode(text, i, chunk)) < text.length();) {
+        drain(chunk, out);
+      }
+
+      drain(chunk, out);
+    }
+
+    finally {
+      chunk.clear();
+    }
+  }
+
+  private void append(final StringBuilder text, final JaTooWeather weather, final boolean first) {
+
+    switch (layout) {
+
+      case LINES:
+        template.format(weather, text).append('\n');
+        break;
+
+      case JSON:
+
+        text.append(first ? "[" : ",");
+
+        if (placeholders.length == 0) {
+          text.append("{");
+        }
+
+        for (int i = 0; i < placeholders.length; i++) {
+
+          text.append(keys[i]);
+
+          int start = text.length();
+          formatter.append(text, weather, placeholders[i]);
+          escape(text, start);
+
+          text.append('"');
+        }
+
+        text.append('}');
+        break;
+    }
+  }
+
+  private void appendEnd(final StringBuilder text, final boolean empty) {
+
+    if (layout == LAYOUT.JSON) {
+      text.append(empty ? "[]" : "]");
+    }
+  }
+
+  /**
+   * Escapes (for JSON) the text from the given index to the end.
+   */
+  private static void escape(final StringBuilder text, final int start) {
+
+    for (int i = start; i < text.length(); i++) {
+
+      char c = text.charAt(i);
+
+      if (c == '"' || c == '\\') {
+        text.insert(i++, '\\');
+      }
+
+      else if (c < 0x20) {
+        text.replace(i, i + 1, String.format("\\u%04x", (int) c));
+        i += 5;
+      }
+    }
+  }
+
+  /**
+   * Encodes (as UTF-8) the given text, from the given index, as long as there
+   * is room in the buffer.
+   * 
+   * @return the index of the first char not encoded (the length of the text,
+   *         if all were encoded)
+   */
+  private static int encode(final CharSequence text, final int from, final ByteBuffer buffer) {
+
+    int length = text.length();
+    int i = from;
+
+    while (i < length && buffer.remaining() >= 4) {
+
+      char c = text.charAt(i++);
+
+      if (c < 0x80) {
+        buffer.put((byte) c);
+      }
+
+      else if (c < 0x800) {
+        buffer.put((byte) (0xc0 | (c >> 6)));
+        buffer.put((byte) (0x80 | (c & 0x3f)));
+      }
+
+      else if (Character.isHighSurrogate(c) && i < length && Character.isLowSurrogate(text.charAt(i))) {
+
+        int codePoint = Character.toCodePoint(c, text.charAt(i++));
+
+        buffer.put((byte) (0xf0 | (codePoint >> 18)));
+        buffer.put((byte) (0x80 | ((codePoint >> 12) & 0x3f)));
+        buffer.put((byte) (0x80 | ((codePoint >> 6) & 0x3f)));
+        buffer.put((byte) (0x80 | (codePoint & 0x3f)));
+      }
+
+      else if (Character.isSurrogate(c)) {
+        buffer.put((byte) '?');
+      }
+
+      else {
+        buffer.put((byte) (0xe0 | (c >> 12)));
+        buffer.put((byte) (0x80 | ((c >> 6) & 0x3f)));
+        buffer.put((byte) (0x80 | (c & 0x3f)));
+      }
+    }
+
+    return i;
+  }
+
+  private static ByteBuffer grow(final ByteBuffer buffer) {
+
+    ByteBuffer bigger = buffer.isDirect() ? ByteBuffer.allocateDirect(Math.max(buffer.capacity() * 2, 64)) : ByteBuffer.allocate(Math.max(buffer.capacity() * 2, 64));
+
+    buffer.flip();
+    bigger.put(buffer);
+
+    return bigger;
+  }
+
+  private static void drain(final ByteBuffer chunk, final OutputStream out) throws IOException {
+
+    out.write(chunk.array(), chunk.arrayOffset(), chunk.position());
+
+    chunk.clear();
+  }
+
+}
@@ -0,0 +1,358 @@
+/*
+ * Copyright (C) Cristian Sulea ( http://cristian.sulea.net )
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package jatoo.weather;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * A weather service routing the misses over several providers (other weather
+ * services, like the same API with different keys): every miss goes to the
+ * currently best provider, by the (exponentially weighted) moving averages of
+ * its latency and of its error rate, and to the next best if that fails.
+ * <p>
+ * The weathers are cached under a namespace shared by the providers (not
+ * under the class of the provider that fetched them), so one fetch serves all
+ * the callers. To keep learning the scores of all the providers, a small
+ * ratio of the misses is sent to another provider than the best.
+ * 
+ * @author <a href="http://cristian.sulea.net" rel="author">Cristian Sulea</a>
+ * @version 1.0, October 18, 2026
+ */
+public class JaTooWeatherRoutingService extends JaTooWeatherService {
+
+  /** The default namespace of the keys in the cache, shared by all routings. */
+  public static final String CACHE_NAMESPACE = "jatoo.weather";
+
+  /** The routes, by provider (in the order of the providers). */
+  private final Map<JaTooWeatherService, Route> routes = new IdentityHashMap<>();
+  private final List<Route> routesList;
+
+  /** The weight of the last call in the moving averages. */
+  private volatile double smoothing = 0.2;
+
+  /** The ratio of the misses sent to another provider than the best. */
+  private volatile double explorationRatio = 0.05;
+
+  /** The time a failure costs (the failover), in milliseconds. */
+  private volatile double failurePenalty = 1000;
+
+  /**
+   * The constructor.
+   * 
+   * @param language
+   *          the language for which texts are desired
+   * @param providers
+   *          the providers
+   */
+  public JaTooWeatherRoutingService(final String language, final JaTooWeatherService... providers) {
+    super(language);
+
+    if (providers.length == 0) {
+      throw new IllegalArgumentException("no providers");
+    }
+
+    List<Route> routesList = new ArrayList<>();
+
+    for (JaTooWeatherService provider : providers) {
+
+      Route route = new Route(provider);
+
+      routes.put(provider, route);
+      routesList.add(route);
+    }
+
+    this.routesList = Collections.unmodifiableList(routesList);
+
+    setCacheNamespace(CACHE_NAMESPACE);
+  }
+
+  /**
+   * The constructor.
+   * 
+   * @param providers
+   *          the providers
+   */
+  public JaTooWeatherRoutingService(final JaTooWeatherService... providers) {
+    this(null, providers);
+  }
+
+  @Override
+  protected JaTooWeather getWeatherImpl(final String city) throws Throwable {
+
+    Throwable failure = null;
+
+    for (Route route : getRoutes()) {
+
+      long start = System.nanoTime();
+
+      try {
+
+        JaTooWeather weather = route.provider.getWeatherDirect(city);
+        route.record(start, false, smoothing);
+
+        return weather;
+      }
+
+      catch (JaTooWeatherUnavailableException e) {
+        failure = e;
+      }
+
+      catch (Throwable t) {
+        route.record(start, true, smoothing);
+        failure = t;
+      }
+    }
+
+    throw failure;
+  }
+
+  @Override
+  protected JaTooWeather getWeatherImpl(final double latitude, final double longitude) throws Throwable {
+
+    Throwable failure = null;
+
+    for (Route route : getRoutes()) {
+
+      long start = System.nanoTime();
+
+      try {
+
+        JaTooWeather weather = route.provider.getWeatherDirect(latitude, longitude);
+
+        // not supported by this provider
+        if (weather == null) {
+          continue;
+        }
+
+        route.record(start, false, smoothing);
+
+        return weather;
+      }
+
+      catch (JaTooWeatherUnavailableException e) {
+        failure = e;
+      }
+
+      catch (Throwable t) {
+        route.record(start, true, smoothing);
+        failure = t;
+      }
+    }
+
+    if (failure != null) {
+      throw failure;
+    }
+
+    return null;
+  }
+
+  /**
+   * Tells whether any of the providers fetches the weather by coordinates (the
+   * others are skipped).
+   */
+  @Override
+  public boolean isCoordinatesSupported() {
+
+    for (Route route : routesList) {
+      if (route.provider.isCoordinatesSupported()) {
+        return true;
+      }
+    }
+
+    return false;
+  }
+
+  /**
+   * Gets the routes in the order they should be tried: the best first (or,
+   * sometimes, another one), then the others, by score.
+   */
+  private List<Route> getRoutes() {
+
+    List<Route> sorted = new ArrayList<>(routesList);
+    sorted.sort((route1, route2) -> Double.compare(route1.getScore(failurePenalty), route2.getScore(failurePenalty)));
+
+    if (sorted.size() > 1 && ThreadLocalRandom.current().nextDouble() < explorationRatio) {
+      Collections.swap(sorted, 0, 1 + ThreadLocalRandom.current().nextInt(sorted.size() - 1));
+    }
+
+    return sorted;
+  }
+
+  public List<JaTooWeatherService> getProviders() {
+    List<JaTooWeatherService> providers = new ArrayList<>();
+
+    for (Route route : routesList) {
+      providers.add(route.provider);
+    }
+
+    return providers;
+  }
+
+  /**
+   * Gets the score of the given provider: the expected time (in milliseconds)
+   * to get the weather from it, the average latency plus the penalty of the
+   * failures, inflated by the error rate (and infinite while its circuit is
+   * open). The lower the better.
+   * 
+   * @param provider
+   *          the provider
+   * 
+   * @return the score
+   */
+  public double getScore(final JaTooWeatherService provider) {
+    return getRoute(provider).getScore(failurePenalty);
+  }
+
+  /**
+   * Gets the moving average of the latency of the given provider.
+   * 
+   * @param provider
+   *          the provider
+   * 
+   * @return the latency, in milliseconds
+   */
+  public double getLatency(final JaTooWeatherService provider) {
+    return getRoute(provider).latency;
+  }
+
+  /**
+   * Gets the moving average of the error rate of the given provider.
+   * 
+   * @param provider
+   *          the provider
+   * 
+   * @return the error rate, between 0 and 1
+   */
+  public double getErrorRate(final JaTooWeatherService provider) {
+    return getRoute(provider).errorRate;
+  }
+
+  private Route getRoute(final JaTooWeatherService provider) {
+
+    Route route = routes.get(provider);
+
+    if (route == null) {
+      throw new IllegalArgumentException("unknown provider: " + provider);
+    }
+
+    return route;
+  }
+
+  /**
+   * Sets the weight of the last call in the moving averages of the latencies
+   * and of the error rates: the higher, the faster the routing reacts.
+   * 
+   * @param smoothing
+   *          the weight, between 0 and 1 (0.2 by default)
+   */
+  public void setSmoothing(final double smoothing) {
+    this.smoothing = smoothing;
+  }
+
+  public double getSmoothing() {
+    return this.smoothing;
+  }
+
+  /**
+   * Sets the ratio of the misses sent to another provider than the best, to
+   * keep the scores of the others up to date.
+   * 
+   * @param explorationRatio
+   *          the ratio, between 0 and 1 (0.05 by default)
+   */
+  public void setExplorationRatio(final double explorationRatio) {
+    this.explorationRatio = explorationRatio;
+  }
+
+  public double getExplorationRatio() {
+    return this.explorationRatio;
+  }
+
+  /**
+   * Sets the time a failure costs (the failover to the next provider), added
+   * to the latency in the score, so the providers failing fast are not
+   * preferred.
+   * 
+   * @param failurePenalty
+   *          the time, in milliseconds (1000 by default)
+   */
+  public void setFailurePenalty(final double failurePenalty) {
+    this.failurePenalty = failurePenalty;
+  }
+
+  public double getFailurePenalty() {
+    return this.failurePenalty;
+  }
+
+  /**
+   * The route to a provider, with its moving averages.
+   */
+  private static final class Route {
+
+    private final JaTooWeatherService provider;
+
+    /** The moving average of the latency, in milliseconds. */
+    private volatile double latency;
+
+    /** The moving average of the error rate. */
+    private volatile double errorRate;
+
+    /** Whether any call was recorded yet. */
+    private boolean recorded;
+
+    private Route(final JaTooWeatherService provider) {
+      this.provider = provider;
+    }
+
+    private synchronized void record(final long start, final boolean failed, final double smoothing) {
+
+      double latency = JaTooWeatherServiceMetrics.toMillis(System.nanoTime() - start);
+      double error = failed ? 1 : 0;
+
+      if (recorded) {
+        this.latency += smoothing * (latency - this.latency);
+        this.errorRate += smoothing * (error - this.errorRate);
+      }
+
+      else {
+        this.latency = latency;
+        this.errorRate = error;
+        this.recorded = true;
+      }
+    }
+
+    private double getScore(final double failurePenalty) {
+
+      if (provider.getCircuitBreaker().getState() == JaTooWeatherCircuitBreaker.STATE.OPEN) {
+        return Double.POSITIVE_INFINITY;
+      }
+
+      double errorRate = this.errorRate;
+
+      // the expected time, if the failed calls were retried on the same route
+      return (latency + errorRate * failurePenalty) / Math.max(1 - errorRate, 0.01);
+    }
+  }
+
+}
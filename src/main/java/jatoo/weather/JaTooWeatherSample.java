@@ -0,0 +1,108 @@
+/*
+ * Copyright (C) Cristian Sulea ( http://cristian.sulea.net )
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package jatoo.weather;
+
+/**
+ * A sample of the weather history: the time and the values (but not the
+ * units, nor the texts) of an observation.
+ * 
+ * @author <a href="http://cristian.sulea.net" rel="author">Cristian Sulea</a>
+ * @version 1.0, October 18, 2026
+ * 
+ * @see JaTooWeatherHistory
+ */
+public class JaTooWeatherSample {
+
+  /** The number of values of a sample. */
+  static final int VALUES = 8;
+
+  private final long timestamp;
+  private final double[] values;
+
+  JaTooWeatherSample(final long timestamp, final double[] values) {
+    this.timestamp = timestamp;
+    this.values = values;
+  }
+
+  /**
+   * Gets the values of the given object, in the order of a sample.
+   * 
+   * @param object
+   *          the (cached) weather
+   * 
+   * @return the values ({@link Double#NaN} for the missing ones)
+   */
+  static double[] getValues(final JaTooWeatherCacheObject object) {
+
+    double[] values = new double[VALUES];
+
+    values[JaTooWeatherCacheObject.TEMPERATURE] = object.getTemperatureValue();
+    values[JaTooWeatherCacheObject.HUMIDITY] = object.getHumidityValue();
+    values[JaTooWeatherCacheObject.PRESSURE] = object.getPressureValue();
+    values[JaTooWeatherCacheObject.WIND] = object.getWindValue();
+    values[JaTooWeatherCacheObject.WIND_DIRECTION] = object.getWindDirectionValue();
+    values[JaTooWeatherCacheObject.CLOUDS] = object.getCloudsValue();
+    values[JaTooWeatherCacheObject.RAIN] = object.getRainValue();
+    values[JaTooWeatherCacheObject.SNOW] = object.getSnowValue();
+
+    return values;
+  }
+
+  /**
+   * Gets the time of the observation (with a precision of one second).
+   * 
+   * @return the time, in milliseconds
+   */
+  public long getTimestamp() {
+    return this.timestamp;
+  }
+
+  public double getTemperature() {
+    return this.values[JaTooWeatherCacheObject.TEMPERATURE];
+  }
+
+  public double getHumidity() {
+    return this.values[JaTooWeatherCacheObject.HUMIDITY];
+  }
+
+  public double getPressure() {
+    return this.values[JaTooWeatherCacheObject.PRESSURE];
+  }
+
+  public double getWind() {
+    return this.values[JaTooWeatherCacheObject.WIND];
+  }
+
+  public double getWindDirection() {
+    return this.values[JaTooWeatherCacheObject.WIND_DIRECTION];
+  }
+
+  public double getClouds() {
+    return this.values[JaTooWeatherCacheObject.CLOUDS];
+  }
+
+  public double getRain() {
+    return this.values[JaTooWeatherCacheObject.RAIN];
+  }
+
+  public double getSnow() {
+    return this.values[JaTooWeatherCacheObject.SNOW];
+  }
+
+}
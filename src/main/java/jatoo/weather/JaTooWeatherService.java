@@ -17,12 +17,39 @@
 
 package jatoo.weather;
 
+import java.io.InterruptedIOException;
+import java.lang.ref.WeakReference;
+import java.nio.channels.ClosedByInterruptException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
 
+import javax.management.ObjectName;
+
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 
 import jatoo.resources.ResourcesTexts;
+import jatoo.weather.JaTooWeatherRateLimiter.PRIORITY;
 
 /**
  * The base of a weather service, implementing the core functionality and also a
@@ -36,15 +63,132 @@ public abstract class JaTooWeatherService {
   /** The logger. */
   private static final Log LOGGER = LogFactory.getLog(JaTooWeatherService.class);
 
-  /** The expiration threshold for the cache objects. */
+  /** The size of the negative cache above which the old failures are purged. */
+  private static final int NEGATIVE_CACHE_PURGE_THRESHOLD = 1024;
+
+  /** The default expiration threshold for the cache objects. */
   private static final long CACHE_EXPIRATION_THRESHOLD = TimeUnit.MINUTES.toMillis(5);
 
   /** The cache. */
   private static final JaTooWeatherCache CACHE = JaTooWeatherCache.getInstance();
 
+  /** The in-flight fetches, by cache key, shared by concurrent misses. */
+  private static final ConcurrentMap<String, JaTooWeatherFetch> FETCHES = new ConcurrentHashMap<>();
+
+  /**
+   * The default executor for the asynchronous fetches (virtual threads, if
+   * supported).
+   */
+  private static final Executor DEFAULT_EXECUTOR = JaTooWeatherExecutors.newTaskExecutor("jatoo-weather-async");
+
+  /** The (bounded) executor for the background refreshes of stale objects. */
+  private static final Executor REFRESH_EXECUTOR = JaTooWeatherExecutors.newBoundedExecutor("jatoo-weather-refresh", 4, 1024);
+
+  /** The scheduler of the refreshes ahead of the expiration (of hot cities). */
+  private static final ScheduledExecutorService REFRESH_AHEAD_SCHEDULER = new ScheduledThreadPoolExecutor(1, JaTooWeatherExecutors.newThreadFactory("jatoo-weather-refresh-ahead"));
+
+  /** The interval between the checks of the hot cities. */
+  private static final long REFRESH_AHEAD_INTERVAL = TimeUnit.SECONDS.toMillis(10);
+
+  /** The time after which the cached objects expire. */
+  private volatile long expiration = CACHE_EXPIRATION_THRESHOLD;
+
+  /** The expirations of the cities with their own expiration. */
+  private final Map<String, Long> cityExpirations = new ConcurrentHashMap<>();
+
+  /** Whether the expirations adapt to how fast the weather changes. */
+  private volatile boolean adaptiveExpiration = false;
+
+  /** The shortest adaptive expiration. */
+  private volatile long adaptiveExpirationMinimum = TimeUnit.MINUTES.toMillis(1);
+
+  /** The longest adaptive expiration. */
+  private volatile long adaptiveExpirationMaximum = TimeUnit.HOURS.toMillis(1);
+
+  /** The temperature change above which the weather is considered changed. */
+  private volatile double adaptiveExpirationThreshold = 0.5;
+
+  /**
+   * Whether expired objects are returned immediately (while a refresh is done in
+   * the background) or callers block until the fresh weather is fetched.
+   */
+  private volatile boolean staleWhileRevalidate = false;
+
+  /** The number of hot cities refreshed ahead (0 for none). */
+  private volatile int refreshAheadCount = 0;
+
+  /** The time before the expiration when the hot cities are refreshed. */
+  private volatile long refreshAheadTime = TimeUnit.SECONDS.toMillis(30);
+
+  /** The periodic check of the hot cities. */
+  private ScheduledFuture<?> refreshAhead;
+
+  /**
+   * The hot cities (as of the last check), always served from the cache, even
+   * if expired, while refreshed.
+   */
+  private volatile Set<String> hotCities = Collections.emptySet();
+
+  /**
+   * The age beyond which the expired objects are not served anymore, not even
+   * in {@link #staleWhileRevalidate} mode.
+   */
+  private volatile long staleThreshold = TimeUnit.HOURS.toMillis(1);
+
+  /** The executor for the asynchronous fetches. */
+  private volatile Executor executor = DEFAULT_EXECUTOR;
+
+  /** The history where the fetched weathers are appended (if any). */
+  private volatile JaTooWeatherHistory history;
+
+  /** The language of the texts (<code>null</code> for the default one). */
+  private final String language;
+
   /** The texts resources. */
   private final ResourcesTexts texts;
 
+  /** The time after which the failures are forgotten (0 to not remember). */
+  private volatile long negativeExpiration = TimeUnit.SECONDS.toMillis(30);
+
+  /** The times of the last failures, by city (the negative cache). */
+  private final Map<String, Long> failures = new ConcurrentHashMap<>();
+
+  /** The circuit breaker, protecting the callers while the provider is down. */
+  private final JaTooWeatherCircuitBreaker circuitBreaker = new JaTooWeatherCircuitBreaker();
+
+  /** The budget of the upstream calls (unlimited by default). */
+  private final JaTooWeatherRateLimiter rateLimiter = new JaTooWeatherRateLimiter();
+
+  /**
+   * Whether the last known (even expired) weather is returned when the fetch
+   * fails, or <code>null</code>.
+   */
+  private volatile boolean serveLastKnownGood = false;
+
+  /** Whether {@link #getWeatherImpl(double, double)} is implemented. */
+  private final boolean coordinatesSupported = isImplemented(getClass(), "getWeatherImpl", double.class, double.class);
+
+  /**
+   * Whether {@link #getWeatherImplBatch(Collection)} is implemented (with a
+   * single upstream call), or the default fan-out is used.
+   */
+  private final boolean batchSupported = isImplemented(getClass(), "getWeatherImplBatch", Collection.class);
+
+  /**
+   * The namespace of the keys of this service in the cache (<code>null</code>
+   * for the name of the class).
+   */
+  private volatile String cacheNamespace;
+
+  /** The metrics (registered as MBean on demand). */
+  private final JaTooWeatherServiceMetrics metrics = new JaTooWeatherServiceMetrics();
+
+  /** The name of the MBean of the metrics, if registered. */
+  private ObjectName objectName;
+
+  /** The formatter, with the texts already resolved (created lazily). */
+  private volatile JaTooWeatherFormatter formatter;
+
   /**
    * The constructor.
    * 
@@ -52,7 +196,8 @@ public abstract class JaTooWeatherService {
    *          the language for which texts are desired
    */
   public JaTooWeatherService(final String language) {
-    texts = new ResourcesTexts(getClass(), JaTooWeatherService.class, language);
+    this.language = language;
+    this.texts = new ResourcesTexts(getClass(), JaTooWeatherService.class, language);
   }
 
   /**
@@ -69,7 +214,8 @@ public abstract class JaTooWeatherService {
     if (!useCache) {
 
       try {
-        weather = getWeatherImpl(city);
+        waitForPermits(PRIORITY.INTERACTIVE, 1);
+        weather = getWeatherUpstream(city);
         weather.timestamp = System.currentTimeMillis();
       }
 
@@ -81,25 +227,33 @@ public abstract class JaTooWeatherService {
 
     else {
 
-      synchronized (CACHE) {
+      JaTooWeatherCacheEntry entry = CACHE.getEntry(this, city);
+
+      if (entry != null && !isExpired(city, entry)) {
+        metrics.hit();
+        weather = new JaTooWeather(this, entry.getObject());
+      }
 
-        weather = CACHE.get(this, city);
+      else if (entry != null && isServedStale(city, entry)) {
+        metrics.stale();
+        weather = new JaTooWeather(this, entry.getObject());
+        refresh(city);
+      }
 
-        if (weather == null || (System.currentTimeMillis() - weather.timestamp) > CACHE_EXPIRATION_THRESHOLD) {
+      else {
 
-          try {
+        metrics.miss();
 
-            weather = getWeatherImpl(city);
-            weather.timestamp = System.currentTimeMillis();
+        try {
+          weather = new JaTooWeather(this, join(fetch(city, null, PRIORITY.INTERACTIVE, 0)));
+        }
 
-            CACHE.add(this, city, weather);
-            CACHE.save();
-          }
+        catch (CompletionException e) {
+          weather = getLastKnownGood(city, e.getCause());
+        }
 
-          catch (Throwable t) {
-            weather = null;
-            LOGGER.error("failed to get the weather", t);
-          }
+        catch (CancellationException e) {
+          weather = getLastKnownGood(city, e);
         }
       }
     }
@@ -111,37 +265,1735 @@ public abstract class JaTooWeatherService {
     return getWeather(city, true);
   }
 
+  /**
+   * Gets (asynchronously) the weather for the given city. The lookup goes
+   * through the same cache as {@link #getWeather(String)}, and the misses are
+   * shared with the concurrent (synchronous or asynchronous) misses for the
+   * same city.
+   * <p>
+   * Cancelling the returned future does not affect the other callers waiting
+   * for the same city; the fetch itself is cancelled (interrupted) only if all
+   * of them cancel.
+   * 
+   * @param city
+   *          the city
+   * 
+   * @return the future of the weather, completed immediately if found in the
+   *         cache
+   * 
+   * @see #setExecutor(Executor)
+   */
+  public final CompletableFuture<JaTooWeather> getWeatherAsync(final String city) {
+
+    JaTooWeatherCacheEntry entry = CACHE.getEntry(this, city);
+
+    if (entry != null && !isExpired(city, entry)) {
+      metrics.hit();
+      return CompletableFuture.completedFuture(new JaTooWeather(this, entry.getObject()));
+    }
+
+    if (entry != null && isServedStale(city, entry)) {
+      metrics.stale();
+      refresh(city);
+      return CompletableFuture.completedFuture(new JaTooWeather(this, entry.getObject()));
+    }
+
+    metrics.miss();
+
+    return fetch(city, executor, PRIORITY.INTERACTIVE, 0).newWaiter(fetched -> new JaTooWeather(this, fetched), t -> {
+
+      JaTooWeather weather = getLastKnownGood(city, t);
+
+      if (weather == null) {
+        throw new CompletionException(t);
+      }
+
+      return weather;
+    });
+  }
+
+  /**
+   * Gets the weather for all the given cities. The hits are resolved from the
+   * cache in one pass, while the misses are fetched together, with a single
+   * call to {@link #getWeatherImplBatch(Collection)} (or, if not implemented, a
+   * call per city, within the budget of upstream calls).
+   * 
+   * @param cities
+   *          the cities
+   * 
+   * @return the weathers, by city and in the order of the given cities (the
+   *         cities for which the weather could not be fetched are missing)
+   */
+  public final Map<String, JaTooWeather> getWeather(final Collection<String> cities) {
+
+    Map<String, JaTooWeather> weathers = new LinkedHashMap<>();
+
+    List<String> misses = new ArrayList<>();
+    List<String> refreshes = new ArrayList<>();
+
+    for (String city : cities) {
+
+      JaTooWeatherCacheEntry entry = CACHE.getEntry(this, city);
+
+      if (entry != null && !isExpired(city, entry)) {
+        metrics.hit();
+        weathers.put(city, new JaTooWeather(this, entry.getObject()));
+      }
+
+      else if (entry != null && isServedStale(city, entry)) {
+        metrics.stale();
+        weathers.put(city, new JaTooWeather(this, entry.getObject()));
+        refreshes.add(city);
+      }
+
+      else {
+        metrics.miss();
+        weathers.put(city, null);
+        misses.add(city);
+      }
+    }
+
+    if (refreshes.size() > 0) {
+      refresh(refreshes);
+    }
+
+    for (Map.Entry<String, JaTooWeatherFetch> fetch : fetch(misses, PRIORITY.INTERACTIVE).entrySet()) {
+
+      JaTooWeather weather;
+
+      try {
+        weather = new JaTooWeather(this, join(fetch.getValue()));
+      }
+
+      catch (CompletionException e) {
+        weather = getLastKnownGood(fetch.getKey(), e.getCause());
+      }
+
+      catch (CancellationException e) {
+        weather = getLastKnownGood(fetch.getKey(), e);
+      }
+
+      if (weather == null) {
+        weathers.remove(fetch.getKey());
+      }
+
+      else {
+        weathers.put(fetch.getKey(), weather);
+      }
+    }
+
+    return weathers;
+  }
+
+  /**
+   * Gets the weather near the given coordinates: the nearest fresh weather in
+   * the cache (of the cities with known coordinates), within the given
+   * distance, or else the weather fetched for the coordinates, if supported by
+   * this service (see {@link #getWeatherImpl(double, double)}).
+   * 
+   * @param latitude
+   *          the latitude, in degrees
+   * @param longitude
+   *          the longitude, in degrees
+   * @param maxDistance
+   *          the maximum distance to a cached city, in kilometers
+   * 
+   * @return the weather, or <code>null</code> if not found (and not fetched)
+   */
+  public final JaTooWeather getWeatherNear(final double latitude, final double longitude, final double maxDistance) {
+
+    JaTooWeatherCacheEntry entry = CACHE.getNearestEntry(this, latitude, longitude, maxDistance, (city, e) -> !isExpired(city, e));
+
+    if (entry != null) {
+      metrics.hit();
+      return new JaTooWeather(this, entry.getObject());
+    }
+
+    metrics.miss();
+
+    if (!isCoordinatesSupported()) {
+      return null;
+    }
+
+    try {
+
+      JaTooWeatherCacheObject fetched = join(fetch(latitude, longitude));
+
+      if (fetched == null) {
+        return null;
+      }
+
+      return new JaTooWeather(this, fetched);
+    }
+
+    catch (CompletionException e) {
+      return getLastKnownGood(latitude, longitude, maxDistance, e.getCause());
+    }
+
+    catch (CancellationException e) {
+      return getLastKnownGood(latitude, longitude, maxDistance, e);
+    }
+  }
+
+  /**
+   * Handles a failed fetch by coordinates: logs the failure and, if enabled,
+   * falls back to the last known weather nearest to the coordinates.
+   * 
+   * @see #getLastKnownGood(String, Throwable)
+   */
+  private JaTooWeather getLastKnownGood(final double latitude, final double longitude, final double maxDistance, final Throwable t) {
+
+    if (t instanceof JaTooWeatherUnavailableException) {
+      LOGGER.warn("failed to get the weather near: " + latitude + ", " + longitude + " (" + t.getMessage() + ")");
+    }
+
+    else {
+      LOGGER.error("failed to get the weather near: " + latitude + ", " + longitude, t);
+    }
+
+    if (!serveLastKnownGood) {
+      return null;
+    }
+
+    JaTooWeatherCacheEntry entry = CACHE.getNearestEntry(this, latitude, longitude, maxDistance, (city, e) -> !isStale(e));
+
+    if (entry == null) {
+      return null;
+    }
+
+    metrics.stale();
+
+    return new JaTooWeather(this, entry.getObject());
+  }
+
+  /**
+   * Tells whether this service fetches the weather by coordinates, so the
+   * misses of {@link #getWeatherNear(double, double, double)} go upstream. By
+   * default, whether {@link #getWeatherImpl(double, double)} is implemented
+   * (overridden).
+   * 
+   * @return <code>true</code> if supported
+   */
+  public boolean isCoordinatesSupported() {
+    return coordinatesSupported;
+  }
+
+  private static boolean isImplemented(final Class<?> type, final String name, final Class<?>... parameterTypes) {
+
+    for (Class<?> c = type; c != JaTooWeatherService.class; c = c.getSuperclass()) {
+
+      try {
+        c.getDeclaredMethod(name, parameterTypes);
+        return true;
+      }
+
+      catch (NoSuchMethodException e) {
+        // not in this class
+      }
+    }
+
+    return false;
+  }
+
+  /**
+   * Handles a failed fetch: logs the failure and, if enabled, falls back to the
+   * last known weather.
+   * 
+   * @param city
+   *          the city
+   * @param t
+   *          the failure
+   * 
+   * @return the last known weather, or <code>null</code> if none (or if
+   *         disabled)
+   * 
+   * @see #setServeLastKnownGood(boolean)
+   */
+  private JaTooWeather getLastKnownGood(final String city, final Throwable t) {
+
+    if (t instanceof JaTooWeatherUnavailableException) {
+      LOGGER.warn("failed to get the weather for: " + city + " (" + t.getMessage() + ")");
+    }
+
+    else {
+      LOGGER.error("failed to get the weather for: " + city, t);
+    }
+
+    if (!serveLastKnownGood) {
+      return null;
+    }
+
+    JaTooWeatherCacheEntry entry = CACHE.peekEntry(this, city);
+
+    if (entry == null) {
+      return null;
+    }
+
+    metrics.stale();
+
+    return new JaTooWeather(this, entry.getObject());
+  }
+
   protected abstract JaTooWeather getWeatherImpl(String city) throws Throwable;
 
   /**
-   * Gets the text ({@link String}) for the given key.
+   * Gets the weather for the given coordinates (usually of the nearest city or
+   * station). The weathers should have their city (the one accepted by
+   * {@link #getWeatherImpl(String)}) and coordinates set, so they are found in
+   * the cache by both. The default implementation does not support it.
    * 
-   * @param key
-   *          the key for the desired text
+   * @param latitude
+   *          the latitude, in degrees
+   * @param longitude
+   *          the longitude, in degrees
    * 
-   * @return the text for the given key, or the key if the text was not found
+   * @return the weather, or <code>null</code> if not found
    * 
-   * @see jatoo.resources.ResourcesTexts#getText(java.lang.String)
+   * @throws Throwable
+   *           if the weather could not be fetched
+   * 
+   * @see #isCoordinatesSupported()
    */
-  public String getText(String key) {
-    return this.texts.getText(key);
+  protected JaTooWeather getWeatherImpl(final double latitude, final double longitude) throws Throwable {
+    return null;
   }
 
   /**
-   * Format the given arguments using the text for the given key.
+   * Gets the weather for many cities at once. The default implementation calls
+   * {@link #getWeatherImpl(String)} for every city, in parallel, on the
+   * executor of this service; the services with upstream endpoints accepting
+   * many cities per call should override it.
    * 
-   * @param key
-   *          the key for the desired text
-   * @param arguments
-   *          object(s) to format
+   * @param cities
+   *          the cities
    * 
-   * @return the formatted text
+   * @return the weathers, by city (the cities for which the weather could not
+   *         be fetched should be missing)
    * 
-   * @see jatoo.resources.ResourcesTexts#getText(java.lang.String,
-   *      java.lang.Object[])
+   * @throws Throwable
+   *           if the weather could not be fetched (for any of the cities)
    */
-  public String getText(String key, Object... arguments) {
-    return this.texts.getText(key, arguments);
+  protected Map<String, JaTooWeather> getWeatherImplBatch(final Collection<String> cities) throws Throwable {
+    return getWeatherFanOut(cities, PRIORITY.INTERACTIVE, new HashMap<>(), false);
+  }
+
+  /**
+   * Calls {@link #getWeatherImpl(String)} for every given city, in parallel, on
+   * the executor of this service. Every call but the first (the permit of which
+   * is taken by the caller) takes its own permit from the rate limiter, so the
+   * fan-out does not burst over the budget.
+   * 
+   * @param cities
+   *          the cities
+   * @param priority
+   *          the priority of the calls, if over the budget of upstream calls
+   * @param unavailable
+   *          where to put the cities not fetched because of the budget (not
+   *          failed)
+   * @param upstream
+   *          whether every call is recorded on its own (its latency, its
+   *          failure), or the caller records the fan-out as a whole
+   * 
+   * @return the weathers, by city (the cities for which the weather could not
+   *         be fetched are missing)
+   */
+  private Map<String, JaTooWeather> getWeatherFanOut(final Collection<String> cities, final PRIORITY priority, final Map<String, Throwable> unavailable, final boolean upstream) {
+
+    Map<String, CompletableFuture<JaTooWeather>> futures = new LinkedHashMap<>();
+
+    for (String city : cities) {
+
+      boolean permitted = futures.isEmpty();
+
+      futures.put(city, CompletableFuture.supplyAsync(() -> {
+
+        try {
+
+          if (!permitted) {
+            waitForPermits(priority, 1);
+          }
+
+          return upstream ? getWeatherUpstream(city) : getWeatherImpl(city);
+        }
+
+        catch (Throwable t) {
+          throw new CompletionException(t);
+        }
+
+      }, executor));
+    }
+
+    Map<String, JaTooWeather> weathers = new HashMap<>();
+
+    for (Map.Entry<String, CompletableFuture<JaTooWeather>> future : futures.entrySet()) {
+
+      try {
+        weathers.put(future.getKey(), future.getValue().join());
+      }
+
+      catch (CompletionException e) {
+
+        if (e.getCause() instanceof JaTooWeatherUnavailableException) {
+          unavailable.put(future.getKey(), e.getCause());
+        }
+
+        else {
+          LOGGER.warn("failed to get the weather for: " + future.getKey(), e.getCause());
+        }
+      }
+    }
+
+    return weathers;
+  }
+
+  /**
+   * Fetches the weather for the given city from the provider, bypassing the
+   * cache, but not the protections of this service (the negative cache, the
+   * circuit breaker and the rate limiter) or its metrics. Used by the services
+   * composed of other services.
+   * 
+   * @param city
+   *          the city
+   * 
+   * @return the weather
+   * 
+   * @throws Throwable
+   *           if the weather could not be fetched
+   */
+  final JaTooWeather getWeatherDirect(final String city) throws Throwable {
+
+    JaTooWeatherUnavailableException unavailable = checkAvailable(city);
+
+    if (unavailable != null) {
+      metrics.reject();
+      throw unavailable;
+    }
+
+    waitForPermits(PRIORITY.INTERACTIVE, 1);
+
+    return getWeatherUpstream(city);
+  }
+
+  /**
+   * Fetches the weather at the given coordinates from the provider, like
+   * {@link #getWeatherDirect(String)}. Used by the services composed of other
+   * services.
+   * 
+   * @param latitude
+   *          the latitude, in degrees
+   * @param longitude
+   *          the longitude, in degrees
+   * 
+   * @return the weather, or <code>null</code> if not supported by this service
+   *         (in which case the provider is not called at all)
+   * 
+   * @throws Throwable
+   *           if the weather could not be fetched
+   * 
+   * @see #isCoordinatesSupported()
+   */
+  final JaTooWeather getWeatherDirect(final double latitude, final double longitude) throws Throwable {
+
+    if (!isCoordinatesSupported()) {
+      return null;
+    }
+
+    JaTooWeatherUnavailableException unavailable = checkAvailable(getCoordinatesKey(latitude, longitude));
+
+    if (unavailable != null) {
+      metrics.reject();
+      throw unavailable;
+    }
+
+    waitForPermits(PRIORITY.INTERACTIVE, 1);
+
+    return getWeatherUpstream(latitude, longitude);
+  }
+
+  /**
+   * Calls {@link #getWeatherImpl(String)}, recording the latency (and the
+   * failure, if any) of the call. A cancelled call is not a failure.
+   */
+  private JaTooWeather getWeatherUpstream(final String city) throws Throwable {
+
+    long start = System.nanoTime();
+
+    try {
+
+      JaTooWeather weather = getWeatherImpl(city);
+      upstreamCall(start, false);
+
+      return weather;
+    }
+
+    catch (Throwable t) {
+
+      if (isCancellation(t)) {
+        metrics.cancel();
+      }
+
+      else {
+        upstreamCall(start, true);
+        fail(city);
+      }
+
+      throw t;
+    }
+  }
+
+  /**
+   * Calls {@link #getWeatherImplBatch(Collection)}, recording the latency (and
+   * the failure, if any) of the call, as a single upstream call.
+   */
+  private Map<String, JaTooWeather> getWeatherBatchUpstream(final Collection<String> cities) throws Throwable {
+
+    long start = System.nanoTime();
+
+    try {
+
+      Map<String, JaTooWeather> weathers = getWeatherImplBatch(cities);
+      upstreamCall(start, false);
+
+      return weathers;
+    }
+
+    catch (Throwable t) {
+
+      if (isCancellation(t)) {
+        metrics.cancel();
+      }
+
+      else {
+        upstreamCall(start, true);
+      }
+
+      throw t;
+    }
+  }
+
+  /**
+   * Calls {@link #getWeatherImpl(double, double)}, recording the latency (and
+   * the failure, if any) of the call.
+   */
+  private JaTooWeather getWeatherUpstream(final double latitude, final double longitude) throws Throwable {
+
+    long start = System.nanoTime();
+
+    try {
+
+      JaTooWeather weather = getWeatherImpl(latitude, longitude);
+      upstreamCall(start, false);
+
+      return weather;
+    }
+
+    catch (Throwable t) {
+
+      if (isCancellation(t)) {
+        metrics.cancel();
+      }
+
+      else {
+        upstreamCall(start, true);
+        fail(getCoordinatesKey(latitude, longitude));
+      }
+
+      throw t;
+    }
+  }
+
+  /**
+   * Gets the key of the given coordinates, used (instead of a city) for the
+   * fetches in flight and for the negative cache.
+   */
+  private static String getCoordinatesKey(final double latitude, final double longitude) {
+    return "@" + latitude + "," + longitude;
+  }
+
+  /**
+   * Tells whether the given failure of an upstream call is in fact a
+   * cancellation (a lost hedge, or a fetch without waiters left), the calling
+   * thread being interrupted. A cancellation says nothing about the health of
+   * the provider, so it is neither a failure for the circuit breaker, nor for
+   * the negative cache.
+   */
+  static boolean isCancellation(final Throwable t) {
+
+    if (Thread.currentThread().isInterrupted()) {
+      return true;
+    }
+
+    for (Throwable cause = t; cause != null; cause = cause.getCause() == cause ? null : cause.getCause()) {
+      if (cause instanceof InterruptedException || cause instanceof InterruptedIOException || cause instanceof ClosedByInterruptException || cause instanceof CancellationException) {
+        return true;
+      }
+    }
+
+    return false;
+  }
+
+  /**
+   * Records a call to the upstream provider (single or batch), in the metrics
+   * and in the circuit breaker.
+   */
+  private void upstreamCall(final long start, final boolean failed) {
+
+    metrics.upstreamCall(start, failed);
+
+    if (failed) {
+      circuitBreaker.onFailure();
+    }
+
+    else {
+      circuitBreaker.onSuccess();
+    }
+  }
+
+  /**
+   * Remembers (in the negative cache) that the fetch failed for the given city.
+   */
+  private void fail(final String city) {
+
+    if (negativeExpiration <= 0) {
+      return;
+    }
+
+    long now = System.currentTimeMillis();
+
+    failures.put(city, now);
+
+    if (failures.size() > NEGATIVE_CACHE_PURGE_THRESHOLD) {
+      failures.values().removeIf(time -> now - time > negativeExpiration);
+    }
+  }
+
+  /**
+   * Checks whether the weather for the given city may be fetched: it did not
+   * fail recently, and the circuit is not open.
+   * 
+   * @return <code>null</code> if the weather may be fetched, or the reason why
+   *         not
+   */
+  private JaTooWeatherUnavailableException checkAvailable(final String city) {
+
+    Long failed = failures.get(city);
+
+    if (failed != null) {
+
+      if (System.currentTimeMillis() - failed <= negativeExpiration) {
+        return new JaTooWeatherUnavailableException("failed recently");
+      }
+
+      failures.remove(city, failed);
+    }
+
+    if (!circuitBreaker.allowRequest()) {
+      return new JaTooWeatherUnavailableException("circuit open");
+    }
+
+    return null;
+  }
+
+  /**
+   * Looks up the given city in the shared store of the cache (if any), after a
+   * local miss.
+   * 
+   * @param city
+   *          the city
+   * @param entry
+   *          the local (expired) entry, if any
+   * 
+   * @return the shared entry, if newer, or else the local one
+   */
+  private JaTooWeatherCacheEntry getSharedEntry(final String city, final JaTooWeatherCacheEntry entry) {
+
+    JaTooWeatherCacheEntry shared = CACHE.getSharedEntry(this, city);
+
+    if (shared == null) {
+      return entry;
+    }
+
+    return shared;
+  }
+
+  /**
+   * Waits (in the queue of the given priority) for the permits to call the
+   * upstream provider, recording the wait.
+   * 
+   * @throws JaTooWeatherUnavailableException
+   *           if the budget of upstream calls does not allow the calls in time
+   * 
+   * @see JaTooWeatherRateLimiter#setMaxWait(long)
+   */
+  private void waitForPermits(final PRIORITY priority, final int permits) throws InterruptedException {
+
+    if (rateLimiter.tryAcquire(priority, permits)) {
+      return;
+    }
+
+    metrics.throttle();
+
+    long start = System.nanoTime();
+
+    try {
+      if (!rateLimiter.acquire(priority, permits)) {
+        throw new JaTooWeatherUnavailableException("rate limited");
+      }
+    }
+
+    finally {
+      metrics.rateLimitWait(start);
+    }
+  }
+
+  /**
+   * Waits for the given fetch, recording the wait if the fetch is not done yet
+   * (so it is owned by another caller).
+   */
+  private JaTooWeatherCacheObject join(final JaTooWeatherFetch fetch) {
+
+    if (fetch.isDone()) {
+      return fetch.join();
+    }
+
+    long start = System.nanoTime();
+
+    try {
+      return fetch.join();
+    }
+
+    finally {
+      metrics.lockWait(start);
+    }
+  }
+
+  /**
+   * Refreshes (in the background) the weather for the given city.
+   * 
+   * @param city
+   *          the city
+   */
+  private void refresh(final String city) {
+    refresh(city, 0);
+  }
+
+  /**
+   * Refreshes (in the background) the weather for the given city, if expired,
+   * or about to expire.
+   * 
+   * @param city
+   *          the city
+   * @param ahead
+   *          the time before the expiration when the weather is refreshed
+   */
+  private void refresh(final String city, final long ahead) {
+    fetch(city, REFRESH_EXECUTOR, PRIORITY.BACKGROUND, ahead).whenComplete((object, t) -> {
+      if (t instanceof JaTooWeatherUnavailableException) {
+        LOGGER.debug("skipped the refresh of the weather for: " + city + " (" + t.getMessage() + ")");
+      }
+      else if (t != null) {
+        LOGGER.warn("failed to refresh the weather", t);
+      }
+    });
+  }
+
+  /**
+   * Refreshes (in the background) the weather for the given cities.
+   * 
+   * @param cities
+   *          the cities
+   */
+  private void refresh(final Collection<String> cities) {
+
+    try {
+      REFRESH_EXECUTOR.execute(() -> {
+        for (Map.Entry<String, JaTooWeatherFetch> fetch : fetch(cities, PRIORITY.BACKGROUND).entrySet()) {
+          if (fetch.getValue().isCompletedExceptionally()) {
+            LOGGER.warn("failed to refresh the weather for: " + fetch.getKey());
+          }
+        }
+      });
+    }
+
+    catch (RejectedExecutionException e) {
+      LOGGER.warn("failed to refresh the weather", e);
+    }
+  }
+
+  /**
+   * Fetches the weather for the given city, making sure that only one fetch
+   * per city (and service) is in flight at a time. Concurrent misses for the
+   * same city share the fetch already running, while misses for other cities
+   * proceed in parallel.
+   * 
+   * @param city
+   *          the city
+   * @param executor
+   *          the executor to run the fetch on, or <code>null</code> to run it
+   *          on the calling thread
+   * @param priority
+   *          the priority of the fetch, if over the budget of upstream calls
+   * @param ahead
+   *          the time before the expiration when the cached weather is
+   *          fetched again anyway (0 to fetch only the expired ones)
+   * 
+   * @return the (shared) fetch, with the caller already registered as waiter
+   */
+  private JaTooWeatherFetch fetch(final String city, final Executor executor, final PRIORITY priority, final long ahead) {
+
+    final String key = CACHE.createKey(this, city);
+    final JaTooWeatherFetch fetch = new JaTooWeatherFetch();
+
+    JaTooWeatherUnavailableException unavailable = checkAvailable(city);
+
+    if (unavailable != null) {
+      metrics.reject();
+      fetch.retain();
+      fetch.completeExceptionally(unavailable);
+      return fetch;
+    }
+
+    JaTooWeatherFetch registered = register(key, fetch);
+
+    if (registered != fetch) {
+      return registered;
+    }
+
+    final Runnable task = () -> {
+
+      if (!fetch.start()) {
+        FETCHES.remove(key, fetch);
+        return;
+      }
+
+      metrics.fetchStarted();
+
+      try {
+
+        // another fetch may have completed
+        // between the cache lookup and the registration
+        JaTooWeatherCacheEntry entry = CACHE.peekEntry(this, city);
+
+        // or another node
+        if (entry == null || isExpired(city, entry, ahead)) {
+          entry = getSharedEntry(city, entry);
+        }
+
+        if (entry != null && !isExpired(city, entry, ahead)) {
+          fetch.complete(entry.getObject());
+        }
+
+        else if (rateLimiter.tryAcquire(priority, 1)) {
+          fetch.complete(store(city, getWeatherUpstream(city)));
+        }
+
+        // over budget, the expired weather is better than waiting
+        else if (priority == PRIORITY.INTERACTIVE && entry != null && !isStale(entry)) {
+          metrics.throttle();
+          metrics.stale();
+          fetch.complete(entry.getObject());
+        }
+
+        else {
+          waitForPermits(priority, 1);
+          fetch.complete(store(city, getWeatherUpstream(city)));
+        }
+      }
+
+      catch (Throwable t) {
+        fetch.completeExceptionally(t);
+      }
+
+      finally {
+        metrics.fetchFinished();
+        fetch.finish();
+        FETCHES.remove(key, fetch);
+      }
+    };
+
+    if (executor == null) {
+      task.run();
+    }
+
+    else {
+
+      try {
+        executor.execute(task);
+      }
+
+      catch (RejectedExecutionException e) {
+        FETCHES.remove(key, fetch);
+        fetch.completeExceptionally(e);
+      }
+    }
+
+    return fetch;
+  }
+
+  /**
+   * Fetches (on the calling thread) the weather for the given coordinates, or
+   * joins the fetch already in flight for the same coordinates.
+   * 
+   * @param latitude
+   *          the latitude, in degrees
+   * @param longitude
+   *          the longitude, in degrees
+   * 
+   * @return the (completed or shared) fetch, completed with <code>null</code>
+   *         if no weather was found
+   */
+  private JaTooWeatherFetch fetch(final double latitude, final double longitude) {
+
+    final String coordinates = getCoordinatesKey(latitude, longitude);
+    final String key = CACHE.createKey(this, coordinates);
+    final JaTooWeatherFetch fetch = new JaTooWeatherFetch();
+
+    JaTooWeatherUnavailableException unavailable = checkAvailable(coordinates);
+
+    if (unavailable != null) {
+      metrics.reject();
+      fetch.retain();
+      fetch.completeExceptionally(unavailable);
+      return fetch;
+    }
+
+    JaTooWeatherFetch registered = register(key, fetch);
+
+    if (registered != fetch) {
+      return registered;
+    }
+
+    if (!fetch.start()) {
+      FETCHES.remove(key, fetch);
+      return fetch;
+    }
+
+    metrics.fetchStarted();
+
+    try {
+
+      waitForPermits(PRIORITY.INTERACTIVE, 1);
+
+      JaTooWeather weather = getWeatherUpstream(latitude, longitude);
+
+      if (weather == null) {
+        fetch.complete(null);
+      }
+
+      else {
+
+        if (weather.latitude == null || weather.longitude == null) {
+          weather.latitude = latitude;
+          weather.longitude = longitude;
+        }
+
+        fetch.complete(store(weather.getCity() != null ? weather.getCity() : latitude + "," + longitude, weather));
+      }
+    }
+
+    catch (Throwable t) {
+      fetch.completeExceptionally(t);
+    }
+
+    finally {
+      metrics.fetchFinished();
+      fetch.finish();
+      FETCHES.remove(key, fetch);
+    }
+
+    return fetch;
+  }
+
+  /**
+   * Fetches (on the calling thread) the weather for the given cities, with a
+   * single call to {@link #getWeatherImplBatch(Collection)}, if implemented, or
+   * else with a call per city (each taking its own permit). The cities already
+   * in flight are not fetched again, their fetches are joined instead.
+   * 
+   * @param cities
+   *          the cities
+   * @param priority
+   *          the priority of the fetch, if over the budget of upstream calls
+   * 
+   * @return the (completed or shared) fetches, by city
+   */
+  private Map<String, JaTooWeatherFetch> fetch(final Collection<String> cities, final PRIORITY priority) {
+
+    if (cities.isEmpty()) {
+      return Collections.emptyMap();
+    }
+
+    Map<String, JaTooWeatherFetch> fetches = new LinkedHashMap<>();
+    Map<String, JaTooWeatherFetch> owned = new LinkedHashMap<>();
+
+    for (String city : cities) {
+
+      JaTooWeatherFetch fetch = new JaTooWeatherFetch();
+      JaTooWeatherFetch registered = register(CACHE.createKey(this, city), fetch);
+
+      fetches.put(city, registered);
+
+      if (registered == fetch) {
+        owned.put(city, fetch);
+      }
+    }
+
+    try {
+
+      // another fetch may have completed
+      // between the cache lookup and the registration
+      for (Iterator<Map.Entry<String, JaTooWeatherFetch>> i = owned.entrySet().iterator(); i.hasNext();) {
+
+        Map.Entry<String, JaTooWeatherFetch> fetch = i.next();
+        JaTooWeatherCacheEntry entry = CACHE.peekEntry(this, fetch.getKey());
+
+        // or another node
+        if (entry == null || isExpired(fetch.getKey(), entry)) {
+          entry = getSharedEntry(fetch.getKey(), entry);
+        }
+
+        if (entry != null && !isExpired(fetch.getKey(), entry)) {
+          fetch.getValue().complete(entry.getObject());
+          FETCHES.remove(CACHE.createKey(this, fetch.getKey()), fetch.getValue());
+          i.remove();
+          continue;
+        }
+
+        JaTooWeatherUnavailableException unavailable = checkAvailable(fetch.getKey());
+
+        if (unavailable != null) {
+          metrics.reject();
+          fetch.getValue().completeExceptionally(unavailable);
+          FETCHES.remove(CACHE.createKey(this, fetch.getKey()), fetch.getValue());
+          i.remove();
+        }
+      }
+
+      // the permit of the (first) upstream call
+      if (owned.size() > 0 && !rateLimiter.tryAcquire(priority, 1)) {
+
+        // over budget, the expired weathers are better than waiting
+        if (priority == PRIORITY.INTERACTIVE) {
+
+          for (Iterator<Map.Entry<String, JaTooWeatherFetch>> i = owned.entrySet().iterator(); i.hasNext();) {
+
+            Map.Entry<String, JaTooWeatherFetch> fetch = i.next();
+            JaTooWeatherCacheEntry entry = CACHE.peekEntry(this, fetch.getKey());
+
+            if (entry != null && !isStale(entry)) {
+              metrics.throttle();
+              metrics.stale();
+              fetch.getValue().complete(entry.getObject());
+              FETCHES.remove(CACHE.createKey(this, fetch.getKey()), fetch.getValue());
+              i.remove();
+            }
+          }
+        }
+
+        if (owned.size() > 0) {
+          waitForPermits(priority, 1);
+        }
+      }
+
+      if (owned.size() > 0) {
+
+        Map<String, JaTooWeather> weathers;
+        Map<String, Throwable> unavailable = new HashMap<>();
+
+        for (int i = 0; i < owned.size(); i++) {
+          metrics.fetchStarted();
+        }
+
+        // a batch is a single upstream call, a fan-out is a call per city
+        try {
+          weathers = batchSupported ? getWeatherBatchUpstream(owned.keySet()) : getWeatherFanOut(owned.keySet(), priority, unavailable, true);
+        }
+
+        finally {
+          for (int i = 0; i < owned.size(); i++) {
+            metrics.fetchFinished();
+          }
+        }
+
+        for (Map.Entry<String, JaTooWeatherFetch> fetch : owned.entrySet()) {
+
+          JaTooWeather weather = weathers.get(fetch.getKey());
+
+          if (unavailable.containsKey(fetch.getKey())) {
+            fetch.getValue().completeExceptionally(unavailable.get(fetch.getKey()));
+          }
+
+          else if (weather == null) {
+            fail(fetch.getKey());
+            fetch.getValue().completeExceptionally(new NoSuchElementException("no weather fetched for: " + fetch.getKey()));
+          }
+
+          else {
+            fetch.getValue().complete(store(fetch.getKey(), weather));
+          }
+        }
+      }
+    }
+
+    catch (Throwable t) {
+      for (Map.Entry<String, JaTooWeatherFetch> fetch : owned.entrySet()) {
+
+        if (!(t instanceof JaTooWeatherUnavailableException) && !isCancellation(t)) {
+          fail(fetch.getKey());
+        }
+
+        fetch.getValue().completeExceptionally(t);
+      }
+    }
+
+    finally {
+      for (Map.Entry<String, JaTooWeatherFetch> fetch : owned.entrySet()) {
+        FETCHES.remove(CACHE.createKey(this, fetch.getKey()), fetch.getValue());
+      }
+    }
+
+    return fetches;
+  }
+
+  /**
+   * Registers the given fetch as in flight, or joins the one already in flight
+   * for the same key.
+   * 
+   * @param key
+   *          the cache key
+   * @param fetch
+   *          the new fetch
+   * 
+   * @return the given fetch, if registered (and owned by the caller), or the
+   *         one already in flight, in both cases with the caller registered as
+   *         waiter
+   */
+  private JaTooWeatherFetch register(final String key, final JaTooWeatherFetch fetch) {
+
+    while (true) {
+
+      JaTooWeatherFetch inFlight = FETCHES.putIfAbsent(key, fetch);
+
+      if (inFlight == null) {
+        fetch.retain();
+        return fetch;
+      }
+
+      if (inFlight.retain()) {
+        return inFlight;
+      }
+
+      // cancelled, but not yet removed
+      FETCHES.remove(key, inFlight);
+    }
+  }
+
+  /**
+   * Stores in the cache the freshly fetched weather for the given city.
+   * 
+   * @param city
+   *          the city
+   * @param weather
+   *          the weather
+   * 
+   * @return the cached object
+   */
+  private JaTooWeatherCacheObject store(final String city, final JaTooWeather weather) {
+
+    weather.timestamp = System.currentTimeMillis();
+
+    long expiration = 0;
+
+    if (adaptiveExpiration) {
+      expiration = adaptExpiration(city, CACHE.peekEntry(this, city), weather);
+    }
+
+    JaTooWeatherCacheObject object = CACHE.add(this, city, weather, expiration);
+
+    JaTooWeatherHistory history = this.history;
+
+    if (history != null) {
+      history.add(CACHE.createKey(this, city), object);
+    }
+
+    return object;
+  }
+
+  /**
+   * Computes the (adaptive) expiration of the freshly fetched weather for the
+   * given city, from the expiration of the previous one: longer if the weather
+   * did not change, shorter if it did.
+   * 
+   * @param city
+   *          the city
+   * @param previous
+   *          the cached entry being replaced, if any
+   * @param weather
+   *          the fresh weather
+   * 
+   * @return the expiration, in milliseconds
+   */
+  private long adaptExpiration(final String city, final JaTooWeatherCacheEntry previous, final JaTooWeather weather) {
+
+    long base = getExpiration(city);
+
+    if (previous == null) {
+      return base;
+    }
+
+    long expiration = previous.getExpiration() > 0 ? previous.getExpiration() : base;
+
+    // the range always includes the configured expiration
+    if (isChanged(previous.getObject(), weather)) {
+      return Math.max(expiration / 2, Math.min(adaptiveExpirationMinimum, base));
+    }
+
+    return Math.min(expiration * 3 / 2, Math.max(adaptiveExpirationMaximum, base));
+  }
+
+  /**
+   * Tells whether the weather changed: the description is different, or the
+   * temperature moved more than the adaptive expiration threshold.
+   */
+  private boolean isChanged(final JaTooWeatherCacheObject previous, final JaTooWeather weather) {
+
+    if (previous.getDescription() == null ? weather.description != null : !previous.getDescription().equals(weather.description)) {
+      return true;
+    }
+
+    if (previous.isPresent(JaTooWeatherCacheObject.TEMPERATURE) != (weather.temperature != null)) {
+      return true;
+    }
+
+    return weather.temperature != null && Math.abs(weather.temperature.doubleValue() - previous.getTemperatureValue()) > adaptiveExpirationThreshold;
+  }
+
+  private boolean isExpired(final String city, final JaTooWeatherCacheEntry entry) {
+    return isExpired(city, entry, 0);
+  }
+
+  /**
+   * Tells whether the given entry is expired, or will expire within the given
+   * time.
+   */
+  private boolean isExpired(final String city, final JaTooWeatherCacheEntry entry, final long ahead) {
+
+    long expiration = entry.getExpiration();
+
+    if (expiration == 0 || !adaptiveExpiration) {
+      expiration = getExpiration(city);
+    }
+
+    return (System.currentTimeMillis() - entry.getObject().getTimestamp()) > expiration - ahead;
+  }
+
+  private boolean isStale(final JaTooWeatherCacheEntry entry) {
+    return (System.currentTimeMillis() - entry.getObject().getTimestamp()) > staleThreshold;
+  }
+
+  /**
+   * Tells whether the given (expired) entry is returned while refreshed in the
+   * background: in {@link #staleWhileRevalidate} mode, or if the city is hot.
+   */
+  private boolean isServedStale(final String city, final JaTooWeatherCacheEntry entry) {
+    return (staleWhileRevalidate || hotCities.contains(city)) && !isStale(entry);
+  }
+
+  /**
+   * Refreshes the hot cities (the most accessed lately, in the cache or in the
+   * hot set saved before a restart) that are missing, expired or about to
+   * expire, so they are never fetched on the threads of the callers.
+   */
+  private void refreshAhead() {
+
+    try {
+
+      List<String> cities = CACHE.getHotCities(this, refreshAheadCount);
+
+      hotCities = new HashSet<>(cities);
+
+      for (String city : cities) {
+
+        JaTooWeatherCacheEntry entry = CACHE.peekEntry(this, city);
+
+        if (entry == null || isExpired(city, entry, refreshAheadTime)) {
+          refresh(city, refreshAheadTime);
+        }
+      }
+    }
+
+    catch (Throwable t) {
+      LOGGER.error("failed to refresh ahead the hot cities", t);
+    }
+  }
+
+  /**
+   * Enables (or disables) the refreshes ahead of the expiration: the given
+   * number of hot cities (the most accessed lately) are refreshed in the
+   * background shortly before they expire, and served from the cache while
+   * refreshed, even if expired. After a restart, the hot cities saved by the
+   * cache are fetched again (warmed up) the same way.
+   * <p>
+   * The refreshes run on a small, bounded, pool, and have the background
+   * priority in the budget of the upstream calls (see
+   * {@link #getRateLimiter()}).
+   * <p>
+   * The (shared) scheduler of the checks does not keep the service alive: the
+   * checks of a service no longer used stop once it is garbage collected.
+   * 
+   * @param count
+   *          the number of hot cities, or 0 to disable the refreshes ahead
+   * @param ahead
+   *          the time before the expiration when the hot cities are
+   *          refreshed, in milliseconds (more than 10 seconds, the interval of
+   *          the checks)
+   */
+  public synchronized void setRefreshAhead(final int count, final long ahead) {
+
+    this.refreshAheadCount = count;
+    this.refreshAheadTime = ahead;
+
+    if (refreshAhead != null) {
+      refreshAhead.cancel(false);
+      refreshAhead = null;
+      hotCities = Collections.emptySet();
+    }
+
+    if (count > 0) {
+      refreshAhead = new RefreshAhead(this).schedule();
+    }
+  }
+
+  public int getRefreshAheadCount() {
+    return this.refreshAheadCount;
+  }
+
+  public long getRefreshAheadTime() {
+    return this.refreshAheadTime;
+  }
+
+  /**
+   * Sets the time after which the cached weathers expire (and are fetched
+   * again), for all the cities without their own expiration.
+   * 
+   * @param expiration
+   *          the expiration, in milliseconds
+   * 
+   * @see #setExpiration(String, long)
+   */
+  public void setExpiration(final long expiration) {
+    this.expiration = expiration;
+  }
+
+  public long getExpiration() {
+    return this.expiration;
+  }
+
+  /**
+   * Sets the time after which the cached weather of the given city expires.
+   * 
+   * @param city
+   *          the city
+   * @param expiration
+   *          the expiration, in milliseconds, or a negative value to use the
+   *          expiration of the service again
+   */
+  public void setExpiration(final String city, final long expiration) {
+
+    if (expiration < 0) {
+      cityExpirations.remove(city);
+    }
+
+    else {
+      cityExpirations.put(city, expiration);
+    }
+  }
+
+  /**
+   * Gets the time after which the cached weather of the given city expires
+   * (not adapted).
+   * 
+   * @param city
+   *          the city
+   * 
+   * @return the expiration, in milliseconds
+   */
+  public long getExpiration(final String city) {
+
+    Long expiration = cityExpirations.get(city);
+
+    if (expiration == null) {
+      return this.expiration;
+    }
+
+    return expiration;
+  }
+
+  /**
+   * Enables (or disables) the adaptive expiration: each time the weather of a
+   * city is fetched, its expiration gets longer (by half) if the weather did
+   * not change, or shorter (by half) if it did, within the range set with
+   * {@link #setAdaptiveExpirationRange(long, long)} (extended, if needed, to
+   * include the configured expiration).
+   * <p>
+   * The weather is considered changed if the description is different, or if
+   * the temperature moved more than the threshold set with
+   * {@link #setAdaptiveExpirationThreshold(double)}.
+   * 
+   * @param adaptiveExpiration
+   *          <code>true</code> to enable the adaptive expiration,
+   *          <code>false</code> to use the configured expirations as they are
+   */
+  public void setAdaptiveExpiration(final boolean adaptiveExpiration) {
+    this.adaptiveExpiration = adaptiveExpiration;
+  }
+
+  public boolean isAdaptiveExpiration() {
+    return this.adaptiveExpiration;
+  }
+
+  /**
+   * Sets the range of the adaptive expirations.
+   * 
+   * @param minimum
+   *          the shortest expiration, in milliseconds
+   * @param maximum
+   *          the longest expiration, in milliseconds
+   */
+  public void setAdaptiveExpirationRange(final long minimum, final long maximum) {
+
+    if (minimum > maximum) {
+      throw new IllegalArgumentException("minimum (" + minimum + ") > maximum (" + maximum + ")");
+    }
+
+    this.adaptiveExpirationMinimum = minimum;
+    this.adaptiveExpirationMaximum = maximum;
+  }
+
+  public long getAdaptiveExpirationMinimum() {
+    return this.adaptiveExpirationMinimum;
+  }
+
+  public long getAdaptiveExpirationMaximum() {
+    return this.adaptiveExpirationMaximum;
+  }
+
+  /**
+   * Sets the temperature change above which the weather is considered changed
+   * (by the adaptive expiration).
+   * 
+   * @param adaptiveExpirationThreshold
+   *          the change, in the unit of the temperature
+   */
+  public void setAdaptiveExpirationThreshold(final double adaptiveExpirationThreshold) {
+    this.adaptiveExpirationThreshold = adaptiveExpirationThreshold;
+  }
+
+  public double getAdaptiveExpirationThreshold() {
+    return this.adaptiveExpirationThreshold;
+  }
+
+  /**
+   * Enables (or disables) the stale-while-revalidate mode: expired (but not
+   * stale) weathers are returned immediately from the cache, while the fresh
+   * ones are fetched in the background.
+   * 
+   * @param staleWhileRevalidate
+   *          <code>true</code> to enable the mode, <code>false</code> to disable
+   *          it
+   * 
+   * @see #setStaleThreshold(long)
+   */
+  public void setStaleWhileRevalidate(final boolean staleWhileRevalidate) {
+    this.staleWhileRevalidate = staleWhileRevalidate;
+  }
+
+  public boolean isStaleWhileRevalidate() {
+    return this.staleWhileRevalidate;
+  }
+
+  /**
+   * Sets the hard staleness limit of the stale-while-revalidate mode: the
+   * weathers older than this are never served, the callers block until the
+   * fresh ones are fetched.
+   * 
+   * @param staleThreshold
+   *          the limit, in milliseconds
+   */
+  public void setStaleThreshold(final long staleThreshold) {
+    this.staleThreshold = staleThreshold;
+  }
+
+  public long getStaleThreshold() {
+    return this.staleThreshold;
+  }
+
+  /**
+   * Sets the time a failed fetch is remembered (negative caching): meanwhile,
+   * the fetches for the same city fail fast, without calling the provider.
+   * 
+   * @param negativeExpiration
+   *          the time, in milliseconds, or 0 to not remember the failures
+   */
+  public void setNegativeExpiration(final long negativeExpiration) {
+
+    this.negativeExpiration = negativeExpiration;
+
+    if (negativeExpiration <= 0) {
+      failures.clear();
+    }
+  }
+
+  public long getNegativeExpiration() {
+    return this.negativeExpiration;
+  }
+
+  /**
+   * Enables (or disables) the fallback to the last known weather (even if
+   * expired, as long as it is still cached) when the fetch fails, like while
+   * the provider is down.
+   * 
+   * @param serveLastKnownGood
+   *          <code>true</code> to return the last known weather,
+   *          <code>false</code> to return <code>null</code> (or fail the
+   *          future, for the asynchronous calls)
+   */
+  public void setServeLastKnownGood(final boolean serveLastKnownGood) {
+    this.serveLastKnownGood = serveLastKnownGood;
+  }
+
+  public boolean isServeLastKnownGood() {
+    return this.serveLastKnownGood;
+  }
+
+  /**
+   * Sets the namespace of the keys of this service in the cache. By default
+   * every service has its own namespace (the name of its class); the services
+   * with the same namespace share the cached weathers, and the fetches in
+   * flight.
+   * 
+   * @param cacheNamespace
+   *          the namespace, or <code>null</code> for the default one
+   */
+  public void setCacheNamespace(final String cacheNamespace) {
+    this.cacheNamespace = cacheNamespace;
+  }
+
+  public String getCacheNamespace() {
+
+    String cacheNamespace = this.cacheNamespace;
+
+    if (cacheNamespace == null) {
+      return getClass().getName();
+    }
+
+    return cacheNamespace;
+  }
+
+  /**
+   * Gets the budget of the upstream calls of this service (unlimited until a
+   * rate is set). Over budget, the misses wait for the permits before the
+   * refreshes, or get the expired weather if still cached, and the calls
+   * giving up fail like when the provider is unavailable.
+   * <p>
+   * The batch lookups take one permit per fetched city.
+   * 
+   * @return the rate limiter
+   */
+  public JaTooWeatherRateLimiter getRateLimiter() {
+    return this.rateLimiter;
+  }
+
+  /**
+   * Gets the circuit breaker of this service (to configure it, or to check its
+   * state).
+   * 
+   * @return the circuit breaker
+   */
+  public JaTooWeatherCircuitBreaker getCircuitBreaker() {
+    return this.circuitBreaker;
+  }
+
+  /**
+   * Sets the executor used for the asynchronous fetches. By default, a new
+   * virtual thread is used for each fetch (on JDK 21+), or a daemon thread
+   * from a cached pool.
+   * 
+   * @param executor
+   *          the executor
+   * 
+   * @see #getWeatherAsync(String)
+   */
+  public void setExecutor(final Executor executor) {
+    this.executor = executor == null ? DEFAULT_EXECUTOR : executor;
+  }
+
+  public Executor getExecutor() {
+    return this.executor;
+  }
+
+  /**
+   * Sets the history where every fetched weather is appended.
+   * 
+   * @param history
+   *          the history, or <code>null</code> to keep no history
+   */
+  public void setHistory(final JaTooWeatherHistory history) {
+    this.history = history;
+  }
+
+  public JaTooWeatherHistory getHistory() {
+    return this.history;
+  }
+
+  /**
+   * Gets the history of the weather for the given city.
+   * 
+   * @param city
+   *          the city
+   * @param from
+   *          the start of the time range (inclusive), in milliseconds
+   * @param to
+   *          the end of the time range (inclusive), in milliseconds
+   * 
+   * @return the samples in the given time range, oldest first (empty if no
+   *         history is kept)
+   * 
+   * @see #setHistory(JaTooWeatherHistory)
+   */
+  public List<JaTooWeatherSample> getHistory(final String city, final long from, final long to) {
+
+    JaTooWeatherHistory history = this.history;
+
+    if (history == null) {
+      return new ArrayList<>();
+    }
+
+    return history.get(CACHE.createKey(this, city), from, to);
+  }
+
+  /**
+   * Gets the metrics of this service (also available through JMX, in the
+   * <code>jatoo.weather</code> domain, if registered).
+   * 
+   * @return the metrics
+   * 
+   * @see #setMBeanRegistered(boolean)
+   */
+  public JaTooWeatherServiceMetrics getMetrics() {
+    return this.metrics;
+  }
+
+  /**
+   * Registers (or unregisters) the metrics of this service as MBean. Not
+   * registered by default; the services registered should be unregistered when
+   * no longer used, or else they are kept by the MBean server.
+   * 
+   * @param registered
+   *          whether the metrics are available through JMX
+   */
+  public synchronized void setMBeanRegistered(final boolean registered) {
+
+    if (registered && objectName == null) {
+      objectName = JaTooWeatherMBeans.register("Service", getClass().getName(), metrics);
+    }
+
+    else if (!registered && objectName != null) {
+      JaTooWeatherMBeans.unregister(objectName);
+      objectName = null;
+    }
+  }
+
+  public synchronized boolean isMBeanRegistered() {
+    return objectName != null;
+  }
+
+  public String getLanguage() {
+    return this.language;
+  }
+
+  /**
+   * Gets the formatter used to render the weathers of this service as text.
+   * 
+   * @return the formatter
+   */
+  public JaTooWeatherFormatter getFormatter() {
+
+    JaTooWeatherFormatter formatter = this.formatter;
+
+    if (formatter == null) {
+      this.formatter = formatter = new JaTooWeatherFormatter(this);
+    }
+
+    return formatter;
+  }
+
+  /**
+   * Gets the text ({@link String}) for the given key.
+   * 
+   * @param key
+   *          the key for the desired text
+   * 
+   * @return the text for the given key, or the key if the text was not found
+   * 
+   * @see jatoo.resources.ResourcesTexts#getText(java.lang.String)
+   */
+  public String getText(String key) {
+    return this.texts.getText(key);
+  }
+
+  /**
+   * Format the given arguments using the text for the given key.
+   * 
+   * @param key
+   *          the key for the desired text
+   * @param arguments
+   *          object(s) to format
+   * 
+   * @return the formatted text
+   * 
+   * @see jatoo.resources.ResourcesTexts#getText(java.lang.String,
+   *      java.lang.Object[])
+   */
+  public String getText(String key, Object... arguments) {
+    return this.texts.getText(key, arguments);
+  }
+
+  /**
+   * The periodic check of the hot cities of a service, holding the service
+   * weakly, so the scheduler does not leak it. Cancelled once the service is
+   * garbage collected.
+   */
+  private static final class RefreshAhead implements Runnable {
+
+    private final WeakReference<JaTooWeatherService> service;
+
+    private volatile ScheduledFuture<?> future;
+
+    private RefreshAhead(final JaTooWeatherService service) {
+      this.service = new WeakReference<>(service);
+    }
+
+    private ScheduledFuture<?> schedule() {
+      future = REFRESH_AHEAD_SCHEDULER.scheduleWithFixedDelay(this, 0, REFRESH_AHEAD_INTERVAL, TimeUnit.MILLISECONDS);
+      return future;
+    }
+
+    @Override
+    public void run() {
+
+      JaTooWeatherService service = this.service.get();
+
+      if (service != null) {
+        service.refreshAhead();
+      }
+
+      // (the first run may be before the future is set,
+      // but the service is still referenced by then)
+      else if (future != null) {
+        future.cancel(false);
+      }
+    }
   }
 
 }
@@ -0,0 +1,231 @@
+/*
+ * Copyright (C) Cristian Sulea ( http://cristian.sulea.net )
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package jatoo.weather;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * The metrics of a weather service: the cache hits (and misses), the calls to
+ * the upstream provider and the time spent waiting for the fetches of other
+ * callers. The recording is lock-free (striped counters), so it does not add
+ * contention on the hot paths.
+ * 
+ * @author <a href="http://cristian.sulea.net" rel="author">Cristian Sulea</a>
+ * @version 1.0, October 18, 2026
+ * 
+ * @see JaTooWeatherService#getMetrics()
+ */
+public class JaTooWeatherServiceMetrics implements JaTooWeatherServiceMetricsMXBean {
+
+  private final LongAdder hits = new LongAdder();
+  private final LongAdder stales = new LongAdder();
+  private final LongAdder misses = new LongAdder();
+  private final LongAdder inFlight = new LongAdder();
+  private final LongAdder upstreamFailures = new LongAdder();
+  private final LongAdder rejections = new LongAdder();
+  private final LongAdder throttles = new LongAdder();
+  private final LongAdder cancellations = new LongAdder();
+
+  /** The latencies of the upstream calls, in nanoseconds. */
+  private final JaTooWeatherHistogram upstreamLatency = new JaTooWeatherHistogram();
+
+  /** The waits for the fetches (of the same city) of other callers. */
+  private final JaTooWeatherHistogram lockWait = new JaTooWeatherHistogram();
+
+  /** The waits for the permits of the rate limiter. */
+  private final JaTooWeatherHistogram rateLimitWait = new JaTooWeatherHistogram();
+
+  void hit() {
+    hits.increment();
+  }
+
+  void stale() {
+    stales.increment();
+  }
+
+  void miss() {
+    misses.increment();
+  }
+
+  void reject() {
+    rejections.increment();
+  }
+
+  void throttle() {
+    throttles.increment();
+  }
+
+  void cancel() {
+    cancellations.increment();
+  }
+
+  void fetchStarted() {
+    inFlight.increment();
+  }
+
+  void fetchFinished() {
+    inFlight.decrement();
+  }
+
+  /**
+   * Records a call to the upstream provider.
+   * 
+   * @param start
+   *          the start of the call (see {@link System#nanoTime()})
+   * @param failed
+   *          whether the call failed
+   */
+  void upstreamCall(final long start, final boolean failed) {
+
+    upstreamLatency.record(System.nanoTime() - start);
+
+    if (failed) {
+      upstreamFailures.increment();
+    }
+  }
+
+  void lockWait(final long start) {
+    lockWait.record(System.nanoTime() - start);
+  }
+
+  void rateLimitWait(final long start) {
+    rateLimitWait.record(System.nanoTime() - start);
+  }
+
+  @Override
+  public long getHitCount() {
+    return hits.sum();
+  }
+
+  @Override
+  public long getStaleCount() {
+    return stales.sum();
+  }
+
+  @Override
+  public long getMissCount() {
+    return misses.sum();
+  }
+
+  @Override
+  public long getInFlightCount() {
+    return inFlight.sum();
+  }
+
+  @Override
+  public long getUpstreamCallCount() {
+    return upstreamLatency.getCount();
+  }
+
+  @Override
+  public long getUpstreamFailureCount() {
+    return upstreamFailures.sum();
+  }
+
+  @Override
+  public long getRejectedCount() {
+    return rejections.sum();
+  }
+
+  @Override
+  public long getThrottledCount() {
+    return throttles.sum();
+  }
+
+  @Override
+  public long getCancelledCount() {
+    return cancellations.sum();
+  }
+
+  @Override
+  public double getUpstreamLatencyP50() {
+    return toMillis(upstreamLatency.getPercentile(0.5));
+  }
+
+  @Override
+  public double getUpstreamLatencyP99() {
+    return toMillis(upstreamLatency.getPercentile(0.99));
+  }
+
+  @Override
+  public double getUpstreamLatencyMax() {
+    return toMillis(upstreamLatency.getMax());
+  }
+
+  @Override
+  public long getLockWaitCount() {
+    return lockWait.getCount();
+  }
+
+  @Override
+  public double getLockWaitTime() {
+    return toMillis(lockWait.getSum());
+  }
+
+  @Override
+  public long getRateLimitWaitCount() {
+    return rateLimitWait.getCount();
+  }
+
+  @Override
+  public double getRateLimitWaitTime() {
+    return toMillis(rateLimitWait.getSum());
+  }
+
+  @Override
+  public double getRateLimitWaitP99() {
+    return toMillis(rateLimitWait.getPercentile(0.99));
+  }
+
+  /**
+   * Gets the histogram of the latencies of the upstream calls (single or
+   * batch), in nanoseconds.
+   * 
+   * @return the histogram
+   */
+  public JaTooWeatherHistogram getUpstreamLatency() {
+    return this.upstreamLatency;
+  }
+
+  /**
+   * Gets the histogram of the waits for the fetches (of the same city) of
+   * other callers, in nanoseconds.
+   * 
+   * @return the histogram
+   */
+  public JaTooWeatherHistogram getLockWait() {
+    return this.lockWait;
+  }
+
+  /**
+   * Gets the histogram of the waits for the permits of the rate limiter, in
+   * nanoseconds.
+   * 
+   * @return the histogram
+   */
+  public JaTooWeatherHistogram getRateLimitWait() {
+    return this.rateLimitWait;
+  }
+
+  static double toMillis(final long nanos) {
+    return (double) nanos / TimeUnit.MILLISECONDS.toNanos(1);
+  }
+
+}
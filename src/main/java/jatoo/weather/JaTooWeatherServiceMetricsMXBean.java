@@ -0,0 +1,66 @@
+/*
+ * Copyright (C) Cristian Sulea ( http://cristian.sulea.net )
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package jatoo.weather;
+
+/**
+ * The JMX view of the metrics of a weather service (the durations are in
+ * milliseconds).
+ * 
+ * @author <a href="http://cristian.sulea.net" rel="author">Cristian Sulea</a>
+ * @version 1.0, October 18, 2026
+ * 
+ * @see JaTooWeatherServiceMetrics
+ */
+public interface JaTooWeatherServiceMetricsMXBean {
+
+  long getHitCount();
+
+  long getStaleCount();
+
+  long getMissCount();
+
+  long getInFlightCount();
+
+  long getUpstreamCallCount();
+
+  long getUpstreamFailureCount();
+
+  long getRejectedCount();
+
+  long getThrottledCount();
+
+  long getCancelledCount();
+
+  double getUpstreamLatencyP50();
+
+  double getUpstreamLatencyP99();
+
+  double getUpstreamLatencyMax();
+
+  long getLockWaitCount();
+
+  double getLockWaitTime();
+
+  long getRateLimitWaitCount();
+
+  double getRateLimitWaitTime();
+
+  double getRateLimitWaitP99();
+
+}
@@ -0,0 +1,263 @@
+/*
+ * Copyright (C) Cristian Sulea ( http://cristian.sulea.net )
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package jatoo.weather;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.time.ZoneId;
+import java.util.Base64;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.junit.Assert;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+public class JaTooWeatherCacheBinaryCodecTest {
+
+  @BeforeClass
+  public static void setUpClass() throws Throwable {
+    JaTooWeatherTestSupport.useTemporaryCache();
+  }
+
+  /**
+   * A snapshot with one object (the one of {@link #getJaTooWeather()}), as
+   * serialized by the first release.
+   */
+  private static final String LEGACY_SNAPSHOT = ""
+      + "rO0ABXNyABFqYXZhLnV0aWwuSGFzaE1hcAUH2sHDFmDRAwACRgAKbG9hZEZhY3RvckkACXRocmVzaG9sZHhwP0AAAAAAAAx3CAAA"
+      + "ABAAAAABdAADa2V5c3IAJWphdG9vLndlYXRoZXIuSmFUb29XZWF0aGVyQ2FjaGVPYmplY3Q8Sf8gwnVf+gIAFUoACXRpbWVzdGFt"
+      + "cEwABGNpdHl0ABJMamF2YS9sYW5nL1N0cmluZztMAAZjbG91ZHN0ABJMamF2YS9sYW5nL051bWJlcjtMAApjbG91ZHNVbml0dAAo"
+      + "TGphdG9vL3dlYXRoZXIvSmFUb29XZWF0aGVyJENMT1VEU19VTklUO0wAC2Rlc2NyaXB0aW9ucQB+AARMAAhodW1pZGl0eXEAfgAF"
+      + "TAAMaHVtaWRpdHlVbml0dAAqTGphdG9vL3dlYXRoZXIvSmFUb29XZWF0aGVyJEhVTUlESVRZX1VOSVQ7TAAIcHJlc3N1cmVxAH4A"
+      + "BUwADHByZXNzdXJlVW5pdHQAKkxqYXRvby93ZWF0aGVyL0phVG9vV2VhdGhlciRQUkVTU1VSRV9VTklUO0wABHJhaW5xAH4ABUwA"
+      + "CHJhaW5Vbml0dAAmTGphdG9vL3dlYXRoZXIvSmFUb29XZWF0aGVyJFJBSU5fVU5JVDtMAARzbm93cQB+AAVMAAhzbm93VW5pdHQA"
+      + "JkxqYXRvby93ZWF0aGVyL0phVG9vV2VhdGhlciRTTk9XX1VOSVQ7TAAHc3VucmlzZXQAEExqYXZhL2xhbmcvTG9uZztMAAZzdW5z"
+      + "ZXRxAH4AC0wAC3RlbXBlcmF0dXJlcQB+AAVMAA90ZW1wZXJhdHVyZVVuaXR0AC1MamF0b28vd2VhdGhlci9KYVRvb1dlYXRoZXIk"
+      + "VEVNUEVSQVRVUkVfVU5JVDtMAAR3aW5kcQB+AAVMAA13aW5kRGlyZWN0aW9ucQB+AAVMABF3aW5kRGlyZWN0aW9uVW5pdHQAMExq"
+      + "YXRvby93ZWF0aGVyL0phVG9vV2VhdGhlciRXSU5EX0RJUkVDVElPTl9VTklUO0wACHdpbmRVbml0dAAmTGphdG9vL3dlYXRoZXIv"
+      + "SmFUb29XZWF0aGVyJFdJTkRfVU5JVDt4cAAAAVes1nOwdAAGNjgzNTA2c3IAEWphdmEubGFuZy5JbnRlZ2VyEuKgpPeBhzgCAAFJ"
+      + "AAV2YWx1ZXhyABBqYXZhLmxhbmcuTnVtYmVyhqyVHQuU4IsCAAB4cAAAADh+cgAmamF0b28ud2VhdGhlci5KYVRvb1dlYXRoZXIk"
+      + "Q0xPVURTX1VOSVQAAAAAAAAAABIAAHhyAA5qYXZhLmxhbmcuRW51bQAAAAAAAAAAEgAAeHB0AAdQRVJDRU5UdAANYnJva2VuIGNs"
+      + "b3Vkc3NxAH4AEQAAAE9+cgAoamF0b28ud2VhdGhlci5KYVRvb1dlYXRoZXIkSFVNSURJVFlfVU5JVAAAAAAAAAAAEgAAeHEAfgAV"
+      + "dAAHUEVSQ0VOVHNyABBqYXZhLmxhbmcuRG91YmxlgLPCSilr+wQCAAFEAAV2YWx1ZXhxAH4AEkCQCsKPXCj2fnIAKGphdG9vLndl"
+      + "YXRoZXIuSmFUb29XZWF0aGVyJFBSRVNTVVJFX1VOSVQAAAAAAAAAABIAAHhxAH4AFXQAA0hQQXBwcHBzcgAOamF2YS5sYW5nLkxv"
+      + "bmc7i+SQzI8j3wIAAUoABXZhbHVleHEAfgASAAABV6zWc7BzcQB+ACIAAAFXrz7kSHNxAH4AHUAuI9cKPXCkfnIAK2phdG9vLndl"
+      + "YXRoZXIuSmFUb29XZWF0aGVyJFRFTVBFUkFUVVJFX1VOSVQAAAAAAAAAABIAAHhxAH4AFXQAB0NFTFNJVVNzcQB+AB1AAa4UeuFH"
+      + "rnNxAH4AHUBMwDEm6XjVfnIALmphdG9vLndlYXRoZXIuSmFUb29XZWF0aGVyJFdJTkRfRElSRUNUSU9OX1VOSVQAAAAAAAAAABIA"
+      + "AHhxAH4AFXQAFkRFR1JFRVNfTUVURU9ST0xPR0lDQUx+cgAkamF0b28ud2VhdGhlci5KYVRvb1dlYXRoZXIkV0lORF9VTklUAAAA"
+      + "AAAAAAASAAB4cQB+ABV0AA1NRVRFUl9QRVJfU0VDeA==";
+
+  private final JaTooWeatherService service = new JaTooWeatherService() {
+    protected JaTooWeather getWeatherImpl(String city) {
+      return null;
+    }
+  };
+
+  @Test
+  public void testRoundTrip() throws Throwable {
+
+    JaTooWeatherCacheObject object = new JaTooWeatherCacheObject(getJaTooWeather());
+    JaTooWeatherCacheObject copy = roundTrip(object);
+
+    assertEquals(object, copy);
+
+    Assert.assertEquals("Temperature: 15.07 °C", new JaTooWeather(service, copy).getTemperatureTextFull());
+    Assert.assertEquals("Humidity: 79 %", new JaTooWeather(service, copy).getHumidityTextFull());
+  }
+
+  @Test
+  public void testRoundTripMissingValues() throws Throwable {
+
+    JaTooWeather weather = new JaTooWeather(service);
+    weather.timestamp = 1476073518000L;
+
+    JaTooWeatherCacheObject object = new JaTooWeatherCacheObject(weather);
+    JaTooWeatherCacheObject copy = roundTrip(object);
+
+    assertEquals(object, copy);
+  }
+
+  @Test
+  public void testRoundTripNumberTypes() throws Throwable {
+
+    JaTooWeather weather = getJaTooWeather();
+    weather.temperature = 15.07f;
+    weather.pressure = 1026L;
+    weather.sunset = null;
+    weather.zone = ZoneId.of("Europe/Bucharest");
+    weather.latitude = 45.6427;
+    weather.longitude = 25.5887;
+
+    JaTooWeatherCacheObject object = new JaTooWeatherCacheObject(weather);
+    JaTooWeatherCacheObject copy = roundTrip(object);
+
+    assertEquals(object, copy);
+
+    Assert.assertEquals(Float.valueOf(15.07f), copy.getTemperature());
+    Assert.assertEquals(Integer.valueOf(1026), copy.getPressure());
+    Assert.assertEquals(1026.0, copy.getPressureValue(), 0);
+    Assert.assertEquals(Double.NaN, copy.getRainValue(), 0);
+  }
+
+  @Test
+  public void testRoundTripExpiration() throws Throwable {
+
+    JaTooWeatherCacheObject object = new JaTooWeatherCacheObject(getJaTooWeather(), 90000);
+    JaTooWeatherCacheObject copy = roundTrip(object);
+
+    assertEquals(object, copy);
+
+    Assert.assertEquals(90000, copy.getExpiration());
+    Assert.assertEquals(0, roundTrip(new JaTooWeatherCacheObject(getJaTooWeather())).getExpiration());
+  }
+
+  @Test
+  public void testNewerValuesSkipped() throws Throwable {
+
+    JaTooWeatherCacheCodec codec = new JaTooWeatherCacheBinaryCodec();
+    JaTooWeatherCacheObject object = new JaTooWeatherCacheObject(getJaTooWeather());
+
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    codec.write(new DataOutputStream(bytes), object);
+
+    byte[] record = bytes.toByteArray();
+
+    // the same object, with a value added by a newer version at the end
+    ByteArrayOutputStream newer = new ByteArrayOutputStream();
+    DataOutputStream out = new DataOutputStream(newer);
+    out.writeInt(record.length - 4 + 8);
+    out.write(record, 4, record.length - 4);
+    out.writeDouble(12.34);
+    out.write(record);
+
+    DataInputStream in = new DataInputStream(new ByteArrayInputStream(newer.toByteArray()));
+
+    assertEquals(object, codec.read(in, codec.getVersion()));
+    assertEquals(object, codec.read(in, codec.getVersion()));
+
+    Assert.assertEquals(0, in.available());
+  }
+
+  @Test
+  public void testVersion2() throws Throwable {
+
+    JaTooWeatherCacheCodec codec = new JaTooWeatherCacheBinaryCodec();
+    JaTooWeatherCacheObject object = new JaTooWeatherCacheObject(getJaTooWeather());
+
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    codec.write(new DataOutputStream(bytes), object);
+
+    // version 2 had the same values, without the length
+    byte[] record = bytes.toByteArray();
+    DataInputStream in = new DataInputStream(new ByteArrayInputStream(record, 4, record.length - 4));
+
+    assertEquals(object, codec.read(in, 2));
+
+    Assert.assertEquals(0, in.available());
+  }
+
+  @Test
+  public void testLegacySnapshot() throws Throwable {
+
+    Map<String, JaTooWeatherCacheObject> cache = new HashMap<>();
+    JaTooWeatherCacheLegacyReader.readSnapshot(new ByteArrayInputStream(Base64.getDecoder().decode(LEGACY_SNAPSHOT)), cache);
+
+    assertEquals(new JaTooWeatherCacheObject(getJaTooWeather()), cache.get("key"));
+  }
+
+  private JaTooWeatherCacheObject roundTrip(final JaTooWeatherCacheObject object) throws Throwable {
+
+    JaTooWeatherCacheCodec codec = new JaTooWeatherCacheBinaryCodec();
+
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    codec.write(new DataOutputStream(bytes), object);
+
+    DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes.toByteArray()));
+    JaTooWeatherCacheObject copy = codec.read(in, codec.getVersion());
+
+    Assert.assertEquals(0, in.available());
+
+    return copy;
+  }
+
+  private void assertEquals(final JaTooWeatherCacheObject expected, final JaTooWeatherCacheObject actual) {
+
+    Assert.assertEquals(expected.getTimestamp(), actual.getTimestamp());
+    Assert.assertEquals(expected.getCity(), actual.getCity());
+    Assert.assertEquals(expected.getDescription(), actual.getDescription());
+    Assert.assertEquals(expected.getTemperature(), actual.getTemperature());
+    Assert.assertEquals(expected.getTemperatureUnit(), actual.getTemperatureUnit());
+    Assert.assertEquals(expected.getHumidity(), actual.getHumidity());
+    Assert.assertEquals(expected.getHumidityUnit(), actual.getHumidityUnit());
+    Assert.assertEquals(expected.getPressure(), actual.getPressure());
+    Assert.assertEquals(expected.getPressureUnit(), actual.getPressureUnit());
+    Assert.assertEquals(expected.getWind(), actual.getWind());
+    Assert.assertEquals(expected.getWindUnit(), actual.getWindUnit());
+    Assert.assertEquals(expected.getWindDirection(), actual.getWindDirection());
+    Assert.assertEquals(expected.getWindDirectionUnit(), actual.getWindDirectionUnit());
+    Assert.assertEquals(expected.getClouds(), actual.getClouds());
+    Assert.assertEquals(expected.getCloudsUnit(), actual.getCloudsUnit());
+    Assert.assertEquals(expected.getRain(), actual.getRain());
+    Assert.assertEquals(expected.getRainUnit(), actual.getRainUnit());
+    Assert.assertEquals(expected.getSnow(), actual.getSnow());
+    Assert.assertEquals(expected.getSnowUnit(), actual.getSnowUnit());
+    Assert.assertEquals(expected.getSunrise(), actual.getSunrise());
+    Assert.assertEquals(expected.getSunset(), actual.getSunset());
+    Assert.assertEquals(expected.getZone(), actual.getZone());
+    Assert.assertEquals(expected.getLatitude(), actual.getLatitude());
+    Assert.assertEquals(expected.getLongitude(), actual.getLongitude());
+    Assert.assertEquals(expected.getExpiration(), actual.getExpiration());
+  }
+
+  private JaTooWeather getJaTooWeather() {
+
+    JaTooWeather weather = new JaTooWeather(service);
+
+    weather.timestamp = 1476073518000L;
+
+    weather.city = "683506";
+    weather.description = "broken clouds";
+
+    weather.temperature = 15.07;
+    weather.temperatureUnit = JaTooWeather.TEMPERATURE_UNIT.CELSIUS;
+
+    weather.humidity = 79;
+    weather.humidityUnit = JaTooWeather.HUMIDITY_UNIT.PERCENT;
+
+    weather.pressure = 1026.69;
+    weather.pressureUnit = JaTooWeather.PRESSURE_UNIT.HPA;
+
+    weather.wind = 2.21;
+    weather.windUnit = JaTooWeather.WIND_UNIT.METER_PER_SEC;
+
+    weather.windDirection = 57.5015;
+    weather.windDirectionUnit = JaTooWeather.WIND_DIRECTION_UNIT.DEGREES_METEOROLOGICAL;
+
+    weather.clouds = 56;
+    weather.cloudsUnit = JaTooWeather.CLOUDS_UNIT.PERCENT;
+
+    weather.sunrise = 1476073518000L;
+    weather.sunset = 1476113917000L;
+
+    return weather;
+  }
+
+}
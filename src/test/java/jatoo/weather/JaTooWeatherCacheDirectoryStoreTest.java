@@ -0,0 +1,125 @@
+/*
+ * Copyright (C) Cristian Sulea ( http://cristian.sulea.net )
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package jatoo.weather;
+
+import java.io.File;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+public class JaTooWeatherCacheDirectoryStoreTest {
+
+  @BeforeClass
+  public static void setUpClass() throws Throwable {
+    JaTooWeatherTestSupport.useTemporaryCache();
+  }
+
+  private final AtomicInteger calls = new AtomicInteger();
+
+  private File directory;
+
+  private final JaTooWeatherService service = new JaTooWeatherService() {
+    protected JaTooWeather getWeatherImpl(String city) {
+
+      calls.incrementAndGet();
+
+      JaTooWeather weather = new JaTooWeather(this);
+      weather.city = city;
+      weather.description = "fetched";
+
+      return weather;
+    }
+  };
+
+  @Before
+  public void setUp() throws Throwable {
+    directory = JaTooWeatherTestSupport.createTempDirectory("jatoo-weather-store");
+  }
+
+  @After
+  public void tearDown() {
+    JaTooWeatherTestSupport.delete(directory);
+  }
+
+  @Test
+  public void testPutAndGet() throws Throwable {
+
+    JaTooWeatherCacheDirectoryStore store = new JaTooWeatherCacheDirectoryStore(directory);
+
+    JaTooWeather weather = new JaTooWeather(service);
+    weather.timestamp = System.currentTimeMillis();
+    weather.city = "Brasov";
+    weather.description = "shared";
+    weather.temperature = 21.5;
+
+    store.put("key", new JaTooWeatherCacheObject(weather), 0);
+    store.put("expired", new JaTooWeatherCacheObject(weather), 1);
+
+    Thread.sleep(10);
+
+    JaTooWeatherCacheObject object = store.get("key");
+
+    Assert.assertEquals("shared", object.getDescription());
+    Assert.assertEquals(21.5, object.getTemperatureValue(), 0);
+    Assert.assertEquals(weather.timestamp, object.getTimestamp());
+
+    Assert.assertNull(store.get("expired"));
+    Assert.assertNull(store.get("missing"));
+
+    Assert.assertEquals(1, store.purge());
+    Assert.assertEquals(1, store.getDirectory().list().length);
+  }
+
+  @Test
+  public void testSharedLookup() throws Throwable {
+
+    JaTooWeatherCache cache = JaTooWeatherCache.getInstance();
+
+    String city = "Shared-" + System.nanoTime();
+
+    JaTooWeather weather = new JaTooWeather(service);
+    weather.timestamp = System.currentTimeMillis();
+    weather.city = city;
+    weather.description = "from another node";
+
+    // another node fetched it
+    new JaTooWeatherCacheDirectoryStore(directory).put(cache.createKey(service, city), new JaTooWeatherCacheObject(weather), 0);
+
+    try {
+
+      cache.setStore(new JaTooWeatherCacheDirectoryStore(directory));
+
+      Assert.assertEquals("from another node", service.getWeather(city).getDescription());
+      Assert.assertEquals(0, calls.get());
+
+      Assert.assertEquals("fetched", service.getWeather(city + "-other").getDescription());
+      Assert.assertEquals(1, calls.get());
+      Assert.assertEquals("fetched", cache.getStore().get(cache.createKey(service, city + "-other")).getDescription());
+    }
+
+    finally {
+      cache.setStore(null);
+    }
+  }
+
+}
@@ -0,0 +1,163 @@
+/*
+ * Copyright (C) Cristian Sulea ( http://cristian.sulea.net )
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package jatoo.weather;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+public class JaTooWeatherCacheJournalTest {
+
+  private final JaTooWeatherService service = new JaTooWeatherService() {
+    protected JaTooWeather getWeatherImpl(String city) {
+      return null;
+    }
+  };
+
+  private File directory;
+  private File file;
+
+  @Before
+  public void setUp() throws Throwable {
+    directory = JaTooWeatherTestSupport.createTempDirectory("jatoo-weather-journal");
+    file = new File(directory, "cache.journal");
+  }
+
+  @After
+  public void tearDown() {
+    JaTooWeatherTestSupport.delete(directory);
+  }
+
+  @Test
+  public void testReplay() throws Throwable {
+
+    JaTooWeatherCacheJournal journal = createJournal();
+
+    for (int i = 0; i < 3; i++) {
+      journal.append("key" + i, getObject("city" + i));
+    }
+
+    journal.flush();
+    journal.close();
+
+    List<String> keys = new ArrayList<>();
+    List<String> cities = new ArrayList<>();
+
+    JaTooWeatherCacheJournal replayed = createJournal();
+
+    Assert.assertEquals(3, replayed.replay((key, object) -> {
+      keys.add(key);
+      cities.add(object.getCity());
+    }));
+
+    Assert.assertEquals(3, replayed.size());
+    Assert.assertFalse(replayed.isOutdated());
+
+    // in the order they were appended
+    for (int i = 0; i < 3; i++) {
+      Assert.assertEquals("key" + i, keys.get(i));
+      Assert.assertEquals("city" + i, cities.get(i));
+    }
+  }
+
+  @Test
+  public void testTruncatedLastRecord() throws Throwable {
+
+    JaTooWeatherCacheJournal journal = createJournal();
+
+    journal.append("key0", getObject("city0"));
+    journal.append("key1", getObject("city1"));
+    journal.flush();
+
+    long length = file.length();
+
+    journal.append("key2", getObject("city2"));
+    journal.flush();
+    journal.close();
+
+    // a crash in the middle of the last record
+    try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+      raf.setLength(file.length() - 5);
+    }
+
+    List<String> keys = new ArrayList<>();
+
+    JaTooWeatherCacheJournal replayed = createJournal();
+    Assert.assertEquals(2, replayed.replay((key, object) -> keys.add(key)));
+
+    Assert.assertEquals("key1", keys.get(keys.size() - 1));
+
+    // discarded, so the next records are readable
+    Assert.assertEquals(length, file.length());
+
+    replayed.append("key3", getObject("city3"));
+    replayed.flush();
+    replayed.close();
+
+    keys.clear();
+
+    Assert.assertEquals(3, createJournal().replay((key, object) -> keys.add(key)));
+    Assert.assertEquals("key3", keys.get(2));
+  }
+
+  @Test
+  public void testTruncate() throws Throwable {
+
+    JaTooWeatherCacheJournal journal = createJournal();
+
+    journal.append("key0", getObject("city0"));
+    journal.flush();
+
+    journal.truncate();
+
+    Assert.assertEquals(0, journal.size());
+    Assert.assertEquals(0, file.length());
+
+    // with a new header
+    journal.append("key1", getObject("city1"));
+    journal.flush();
+    journal.close();
+
+    List<String> keys = new ArrayList<>();
+
+    Assert.assertEquals(1, createJournal().replay((key, object) -> keys.add(key)));
+    Assert.assertEquals("key1", keys.get(0));
+  }
+
+  private JaTooWeatherCacheJournal createJournal() {
+    return new JaTooWeatherCacheJournal(file, new JaTooWeatherCacheBinaryCodec());
+  }
+
+  private JaTooWeatherCacheObject getObject(final String city) {
+
+    JaTooWeather weather = new JaTooWeather(service);
+    weather.timestamp = System.currentTimeMillis();
+    weather.city = city;
+    weather.temperature = 15.07;
+
+    return new JaTooWeatherCacheObject(weather);
+  }
+
+}
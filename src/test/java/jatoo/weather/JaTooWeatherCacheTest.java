@@ -0,0 +1,368 @@
+/*
+ * Copyright (C) Cristian Sulea ( http://cristian.sulea.net )
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package jatoo.weather;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.channels.ClosedByInterruptException;
+import java.nio.channels.FileLock;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Assert;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+public class JaTooWeatherCacheTest {
+
+  @BeforeClass
+  public static void setUpClass() throws Throwable {
+    JaTooWeatherTestSupport.useTemporaryCache();
+  }
+
+  private final JaTooWeatherService service = new JaTooWeatherService() {
+    protected JaTooWeather getWeatherImpl(String city) {
+      return null;
+    }
+  };
+
+  @Test
+  public void testSyncWithOtherProcess() throws Throwable {
+
+    JaTooWeatherCache cache = JaTooWeatherCache.getInstance();
+    Assert.assertTrue(cache.awaitLoaded(10, TimeUnit.SECONDS));
+
+    File directory = JaTooWeatherCache.getDirectory();
+    directory.mkdirs();
+
+    JaTooWeatherCacheCodec codec = new JaTooWeatherCacheBinaryCodec();
+
+    // another process appends to the journal
+    String appended = "appended-" + System.nanoTime();
+
+    JaTooWeatherCacheJournal journal = new JaTooWeatherCacheJournal(new File(directory, "cache.journal"), codec);
+    journal.append(cache.createKey(service, appended), getObject(appended, 90000));
+    journal.flush();
+    journal.close();
+
+    Assert.assertTrue(awaitEntry(cache, service, appended));
+
+    // with the (adapted) expiration it was cached with
+    Assert.assertEquals(90000, cache.peekEntry(service, appended).getExpiration());
+
+    // another process saves a new snapshot
+    String saved = "saved-" + System.nanoTime();
+
+    File temporary = new File(directory, "cache.test");
+
+    try (DataOutputStream out = new DataOutputStream(new FileOutputStream(temporary))) {
+
+      JaTooWeatherCache.writeHeader(out, codec);
+
+      out.writeBoolean(true);
+      out.writeUTF(cache.createKey(service, saved));
+      codec.write(out, getObject(saved));
+
+      out.writeBoolean(false);
+    }
+
+    Assert.assertTrue(temporary.renameTo(new File(directory, "cache.obj")));
+
+    JaTooWeatherCacheLock lock = new JaTooWeatherCacheLock(new File(directory, "cache.lock"));
+    lock.incrementGeneration();
+    lock.close();
+
+    Assert.assertTrue(awaitEntry(cache, service, saved));
+    Assert.assertNotNull(cache.peekEntry(service, appended));
+  }
+
+  @Test
+  public void testJournalCompaction() throws Throwable {
+
+    JaTooWeatherCache cache = JaTooWeatherCache.getInstance();
+    Assert.assertTrue(cache.awaitLoaded(10, TimeUnit.SECONDS));
+
+    long saves = cache.getMetrics().getSaveCount();
+
+    List<String> cities = new ArrayList<>();
+
+    for (int i = 0; i < 1500; i++) {
+
+      String city = "compacted-" + i + "-" + System.nanoTime();
+      cities.add(city);
+
+      cache.add(service, city, new JaTooWeather(service, getObject(city)));
+    }
+
+    // the journal grew too big, so the whole cache was saved
+    long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+
+    while (cache.getMetrics().getSaveCount() == saves && System.nanoTime() < deadline) {
+      Thread.sleep(50);
+    }
+
+    Assert.assertTrue(cache.getMetrics().getSaveCount() > saves);
+    Assert.assertTrue(cache.flush());
+
+    Set<String> keys = readKeys(JaTooWeatherCache.getDirectory());
+
+    for (String city : cities) {
+      Assert.assertTrue(keys.contains(cache.createKey(service, city)));
+    }
+  }
+
+  @Test
+  public void testEvictionAfterSync() throws Throwable {
+
+    JaTooWeatherCache cache = JaTooWeatherCache.getInstance();
+    Assert.assertTrue(cache.awaitLoaded(10, TimeUnit.SECONDS));
+
+    int maximumSize = cache.getMaximumSize();
+    cache.setMaximumSize(cache.getSize() + 10);
+
+    try {
+
+      long evictions = cache.getEvictionCount();
+
+      // another process appends more than fits
+      JaTooWeatherCacheJournal journal = new JaTooWeatherCacheJournal(new File(JaTooWeatherCache.getDirectory(), "cache.journal"), new JaTooWeatherCacheBinaryCodec());
+
+      for (int i = 0; i < 50; i++) {
+        String city = "evicted-" + i + "-" + System.nanoTime();
+        journal.append(cache.createKey(service, city), getObject(city));
+      }
+
+      journal.flush();
+      journal.close();
+
+      long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+
+      while (cache.getEvictionCount() - evictions < 40 && System.nanoTime() < deadline) {
+        Thread.sleep(50);
+      }
+
+      Assert.assertTrue(cache.getEvictionCount() - evictions >= 40);
+      Assert.assertTrue(cache.getSize() <= cache.getMaximumSize());
+    }
+
+    finally {
+      cache.setMaximumSize(maximumSize);
+    }
+  }
+
+  @Test
+  public void testWriteBehind() throws Throwable {
+
+    JaTooWeatherCache cache = JaTooWeatherCache.getInstance();
+    Assert.assertTrue(cache.awaitLoaded(10, TimeUnit.SECONDS));
+
+    Assert.assertFalse(cache.isWriteBehind());
+
+    cache.setWriteBehindInterval(TimeUnit.HOURS.toMillis(1));
+    cache.setWriteBehind(true);
+
+    try {
+
+      JaTooWeatherService service = new JaTooWeatherService() {
+        protected JaTooWeather getWeatherImpl(String city) {
+          return new JaTooWeather(this, getObject(city));
+        }
+      };
+
+      long id = System.nanoTime();
+      List<String> cities = new ArrayList<>();
+
+      for (int i = 0; i < 20; i++) {
+        cities.add("burst-" + i + "-" + id);
+      }
+
+      long writes = getWriteCount(cache);
+
+      // a burst of misses is not written yet
+      Assert.assertEquals(cities.size(), service.getWeather(cities).size());
+      Assert.assertEquals(writes, getWriteCount(cache));
+
+      // but with one write
+      Assert.assertTrue(cache.flush());
+      Assert.assertEquals(writes + 1, getWriteCount(cache));
+
+      Set<String> keys = readKeys(JaTooWeatherCache.getDirectory());
+
+      for (String city : cities) {
+        Assert.assertTrue(keys.contains(cache.createKey(service, city)));
+      }
+
+      // and the dirty ones are written on exit
+      String city = "exit-" + id;
+      cache.add(service, city, new JaTooWeather(service, getObject(city)));
+
+      Assert.assertFalse(readKeys(JaTooWeatherCache.getDirectory()).contains(cache.createKey(service, city)));
+
+      cache.shutdownHook.run();
+
+      Assert.assertTrue(readKeys(JaTooWeatherCache.getDirectory()).contains(cache.createKey(service, city)));
+    }
+
+    finally {
+      cache.setWriteBehind(false);
+      cache.setWriteBehindInterval(TimeUnit.SECONDS.toMillis(5));
+    }
+  }
+
+  @Test
+  public void testLockAfterInterrupt() throws Throwable {
+
+    JaTooWeatherCacheLock lock = new JaTooWeatherCacheLock(new File(JaTooWeatherTestSupport.createTempDirectory("jatoo-weather-lock"), "cache.lock"));
+
+    try {
+
+      lock.incrementGeneration();
+
+      // the channel is closed by the interrupt
+      Thread.currentThread().interrupt();
+
+      try {
+        lock.getGeneration();
+        Assert.fail("not interrupted");
+      }
+
+      catch (ClosedByInterruptException e) {
+        // expected
+      }
+
+      finally {
+        Assert.assertTrue(Thread.interrupted());
+      }
+
+      // and opened again by the next thread
+      try (FileLock taken = lock.lock()) {
+        Assert.assertTrue(taken.isValid());
+      }
+
+      Assert.assertEquals(1, lock.getGeneration());
+      Assert.assertEquals(2, lock.incrementGeneration());
+    }
+
+    finally {
+      lock.close();
+    }
+  }
+
+  @Test
+  public void testHitsShareBoxes() {
+
+    JaTooWeather weather = new JaTooWeather(service);
+    weather.temperature = 21.5;
+    weather.humidity = 1000;
+    weather.sunrise = System.currentTimeMillis();
+    weather.latitude = 46.77;
+
+    JaTooWeatherCacheObject object = new JaTooWeatherCacheObject(weather);
+
+    JaTooWeather hit1 = new JaTooWeather(service, object);
+    JaTooWeather hit2 = new JaTooWeather(service, object);
+
+    Assert.assertEquals(weather.temperature, hit1.temperature);
+    Assert.assertEquals(weather.humidity, hit1.humidity);
+    Assert.assertNull(hit1.pressure);
+
+    // boxed once, on the first hit
+    Assert.assertSame(hit1.temperature, hit2.temperature);
+    Assert.assertSame(hit1.humidity, hit2.humidity);
+    Assert.assertSame(hit1.sunrise, hit2.sunrise);
+    Assert.assertSame(hit1.latitude, hit2.latitude);
+  }
+
+  private static boolean awaitEntry(final JaTooWeatherCache cache, final JaTooWeatherService service, final String city) throws InterruptedException {
+
+    long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+
+    while (cache.peekEntry(service, city) == null) {
+
+      if (System.nanoTime() > deadline) {
+        return false;
+      }
+
+      Thread.sleep(50);
+    }
+
+    return true;
+  }
+
+  /**
+   * Gets the number of writes (the directory locked to append to the journal,
+   * the compactions apart).
+   */
+  private static long getWriteCount(final JaTooWeatherCache cache) {
+    return cache.getMetrics().getLockWaitCount() - cache.getMetrics().getSaveCount();
+  }
+
+  /**
+   * Reads the keys on disk, from the snapshot and from the journal.
+   */
+  private static Set<String> readKeys(final File directory) throws IOException {
+
+    Set<String> keys = new HashSet<>();
+
+    JaTooWeatherCacheCodec codec = new JaTooWeatherCacheBinaryCodec();
+    File snapshot = new File(directory, "cache.obj");
+
+    if (snapshot.exists()) {
+
+      try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(snapshot)))) {
+
+        int version = JaTooWeatherCache.readHeader(in);
+
+        while (in.readBoolean()) {
+          keys.add(in.readUTF());
+          codec.read(in, version);
+        }
+      }
+    }
+
+    JaTooWeatherCacheJournal journal = new JaTooWeatherCacheJournal(new File(directory, "cache.journal"), codec);
+    journal.replay((key, object) -> keys.add(key));
+    journal.close();
+
+    return keys;
+  }
+
+  private JaTooWeatherCacheObject getObject(final String city) {
+    return getObject(city, 0);
+  }
+
+  private JaTooWeatherCacheObject getObject(final String city, final long expiration) {
+
+    JaTooWeather weather = new JaTooWeather(service);
+    weather.timestamp = System.currentTimeMillis();
+    weather.city = city;
+    weather.description = "from another process";
+
+    return new JaTooWeatherCacheObject(weather, expiration);
+  }
+
+}
@@ -0,0 +1,170 @@
+/*
+ * Copyright (C) Cristian Sulea ( http://cristian.sulea.net )
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package jatoo.weather;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Assert;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+public class JaTooWeatherCircuitBreakerTest {
+
+  @BeforeClass
+  public static void setUpClass() throws Throwable {
+    JaTooWeatherTestSupport.useTemporaryCache();
+  }
+
+  @Test
+  public void testStates() throws Throwable {
+
+    JaTooWeatherCircuitBreaker circuitBreaker = new JaTooWeatherCircuitBreaker();
+    circuitBreaker.setFailureThreshold(3);
+    circuitBreaker.setOpenDuration(100);
+
+    // open after the consecutive failures
+    circuitBreaker.onFailure();
+    circuitBreaker.onFailure();
+    Assert.assertEquals(JaTooWeatherCircuitBreaker.STATE.CLOSED, circuitBreaker.getState());
+    Assert.assertTrue(circuitBreaker.allowRequest());
+
+    circuitBreaker.onFailure();
+    Assert.assertEquals(JaTooWeatherCircuitBreaker.STATE.OPEN, circuitBreaker.getState());
+    Assert.assertFalse(circuitBreaker.allowRequest());
+
+    // a single trial, once the open duration passed
+    Thread.sleep(150);
+
+    Assert.assertTrue(circuitBreaker.allowRequest());
+    Assert.assertEquals(JaTooWeatherCircuitBreaker.STATE.HALF_OPEN, circuitBreaker.getState());
+    Assert.assertFalse(circuitBreaker.allowRequest());
+
+    // a failed trial opens it again
+    circuitBreaker.onFailure();
+    Assert.assertEquals(JaTooWeatherCircuitBreaker.STATE.OPEN, circuitBreaker.getState());
+    Assert.assertFalse(circuitBreaker.allowRequest());
+
+    // and a successful one closes it
+    Thread.sleep(150);
+
+    Assert.assertTrue(circuitBreaker.allowRequest());
+    circuitBreaker.onSuccess();
+    Assert.assertEquals(JaTooWeatherCircuitBreaker.STATE.CLOSED, circuitBreaker.getState());
+    Assert.assertTrue(circuitBreaker.allowRequest());
+
+    // forgetting the failures
+    circuitBreaker.onFailure();
+    circuitBreaker.onFailure();
+    Assert.assertEquals(JaTooWeatherCircuitBreaker.STATE.CLOSED, circuitBreaker.getState());
+  }
+
+  @Test
+  public void testService() throws Throwable {
+
+    AtomicBoolean up = new AtomicBoolean();
+    AtomicInteger calls = new AtomicInteger();
+
+    JaTooWeatherService service = new JaTooWeatherService() {
+      protected JaTooWeather getWeatherImpl(String city) {
+
+        calls.incrementAndGet();
+
+        if (!up.get()) {
+          throw new IllegalStateException("down");
+        }
+
+        JaTooWeather weather = new JaTooWeather(this);
+        weather.description = "clear sky";
+
+        return weather;
+      }
+    };
+
+    service.getCircuitBreaker().setFailureThreshold(2);
+    service.getCircuitBreaker().setOpenDuration(200);
+
+    long id = System.nanoTime();
+
+    Assert.assertNull(service.getWeather("a" + id));
+    Assert.assertNull(service.getWeather("b" + id));
+    Assert.assertEquals(2, calls.get());
+    Assert.assertEquals(JaTooWeatherCircuitBreaker.STATE.OPEN, service.getCircuitBreaker().getState());
+
+    // failing fast while open
+    Assert.assertNull(service.getWeather("c" + id));
+    Assert.assertEquals(2, calls.get());
+    Assert.assertEquals(1, service.getMetrics().getRejectedCount());
+
+    // closed by a successful trial
+    up.set(true);
+    Thread.sleep(250);
+
+    Assert.assertEquals("clear sky", service.getWeather("c" + id).getDescription());
+    Assert.assertEquals(3, calls.get());
+    Assert.assertEquals(JaTooWeatherCircuitBreaker.STATE.CLOSED, service.getCircuitBreaker().getState());
+  }
+
+  @Test
+  public void testNegativeCache() throws Throwable {
+
+    AtomicBoolean up = new AtomicBoolean();
+    AtomicInteger calls = new AtomicInteger();
+
+    JaTooWeatherService service = new JaTooWeatherService() {
+      protected JaTooWeather getWeatherImpl(String city) {
+
+        calls.incrementAndGet();
+
+        if (!up.get()) {
+          throw new IllegalStateException("not found");
+        }
+
+        JaTooWeather weather = new JaTooWeather(this);
+        weather.description = "clear sky";
+
+        return weather;
+      }
+    };
+
+    service.setNegativeExpiration(200);
+
+    String city = "negative-" + System.nanoTime();
+
+    Assert.assertNull(service.getWeather(city));
+    Assert.assertEquals(1, calls.get());
+
+    // the failure is remembered, for this city only
+    up.set(true);
+
+    Assert.assertNull(service.getWeather(city));
+    Assert.assertEquals(1, calls.get());
+    Assert.assertEquals(1, service.getMetrics().getRejectedCount());
+
+    Assert.assertEquals("clear sky", service.getWeather("other-" + city).getDescription());
+    Assert.assertEquals(2, calls.get());
+
+    // and forgotten after the negative expiration
+    Thread.sleep(250);
+
+    Assert.assertEquals("clear sky", service.getWeather(city).getDescription());
+    Assert.assertEquals(3, calls.get());
+  }
+
+}
@@ -0,0 +1,120 @@
+/*
+ * Copyright (C) Cristian Sulea ( http://cristian.sulea.net )
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package jatoo.weather;
+
+import java.util.concurrent.CountDownLatch;
+
+import org.junit.Assert;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+public class JaTooWeatherHedgedServiceTest {
+
+  @BeforeClass
+  public static void setUpClass() throws Throwable {
+    JaTooWeatherTestSupport.useTemporaryCache();
+  }
+
+  private final CountDownLatch cancelled = new CountDownLatch(1);
+
+  private final JaTooWeatherService slow = new JaTooWeatherService() {
+    protected JaTooWeather getWeatherImpl(String city) throws Throwable {
+
+      try {
+        Thread.sleep(10000);
+      }
+
+      catch (InterruptedException e) {
+        cancelled.countDown();
+        throw e;
+      }
+
+      return getJaTooWeather(this, city, "slow");
+    }
+  };
+
+  private final JaTooWeatherService fast = new JaTooWeatherService() {
+    protected JaTooWeather getWeatherImpl(String city) {
+      return getJaTooWeather(this, city, "fast");
+    }
+  };
+
+  private final JaTooWeatherService failing = new JaTooWeatherService() {
+    protected JaTooWeather getWeatherImpl(String city) {
+      throw new IllegalStateException("down");
+    }
+  };
+
+  @Test
+  public void testHedge() throws Throwable {
+
+    JaTooWeatherHedgedService service = new JaTooWeatherHedgedService(slow, fast);
+    service.setMaximumHedgeRatio(1);
+
+    long start = System.nanoTime();
+
+    Assert.assertEquals("fast", service.getWeather("hedged-" + System.nanoTime(), false).getDescription());
+    Assert.assertTrue(System.nanoTime() - start < 5000000000L);
+    Assert.assertEquals(1, service.getHedgeCount());
+
+    cancelled.await();
+  }
+
+  @Test
+  public void testHedgeIsNotFailure() throws Throwable {
+
+    JaTooWeatherHedgedService service = new JaTooWeatherHedgedService(slow, fast);
+    service.setMaximumHedgeRatio(1);
+
+    for (int i = 0; i < 10; i++) {
+      Assert.assertEquals("fast", service.getWeather("hedged-" + System.nanoTime(), false).getDescription());
+    }
+
+    // the losing calls are cancelled in background
+    long deadline = System.nanoTime() + 5000000000L;
+
+    while (slow.getMetrics().getCancelledCount() < 10 && System.nanoTime() < deadline) {
+      Thread.sleep(10);
+    }
+
+    Assert.assertEquals(10, slow.getMetrics().getCancelledCount());
+    Assert.assertEquals(0, slow.getMetrics().getUpstreamFailureCount());
+    Assert.assertEquals(JaTooWeatherCircuitBreaker.STATE.CLOSED, slow.getCircuitBreaker().getState());
+  }
+
+  @Test
+  public void testFailover() throws Throwable {
+
+    JaTooWeatherHedgedService service = new JaTooWeatherHedgedService(failing, fast);
+    service.setMaximumHedgeRatio(0);
+
+    Assert.assertEquals("fast", service.getWeather("failover-" + System.nanoTime(), false).getDescription());
+    Assert.assertEquals(0, service.getHedgeCount());
+  }
+
+  private JaTooWeather getJaTooWeather(final JaTooWeatherService service, final String city, final String description) {
+
+    JaTooWeather weather = new JaTooWeather(service);
+    weather.city = city;
+    weather.description = description;
+
+    return weather;
+  }
+
+}
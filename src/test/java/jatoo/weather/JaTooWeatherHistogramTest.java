@@ -0,0 +1,65 @@
+/*
+ * Copyright (C) Cristian Sulea ( http://cristian.sulea.net )
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package jatoo.weather;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class JaTooWeatherHistogramTest {
+
+  @Test
+  public void testPercentiles() throws Throwable {
+
+    JaTooWeatherHistogram histogram = new JaTooWeatherHistogram();
+
+    Assert.assertEquals(0, histogram.getPercentile(0.99));
+
+    for (int i = 1; i <= 100000; i++) {
+      histogram.record(i * 1000L);
+    }
+
+    Assert.assertEquals(100000, histogram.getCount());
+    Assert.assertEquals(100000000L, histogram.getMax());
+
+    assertWithin(50000000L, histogram.getPercentile(0.5));
+    assertWithin(99000000L, histogram.getPercentile(0.99));
+    assertWithin(1000L, histogram.getPercentile(0));
+    Assert.assertEquals(100000000L, histogram.getPercentile(1));
+  }
+
+  @Test
+  public void testSmallValues() throws Throwable {
+
+    JaTooWeatherHistogram histogram = new JaTooWeatherHistogram();
+
+    for (int i = 0; i < 10; i++) {
+      histogram.record(i);
+    }
+
+    histogram.record(-5);
+
+    Assert.assertEquals(0, histogram.getPercentile(0.1));
+    Assert.assertEquals(4, histogram.getPercentile(0.5));
+    Assert.assertEquals(9, histogram.getPercentile(1));
+  }
+
+  private static void assertWithin(final long expected, final long actual) {
+    Assert.assertTrue(expected + " ~ " + actual, Math.abs(actual - expected) <= expected / 8);
+  }
+
+}
@@ -0,0 +1,179 @@
+/*
+ * Copyright (C) Cristian Sulea ( http://cristian.sulea.net )
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package jatoo.weather;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Assert;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+public class JaTooWeatherHistoryTest {
+
+  @BeforeClass
+  public static void setUpClass() throws Throwable {
+    JaTooWeatherTestSupport.useTemporaryCache();
+  }
+
+  private final JaTooWeatherService service = new JaTooWeatherService() {
+    protected JaTooWeather getWeatherImpl(String city) {
+      return null;
+    }
+  };
+
+  @Test
+  public void testRoundTrip() throws Throwable {
+
+    JaTooWeatherHistory history = new JaTooWeatherHistory(TimeUnit.DAYS.toMillis(365));
+    List<JaTooWeatherCacheObject> objects = createObjects(System.currentTimeMillis() - TimeUnit.DAYS.toMillis(30), 30 * 288);
+
+    for (JaTooWeatherCacheObject object : objects) {
+      history.add("key", object);
+    }
+
+    List<JaTooWeatherSample> samples = history.get("key", 0, Long.MAX_VALUE);
+
+    Assert.assertEquals(objects.size(), samples.size());
+
+    for (int i = 0; i < objects.size(); i++) {
+
+      JaTooWeatherCacheObject object = objects.get(i);
+      JaTooWeatherSample sample = samples.get(i);
+
+      Assert.assertEquals(object.getTimestamp() / 1000 * 1000, sample.getTimestamp());
+      Assert.assertEquals(object.getTemperatureValue(), sample.getTemperature(), 0);
+      Assert.assertEquals(object.getHumidityValue(), sample.getHumidity(), 0);
+      Assert.assertEquals(object.getPressureValue(), sample.getPressure(), 0);
+      Assert.assertEquals(object.getWindValue(), sample.getWind(), 0);
+      Assert.assertEquals(object.getWindDirectionValue(), sample.getWindDirection(), 0);
+      Assert.assertEquals(object.getCloudsValue(), sample.getClouds(), 0);
+      Assert.assertEquals(object.getRainValue(), sample.getRain(), 0);
+      Assert.assertEquals(object.getSnowValue(), sample.getSnow(), 0);
+    }
+
+    Assert.assertTrue("bytes per sample: " + (double) history.getByteSize() / samples.size(), history.getByteSize() < samples.size() * 16);
+  }
+
+  @Test
+  public void testRangeAndRetention() throws Throwable {
+
+    long now = System.currentTimeMillis();
+
+    JaTooWeatherHistory history = new JaTooWeatherHistory(TimeUnit.DAYS.toMillis(10));
+    List<JaTooWeatherCacheObject> objects = createObjects(now - TimeUnit.DAYS.toMillis(30), 30 * 288);
+
+    for (JaTooWeatherCacheObject object : objects) {
+      history.add("key", object);
+    }
+
+    List<JaTooWeatherSample> samples = history.get("key", 0, Long.MAX_VALUE);
+
+    Assert.assertTrue(samples.get(0).getTimestamp() >= now - TimeUnit.DAYS.toMillis(11));
+    Assert.assertTrue(samples.size() < 11 * 288);
+
+    long from = now - TimeUnit.DAYS.toMillis(2);
+    long to = now - TimeUnit.DAYS.toMillis(1);
+
+    for (JaTooWeatherSample sample : history.get("key", from, to)) {
+      Assert.assertTrue(sample.getTimestamp() >= from && sample.getTimestamp() <= to);
+    }
+
+    Assert.assertEquals(288, history.get("key", from, to).size(), 2);
+  }
+
+  @Test
+  public void testAddWhilePurging() throws Throwable {
+
+    JaTooWeatherHistory history = new JaTooWeatherHistory(TimeUnit.DAYS.toMillis(1));
+    List<JaTooWeatherCacheObject> objects = createObjects(System.currentTimeMillis(), 20000);
+
+    CountDownLatch added = new CountDownLatch(4);
+    List<Thread> threads = new ArrayList<>();
+
+    for (int t = 0; t < 4; t++) {
+
+      int first = t;
+
+      threads.add(new Thread(() -> {
+
+        // a new (empty, so purged) series for every sample
+        for (int i = first; i < objects.size(); i += 4) {
+          history.add("key" + i, objects.get(i));
+        }
+
+        added.countDown();
+      }));
+    }
+
+    threads.forEach(Thread::start);
+
+    while (added.getCount() > 0) {
+      history.purge();
+    }
+
+    for (Thread thread : threads) {
+      thread.join();
+    }
+
+    // no sample lost in a removed series
+    Assert.assertEquals(objects.size(), history.getSampleCount());
+  }
+
+  private List<JaTooWeatherCacheObject> createObjects(final long start, final int count) {
+
+    Random random = new Random(683506);
+    List<JaTooWeatherCacheObject> objects = new ArrayList<>();
+
+    double temperature = 15;
+    int humidity = 79;
+    double pressure = 1026.69;
+
+    for (int i = 0; i < count; i++) {
+
+      JaTooWeather weather = new JaTooWeather(service);
+
+      weather.timestamp = start + i * TimeUnit.MINUTES.toMillis(5) + random.nextInt(3000);
+
+      if (random.nextInt(4) == 0) {
+        temperature = Math.round((temperature + random.nextGaussian() * 0.3) * 100) / 100.0;
+      }
+      if (random.nextInt(10) == 0) {
+        humidity += random.nextInt(3) - 1;
+      }
+      if (random.nextInt(20) == 0) {
+        pressure = Math.round((pressure + random.nextGaussian()) * 100) / 100.0;
+      }
+
+      weather.temperature = temperature;
+      weather.humidity = humidity;
+      weather.pressure = pressure;
+      weather.wind = 2.21;
+      weather.windDirection = 57.5015;
+      weather.clouds = 56;
+
+      objects.add(new JaTooWeatherCacheObject(weather));
+    }
+
+    return objects;
+  }
+
+}
@@ -0,0 +1,110 @@
+/*
+ * Copyright (C) Cristian Sulea ( http://cristian.sulea.net )
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package jatoo.weather;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Assert;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+public class JaTooWeatherRoutingServiceTest {
+
+  @BeforeClass
+  public static void setUpClass() throws Throwable {
+    JaTooWeatherTestSupport.useTemporaryCache();
+  }
+
+  private final AtomicInteger calls = new AtomicInteger();
+
+  private final JaTooWeatherService failing = new JaTooWeatherService() {
+    protected JaTooWeather getWeatherImpl(String city) {
+      throw new IllegalStateException("down");
+    }
+  };
+
+  private final JaTooWeatherService working = new JaTooWeatherService() {
+    protected JaTooWeather getWeatherImpl(String city) {
+
+      calls.incrementAndGet();
+
+      JaTooWeather weather = new JaTooWeather(this);
+      weather.city = city;
+
+      return weather;
+    }
+  };
+
+  @Test
+  public void testRouting() throws Throwable {
+
+    JaTooWeatherRoutingService service = new JaTooWeatherRoutingService(failing, working);
+    service.setExplorationRatio(0);
+
+    String city = "routed-" + System.nanoTime();
+
+    Assert.assertEquals(city, service.getWeather(city).getCity());
+    Assert.assertEquals(1, service.getErrorRate(failing), 0);
+    Assert.assertEquals(0, service.getErrorRate(working), 0);
+    Assert.assertTrue(service.getScore(working) < service.getScore(failing));
+
+    // cached under the shared namespace
+    JaTooWeatherRoutingService other = new JaTooWeatherRoutingService(working);
+
+    Assert.assertEquals(city, other.getWeather(city).getCity());
+    Assert.assertEquals(1, calls.get());
+  }
+
+  @Test
+  public void testWeatherNear() throws Throwable {
+
+    double latitude = 44.4268;
+    double longitude = 26.1025;
+
+    JaTooWeatherService near = new JaTooWeatherService() {
+
+      protected JaTooWeather getWeatherImpl(String city) {
+        return null;
+      }
+
+      protected JaTooWeather getWeatherImpl(double latitude, double longitude) {
+
+        JaTooWeather weather = new JaTooWeather(this);
+        weather.city = "near-" + System.nanoTime();
+        weather.latitude = latitude;
+        weather.longitude = longitude;
+
+        return weather;
+      }
+    };
+
+    Assert.assertFalse(new JaTooWeatherRoutingService(working).isCoordinatesSupported());
+
+    JaTooWeatherRoutingService service = new JaTooWeatherRoutingService(working, near);
+    service.setExplorationRatio(0);
+
+    Assert.assertTrue(service.isCoordinatesSupported());
+    Assert.assertEquals(latitude, service.getWeatherNear(latitude, longitude, 5).getLatitude(), 0);
+
+    // the provider without coordinates is skipped, not called
+    Assert.assertEquals(0, working.getMetrics().getUpstreamCallCount());
+    Assert.assertEquals(1, near.getMetrics().getUpstreamCallCount());
+  }
+
+}
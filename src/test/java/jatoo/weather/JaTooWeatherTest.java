@@ -17,11 +17,37 @@
 
 package jatoo.weather;
 
+import java.io.ByteArrayOutputStream;
+import java.lang.management.ManagementFactory;
+import java.lang.ref.WeakReference;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.management.ObjectName;
+
 import org.junit.Assert;
+import org.junit.BeforeClass;
 import org.junit.Test;
 
 public class JaTooWeatherTest {
 
+  @BeforeClass
+  public static void setUpClass() throws Throwable {
+    JaTooWeatherTestSupport.useTemporaryCache();
+  }
+
   @Test
   public void test1() throws Throwable {
 
@@ -80,6 +106,446 @@ public class JaTooWeatherTest {
     Assert.assertEquals("Apus: 18:38", weather.getSunsetTextFull());
   }
 
+  @Test
+  public void testTemplate() throws Throwable {
+
+    JaTooWeatherService service = new JaTooWeatherService() {
+      protected JaTooWeather getWeatherImpl(String city) {
+        return getJaTooWeather(this);
+      }
+    };
+
+    JaTooWeather weather = service.getWeather("683506", false);
+
+    Assert.assertEquals("Temperature: 15.07 °C, 79 %", weather.format("{temperature.full}, {humidity}"));
+    Assert.assertEquals("{broken clouds} -/- 07:25", weather.format("{{{description}} {rain}/{snow} {sunrise}"));
+
+    JaTooWeatherFormatter.Template template = service.getFormatter().compile("{wind} ({windDirection})");
+    StringBuilder builder = new StringBuilder("> ");
+
+    Assert.assertSame(template, service.getFormatter().compile("{wind} ({windDirection})"));
+    Assert.assertEquals("> 2.21 meters/sec (57.5015 degrees (meteorological))", template.format(weather, builder).toString());
+
+    // the ad-hoc templates do not pile up, the used ones stay
+    JaTooWeatherFormatter.Template unused = service.getFormatter().compile("{clouds}");
+
+    for (int i = 0; i < 1000; i++) {
+      Assert.assertEquals(i + ": 79 %", weather.format(i + ": {humidity}"));
+      Assert.assertSame(template, service.getFormatter().compile("{wind} ({windDirection})"));
+    }
+
+    Assert.assertNotSame(unused, service.getFormatter().compile("{clouds}"));
+
+    try {
+      service.getFormatter().compile("{temperature} {dew}");
+      Assert.fail();
+    }
+
+    catch (IllegalArgumentException e) {}
+  }
+
+  @Test
+  public void testZone() throws Throwable {
+
+    JaTooWeatherService service = new JaTooWeatherService() {
+      protected JaTooWeather getWeatherImpl(String city) {
+        return getJaTooWeather(this);
+      }
+    };
+
+    JaTooWeather weather = service.getWeather("683506", false);
+
+    weather.zone = ZoneId.of("Asia/Tokyo");
+    Assert.assertEquals("13:25", weather.getSunriseText());
+    Assert.assertEquals("Sunset: 00:38", weather.getSunsetTextFull());
+
+    weather.zone = ZoneId.of("UTC");
+    Assert.assertEquals("04:25", weather.getSunriseText());
+  }
+
+  @Test
+  public void testRenderer() throws Throwable {
+
+    JaTooWeatherService service = new JaTooWeatherService("ro") {
+      protected JaTooWeather getWeatherImpl(String city) {
+        return getJaTooWeather(this);
+      }
+    };
+
+    JaTooWeather weather1 = service.getWeather("683506", false);
+    JaTooWeather weather2 = service.getWeather("683506", false);
+    weather2.city = "Iaşi \"RO\"";
+    weather2.temperature = null;
+
+    List<JaTooWeather> weathers = Arrays.asList(weather1, null, weather2);
+    JaTooWeatherFormatter.Template template = service.getFormatter().compile("{city}: {temperature.full}");
+
+    ByteBuffer buffer = new JaTooWeatherRenderer(template, JaTooWeatherRenderer.LAYOUT.LINES).render(weathers, ByteBuffer.allocate(8));
+    Assert.assertEquals("-: Temperatură: 15.07 °C\nIaşi \"RO\": Temperatură: -\n", new String(buffer.array(), 0, buffer.position(), StandardCharsets.UTF_8));
+
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    new JaTooWeatherRenderer(template, JaTooWeatherRenderer.LAYOUT.JSON).render(weathers, out);
+    Assert.assertEquals("[{\"city\":\"-\",\"temperature.full\":\"Temperatură: 15.07 °C\"},{\"city\":\"Iaşi \\\"RO\\\"\",\"temperature.full\":\"Temperatură: -\"}]", new String(out.toByteArray(), StandardCharsets.UTF_8));
+  }
+
+  @Test
+  public void testSingleFlight() throws Throwable {
+
+    CountDownLatch release = new CountDownLatch(1);
+    AtomicInteger calls = new AtomicInteger();
+
+    JaTooWeatherService service = new JaTooWeatherService() {
+      protected JaTooWeather getWeatherImpl(String city) throws Throwable {
+        calls.incrementAndGet();
+        release.await();
+        return getJaTooWeather(this);
+      }
+    };
+
+    String city = "coalesced-" + System.nanoTime();
+
+    ExecutorService executor = Executors.newFixedThreadPool(8);
+    List<CompletableFuture<JaTooWeather>> weathers = new ArrayList<>();
+
+    for (int i = 0; i < 8; i++) {
+      weathers.add(CompletableFuture.supplyAsync(() -> service.getWeather(city), executor));
+    }
+
+    // all the misses wait for the same fetch
+    long deadline = System.nanoTime() + 5000000000L;
+
+    while (service.getMetrics().getMissCount() < weathers.size() && System.nanoTime() < deadline) {
+      Thread.sleep(10);
+    }
+
+    release.countDown();
+
+    for (CompletableFuture<JaTooWeather> weather : weathers) {
+      Assert.assertEquals("broken clouds", weather.get(5, TimeUnit.SECONDS).getDescription());
+    }
+
+    Assert.assertEquals(weathers.size(), service.getMetrics().getMissCount());
+    Assert.assertEquals(1, calls.get());
+
+    executor.shutdown();
+  }
+
+  @Test
+  public void testStaleWhileRevalidate() throws Throwable {
+
+    CountDownLatch release = new CountDownLatch(1);
+    AtomicInteger calls = new AtomicInteger();
+
+    JaTooWeatherService service = new JaTooWeatherService() {
+      protected JaTooWeather getWeatherImpl(String city) throws Throwable {
+
+        // the refresh waits
+        if (calls.incrementAndGet() > 1) {
+          release.await();
+        }
+
+        return getJaTooWeather(this);
+      }
+    };
+
+    service.setExpiration(100);
+    service.setStaleWhileRevalidate(true);
+    service.setStaleThreshold(TimeUnit.HOURS.toMillis(1));
+
+    String city = "stale-" + System.nanoTime();
+
+    long timestamp = service.getWeather(city).timestamp;
+
+    Thread.sleep(200);
+
+    // the expired weather is served, while refreshed once
+    for (int i = 0; i < 5; i++) {
+      Assert.assertEquals(timestamp, service.getWeather(city).timestamp);
+    }
+
+    Assert.assertEquals(5, service.getMetrics().getStaleCount());
+
+    release.countDown();
+
+    long deadline = System.nanoTime() + 5000000000L;
+
+    while (service.getWeather(city).timestamp == timestamp && System.nanoTime() < deadline) {
+      Thread.sleep(10);
+    }
+
+    Assert.assertTrue(service.getWeather(city).timestamp > timestamp);
+    Assert.assertEquals(2, calls.get());
+  }
+
+  @Test
+  public void testAdaptiveExpiration() throws Throwable {
+
+    AtomicInteger calls = new AtomicInteger();
+    double[] temperature = { 15.07 };
+
+    JaTooWeatherService service = new JaTooWeatherService() {
+      protected JaTooWeather getWeatherImpl(String city) {
+
+        calls.incrementAndGet();
+
+        JaTooWeather weather = getJaTooWeather(this);
+        weather.temperature = temperature[0];
+
+        return weather;
+      }
+    };
+
+    service.setExpiration(100);
+    service.setAdaptiveExpiration(true);
+    service.setAdaptiveExpirationRange(40, 300);
+
+    String city = "adaptive-" + System.nanoTime();
+
+    // the configured expiration first
+    service.getWeather(city);
+    Assert.assertEquals(100, getExpiration(service, city));
+
+    // longer while the weather does not change (up to the maximum)
+    long[] expected = { 150, 225, 300, 300 };
+
+    for (long expiration : expected) {
+      Thread.sleep(getExpiration(service, city) + 20);
+      service.getWeather(city);
+      Assert.assertEquals(expiration, getExpiration(service, city));
+    }
+
+    // not fetched again before the adapted expiration
+    int fetched = calls.get();
+    Thread.sleep(150);
+    service.getWeather(city);
+    Assert.assertEquals(fetched, calls.get());
+
+    // and shorter once it does (down to the minimum)
+    expected = new long[] { 150, 75, 40, 40 };
+
+    for (long expiration : expected) {
+      temperature[0] += 2;
+      Thread.sleep(getExpiration(service, city) + 20);
+      service.getWeather(city);
+      Assert.assertEquals(expiration, getExpiration(service, city));
+    }
+  }
+
+  @Test
+  public void testRefreshAheadNotLeaked() throws Throwable {
+
+    JaTooWeatherService service = new JaTooWeatherService() {
+      protected JaTooWeather getWeatherImpl(String city) {
+        return null;
+      }
+    };
+
+    service.setRefreshAhead(10, TimeUnit.SECONDS.toMillis(30));
+
+    WeakReference<JaTooWeatherService> reference = new WeakReference<>(service);
+    service = null;
+
+    // not kept alive by the (static) scheduler
+    long deadline = System.nanoTime() + 5000000000L;
+
+    while (reference.get() != null && System.nanoTime() < deadline) {
+      System.gc();
+      Thread.sleep(10);
+    }
+
+    Assert.assertNull(reference.get());
+  }
+
+  @Test
+  public void testCancel() throws Throwable {
+
+    CountDownLatch started = new CountDownLatch(1);
+    AtomicInteger calls = new AtomicInteger();
+
+    JaTooWeatherService service = new JaTooWeatherService() {
+      protected JaTooWeather getWeatherImpl(String city) throws Throwable {
+
+        if (calls.incrementAndGet() == 1) {
+          started.countDown();
+          Thread.sleep(10000);
+        }
+
+        return getJaTooWeather(this);
+      }
+    };
+
+    String city = "cancelled-" + System.nanoTime();
+
+    CompletableFuture<JaTooWeather> future = service.getWeatherAsync(city);
+    started.await();
+    future.cancel(true);
+
+    // the fetch is cancelled in background
+    long deadline = System.nanoTime() + 5000000000L;
+
+    while (service.getMetrics().getCancelledCount() < 1 && System.nanoTime() < deadline) {
+      Thread.sleep(10);
+    }
+
+    Assert.assertEquals(1, service.getMetrics().getCancelledCount());
+    Assert.assertEquals(0, service.getMetrics().getUpstreamFailureCount());
+    Assert.assertEquals(JaTooWeatherCircuitBreaker.STATE.CLOSED, service.getCircuitBreaker().getState());
+
+    // not in the negative cache
+    Assert.assertEquals("broken clouds", service.getWeather(city, false).getDescription());
+  }
+
+  @Test
+  public void testWeatherNear() throws Throwable {
+
+    AtomicInteger calls = new AtomicInteger();
+
+    double latitude = 46.7712;
+    double longitude = 23.6236;
+
+    JaTooWeatherService service = new JaTooWeatherService() {
+
+      protected JaTooWeather getWeatherImpl(String city) {
+
+        JaTooWeather weather = getJaTooWeather(this);
+        weather.city = city;
+        weather.latitude = latitude;
+        weather.longitude = longitude;
+
+        return weather;
+      }
+
+      protected JaTooWeather getWeatherImpl(double latitude, double longitude) {
+
+        JaTooWeather weather = getJaTooWeather(this);
+        weather.city = "near-" + calls.incrementAndGet() + "-" + System.nanoTime();
+
+        return weather;
+      }
+    };
+
+    String city = "city-" + System.nanoTime();
+    service.getWeather(city);
+
+    Assert.assertEquals(city, service.getWeatherNear(latitude + 0.02, longitude - 0.02, 5).getCity());
+    Assert.assertEquals(0, calls.get());
+
+    JaTooWeather weather = service.getWeatherNear(latitude + 1, longitude, 5);
+    Assert.assertEquals(1, calls.get());
+    Assert.assertEquals(latitude + 1, weather.getLatitude(), 0);
+
+    Assert.assertEquals(weather.getCity(), service.getWeatherNear(latitude + 1.01, longitude + 0.01, 5).getCity());
+    Assert.assertEquals(1, calls.get());
+  }
+
+  @Test
+  public void testWeatherNearFetch() throws Throwable {
+
+    AtomicInteger calls = new AtomicInteger();
+
+    double latitude = 45.6427;
+    double longitude = 25.5887;
+
+    JaTooWeatherService service = new JaTooWeatherService() {
+
+      protected JaTooWeather getWeatherImpl(String city) {
+        return getJaTooWeather(this);
+      }
+
+      protected JaTooWeather getWeatherImpl(double latitude, double longitude) throws Throwable {
+
+        calls.incrementAndGet();
+        Thread.sleep(200);
+
+        JaTooWeather weather = getJaTooWeather(this);
+        weather.city = "near-" + System.nanoTime();
+
+        return weather;
+      }
+    };
+
+    Assert.assertTrue(service.isCoordinatesSupported());
+
+    // the concurrent misses share the same fetch
+    CompletableFuture<JaTooWeather> other = CompletableFuture.supplyAsync(() -> service.getWeatherNear(latitude, longitude, 5));
+    JaTooWeather weather = service.getWeatherNear(latitude, longitude, 5);
+
+    Assert.assertEquals(weather.getCity(), other.get().getCity());
+    Assert.assertEquals(1, calls.get());
+
+    JaTooWeatherService unsupported = new JaTooWeatherService() {
+      protected JaTooWeather getWeatherImpl(String city) {
+        return getJaTooWeather(this);
+      }
+    };
+
+    // not called at all
+    Assert.assertFalse(unsupported.isCoordinatesSupported());
+    Assert.assertNull(unsupported.getWeatherNear(latitude, longitude, 5));
+    Assert.assertEquals(0, unsupported.getMetrics().getUpstreamCallCount());
+  }
+
+  @Test
+  public void testBatchBudget() throws Throwable {
+
+    List<Long> calls = new CopyOnWriteArrayList<>();
+
+    JaTooWeatherService service = new JaTooWeatherService() {
+      protected JaTooWeather getWeatherImpl(String city) {
+        calls.add(System.nanoTime());
+        return getJaTooWeather(this);
+      }
+    };
+
+    service.getRateLimiter().setRate(1, 50, TimeUnit.MILLISECONDS);
+
+    try {
+      service.getRateLimiter().tryAcquire(JaTooWeatherRateLimiter.PRIORITY.INTERACTIVE, 2);
+      Assert.fail("more permits than the burst");
+    }
+
+    catch (IllegalArgumentException e) {
+      // expected
+    }
+
+    long id = System.nanoTime();
+    List<String> cities = Arrays.asList("a" + id, "b" + id, "c" + id, "d" + id);
+
+    // a permit per upstream call, not a burst of all
+    Assert.assertEquals(4, service.getWeather(cities).size());
+    Assert.assertEquals(4, calls.size());
+    Assert.assertTrue(Collections.max(calls) - Collections.min(calls) >= TimeUnit.MILLISECONDS.toNanos(100));
+
+    // and a record per upstream call, not one for the fan-out
+    Assert.assertEquals(4, service.getMetrics().getUpstreamCallCount());
+  }
+
+  @Test
+  public void testMBean() throws Throwable {
+
+    JaTooWeatherService service = new JaTooWeatherService() {
+      protected JaTooWeather getWeatherImpl(String city) {
+        return getJaTooWeather(this);
+      }
+    };
+
+    ObjectName objectName = new ObjectName(JaTooWeatherMBeans.DOMAIN + ":type=Service,name=" + ObjectName.quote(service.getClass().getName()));
+
+    // opt-in, so the services are not leaked by the server
+    Assert.assertFalse(service.isMBeanRegistered());
+    Assert.assertFalse(ManagementFactory.getPlatformMBeanServer().isRegistered(objectName));
+
+    service.setMBeanRegistered(true);
+    Assert.assertTrue(ManagementFactory.getPlatformMBeanServer().isRegistered(objectName));
+
+    service.setMBeanRegistered(false);
+    Assert.assertFalse(ManagementFactory.getPlatformMBeanServer().isRegistered(objectName));
+  }
+
+  private long getExpiration(JaTooWeatherService service, String city) {
+    return JaTooWeatherCache.getInstance().peekEntry(service, city).getExpiration();
+  }
+
   private JaTooWeather getJaTooWeather(JaTooWeatherService service) {
 
     JaTooWeather weather = new JaTooWeather(service);
@@ -0,0 +1,102 @@
+/*
+ * Copyright (C) Cristian Sulea ( http://cristian.sulea.net )
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package jatoo.weather;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+
+/**
+ * The support of the tests, so they do not use (or leave behind) any directory
+ * of the user: the temporary directories, deleted after use, and the one of the
+ * cache. The cache being a singleton, its directory is set once, before its
+ * first use, and deleted on exit, after the cache is saved.
+ * 
+ * @author <a href="http://cristian.sulea.net" rel="author">Cristian Sulea</a>
+ * @version 1.0, October 18, 2026
+ */
+final class JaTooWeatherTestSupport {
+
+  /** The temporary directory of the cache, once set. */
+  private static File cacheDirectory;
+
+  /**
+   * Makes the cache use a temporary directory. Must be called (like from a
+   * <code>@BeforeClass</code> method) by every test using the cache, since any
+   * of them may be the first.
+   * 
+   * @throws IOException
+   *           if the directory could not be created
+   */
+  static synchronized void useTemporaryCache() throws IOException {
+
+    if (cacheDirectory != null) {
+      return;
+    }
+
+    File directory = createTempDirectory("jatoo-weather-cache");
+
+    try {
+      JaTooWeatherCache.setDirectory(directory);
+    }
+
+    catch (IllegalStateException e) {
+      delete(directory);
+      throw e;
+    }
+
+    cacheDirectory = directory;
+
+    // the hooks run concurrently, so the one of the cache
+    // is replaced by one saving the cache, and only then deleting it
+    Thread shutdownHook = JaTooWeatherCache.getInstance().shutdownHook;
+
+    Runtime.getRuntime().removeShutdownHook(shutdownHook);
+    Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+      shutdownHook.run();
+      delete(directory);
+    }));
+  }
+
+  static File createTempDirectory(final String prefix) throws IOException {
+    return Files.createTempDirectory(prefix).toFile();
+  }
+
+  /**
+   * Deletes the given file or directory, with all its content.
+   * 
+   * @param file
+   *          the file or directory
+   */
+  static void delete(final File file) {
+
+    File[] files = file.listFiles();
+
+    if (files != null) {
+      for (File child : files) {
+        delete(child);
+      }
+    }
+
+    file.delete();
+  }
+
+  private JaTooWeatherTestSupport() {}
+
+}